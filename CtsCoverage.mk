@@ -23,6 +23,8 @@ cts_api_coverage_exe := $(HOST_OUT_EXECUTABLES)/cts-api-coverage
 dexdeps_exe := $(HOST_OUT_EXECUTABLES)/dexdeps
 
 coverage_out := $(HOST_OUT)/cts-api-coverage
+# references found in each test APK, so APKs that didn't change aren't scanned again
+coverage_cache := $(coverage_out)/apk-references
 
 api_text_description := frameworks/base/api/current.txt
 api_xml_description := $(coverage_out)/api.xml
@@ -42,6 +44,7 @@ $(cts-test-coverage-report): PRIVATE_TEST_CASES_APKS := $(cts_coverage_test_case
 $(cts-test-coverage-report): PRIVATE_CTS_API_COVERAGE_EXE := $(cts_api_coverage_exe)
 $(cts-test-coverage-report): PRIVATE_DEXDEPS_EXE := $(dexdeps_exe)
 $(cts-test-coverage-report): PRIVATE_API_XML_DESC := $(api_xml_description)
+$(cts-test-coverage-report): PRIVATE_COVERAGE_CACHE := $(coverage_cache)
 $(cts-test-coverage-report) : $(cts_coverage_test_cases_dependencies) $(cts_api_coverage_dependencies) | $(ACP)
 	$(call generate-coverage-report,"CTS Tests API Coverage Report",\
 			$(PRIVATE_TEST_CASES_APKS),html)
@@ -51,6 +54,7 @@ $(cts-verifier-coverage-report): PRIVATE_TEST_CASES_APKS := $(cts_coverage_test_
 $(cts-verifier-coverage-report): PRIVATE_CTS_API_COVERAGE_EXE := $(cts_api_coverage_exe)
 $(cts-verifier-coverage-report): PRIVATE_DEXDEPS_EXE := $(dexdeps_exe)
 $(cts-verifier-coverage-report): PRIVATE_API_XML_DESC := $(api_xml_description)
+$(cts-verifier-coverage-report): PRIVATE_COVERAGE_CACHE := $(coverage_cache)
 $(cts-verifier-coverage-report) : $(cts_coverage_test_cases_dependencies) $(cts_api_coverage_dependencies) | $(ACP)
 	$(call generate-coverage-report,"CTS Verifier API Coverage Report",\
 			$(PRIVATE_TEST_CASES_APKS),html)
@@ -60,6 +64,7 @@ $(cts-combined-coverage-report): PRIVATE_TEST_CASES_APKS := $(cts_coverage_test_
 $(cts-combined-coverage-report): PRIVATE_CTS_API_COVERAGE_EXE := $(cts_api_coverage_exe)
 $(cts-combined-coverage-report): PRIVATE_DEXDEPS_EXE := $(dexdeps_exe)
 $(cts-combined-coverage-report): PRIVATE_API_XML_DESC := $(api_xml_description)
+$(cts-combined-coverage-report): PRIVATE_COVERAGE_CACHE := $(coverage_cache)
 $(cts-combined-coverage-report) : $(cts_coverage_test_cases_dependencies) $(cts_api_coverage_dependencies) | $(ACP)
 	$(call generate-coverage-report,"CTS Combined API Coverage Report",\
 			$(PRIVATE_TEST_CASES_APKS),html)
@@ -86,7 +91,7 @@ endif
 #  3 - Format of the report
 define generate-coverage-report
 	$(hide) mkdir -p $(dir $@)
-	$(hide) $(PRIVATE_CTS_API_COVERAGE_EXE) -d $(PRIVATE_DEXDEPS_EXE) -a $(PRIVATE_API_XML_DESC) -f $(3) -o $@ $(2)
+	$(hide) $(PRIVATE_CTS_API_COVERAGE_EXE) -d $(PRIVATE_DEXDEPS_EXE) -a $(PRIVATE_API_XML_DESC) -c $(PRIVATE_COVERAGE_CACHE) -f $(3) -o $@ $(2)
 	@ echo $(1): file://$(ANDROID_BUILD_TOP)/$@
 endef
 
@@ -98,6 +103,7 @@ cts-verifier-coverage-report :=
 cts-test-coverage-report :=
 api_xml_description :=
 api_text_description :=
+coverage_cache :=
 coverage_out :=
 dexdeps_exe :=
 cts_api_coverage_exe :=
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A performance result recorded by a {@link ReportLog}: a summary value and the arrays of values
+ * it was derived from.
+ * <p/>
+ * Results are passed from the device to the host as a string in the format of
+ * {@link ReportLog}, see {@link #encode()} and {@link #parse(String)}.
+ */
+public class PerfResult {
+    private static final String LOG_SEPARATOR = "+++";
+    private static final String SUMMARY_SEPARATOR = "++++";
+    private static final char LOG_ELEM_SEPARATOR = '|';
+    private static final char VALUE_SEPARATOR = ' ';
+    private static final String NO_TARGET = " ";
+
+    /**
+     * A single value summarizing the result, with an optional performance target.
+     */
+    public static class Summary {
+        private final String mMessage;
+        private final Double mTarget;
+        private final ResultType mType;
+        private final ResultUnit mUnit;
+        private final double mValue;
+
+        /**
+         * @param message the message describing the value
+         * @param target the performance target, or <code>null</code> if there is none
+         * @param type the {@link ResultType} of the value
+         * @param unit the {@link ResultUnit} of the value
+         * @param value the measured value
+         */
+        public Summary(String message, Double target, ResultType type, ResultUnit unit,
+                double value) {
+            mMessage = message;
+            mTarget = target;
+            mType = type;
+            mUnit = unit;
+            mValue = value;
+        }
+
+        public String getMessage() {
+            return mMessage;
+        }
+
+        /**
+         * @return the performance target, or <code>null</code> if there is none
+         */
+        public Double getTarget() {
+            return mTarget;
+        }
+
+        public ResultType getType() {
+            return mType;
+        }
+
+        public ResultUnit getUnit() {
+            return mUnit;
+        }
+
+        public double getValue() {
+            return mValue;
+        }
+    }
+
+    /**
+     * An array of measured values, and the location in the test that reported them.
+     */
+    public static class ValueArray {
+        private final String mSource;
+        private final String mMessage;
+        private final ResultType mType;
+        private final ResultUnit mUnit;
+        private final double[] mValues;
+
+        /**
+         * @param source the class#method:line that reported the values
+         * @param message the message describing the values
+         * @param type the {@link ResultType} of the values
+         * @param unit the {@link ResultUnit} of the values
+         * @param values the measured values
+         */
+        public ValueArray(String source, String message, ResultType type, ResultUnit unit,
+                double[] values) {
+            mSource = source;
+            mMessage = message;
+            mType = type;
+            mUnit = unit;
+            mValues = values.clone();
+        }
+
+        public String getSource() {
+            return mSource;
+        }
+
+        public String getMessage() {
+            return mMessage;
+        }
+
+        public ResultType getType() {
+            return mType;
+        }
+
+        public ResultUnit getUnit() {
+            return mUnit;
+        }
+
+        public double[] getValues() {
+            return mValues.clone();
+        }
+
+        /**
+         * @return the number of values
+         */
+        public int size() {
+            return mValues.length;
+        }
+
+        /**
+         * @return the value at the given index
+         */
+        public double getValue(int index) {
+            return mValues[index];
+        }
+
+        /**
+         * Append this array in the format of {@link ReportLog} to the given builder.
+         */
+        void encode(StringBuilder builder) {
+            builder.append(mSource).append(LOG_ELEM_SEPARATOR);
+            builder.append(mMessage).append(LOG_ELEM_SEPARATOR);
+            builder.append(mType.getXmlString()).append(LOG_ELEM_SEPARATOR);
+            builder.append(mUnit.getXmlString()).append(LOG_ELEM_SEPARATOR);
+            for (double v : mValues) {
+                builder.append(v).append(VALUE_SEPARATOR);
+            }
+        }
+    }
+
+    private final Summary mSummary;
+    private final List<ValueArray> mDetails;
+
+    /**
+     * @param summary the {@link Summary}, or <code>null</code> if there is none
+     * @param details the {@link ValueArray}s
+     */
+    public PerfResult(Summary summary, List<ValueArray> details) {
+        mSummary = summary;
+        mDetails = Collections.unmodifiableList(new ArrayList<ValueArray>(details));
+    }
+
+    /**
+     * @return the {@link Summary}, or <code>null</code> if there is none
+     */
+    public Summary getSummary() {
+        return mSummary;
+    }
+
+    /**
+     * @return the {@link ValueArray}s
+     */
+    public List<ValueArray> getDetails() {
+        return mDetails;
+    }
+
+    /**
+     * @return this result in the format of {@link ReportLog}
+     */
+    public String encode() {
+        StringBuilder builder = new StringBuilder();
+        if (mSummary == null) {
+            // as written by ReportLog for a report without a summary
+            builder.append("null");
+        } else {
+            builder.append(mSummary.mMessage).append(LOG_ELEM_SEPARATOR);
+            builder.append(mSummary.mTarget == null ? NO_TARGET : mSummary.mTarget.toString());
+            builder.append(LOG_ELEM_SEPARATOR);
+            builder.append(mSummary.mType.getXmlString()).append(LOG_ELEM_SEPARATOR);
+            builder.append(mSummary.mUnit.getXmlString()).append(LOG_ELEM_SEPARATOR);
+            builder.append(mSummary.mValue);
+        }
+        builder.append(SUMMARY_SEPARATOR);
+        for (int i = 0; i < mDetails.size(); i++) {
+            if (i > 0) {
+                builder.append(LOG_SEPARATOR);
+            }
+            mDetails.get(i).encode(builder);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Parse a result in the format of {@link ReportLog}.
+     * <p/>
+     * Malformed value arrays are skipped. A malformed summary is reported as no summary.
+     *
+     * @param report the report string
+     * @return the {@link PerfResult}, or <code>null</code> if <var>report</var> is not a report
+     */
+    public static PerfResult parse(String report) {
+        int summaryEnd = report.indexOf(SUMMARY_SEPARATOR);
+        if (summaryEnd == -1) {
+            return null;
+        }
+        Summary summary = parseSummary(report.substring(0, summaryEnd));
+        List<ValueArray> details = new ArrayList<ValueArray>();
+        int start = summaryEnd + SUMMARY_SEPARATOR.length();
+        while (start < report.length()) {
+            int end = report.indexOf(LOG_SEPARATOR, start);
+            if (end == -1) {
+                end = report.length();
+            }
+            ValueArray array = parseValueArray(report.substring(start, end));
+            if (array != null) {
+                details.add(array);
+            }
+            start = end + LOG_SEPARATOR.length();
+        }
+        return new PerfResult(summary, details);
+    }
+
+    private static Summary parseSummary(String summary) {
+        String[] elems = splitElements(summary);
+        if (elems == null) {
+            return null;
+        }
+        try {
+            Double target = null;
+            if (!elems[1].trim().isEmpty()) {
+                target = Double.valueOf(elems[1]);
+            }
+            return new Summary(elems[0], target, parseType(elems[2]), parseUnit(elems[3]),
+                    Double.parseDouble(elems[4]));
+        } catch (IllegalArgumentException e) {
+            // includes NumberFormatException
+            return null;
+        }
+    }
+
+    private static ValueArray parseValueArray(String array) {
+        String[] elems = splitElements(array);
+        if (elems == null) {
+            return null;
+        }
+        try {
+            String[] valueStrings = elems[4].trim().split(" +");
+            double[] values = new double[valueStrings[0].isEmpty() ? 0 : valueStrings.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Double.parseDouble(valueStrings[i]);
+            }
+            return new ValueArray(elems[0], elems[1], parseType(elems[2]), parseUnit(elems[3]),
+                    values);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Split the five elements of a summary or value array.
+     *
+     * @return the elements, or <code>null</code> if there are fewer than five
+     */
+    private static String[] splitElements(String entry) {
+        String[] elems = new String[5];
+        int start = 0;
+        for (int i = 0; i < elems.length - 1; i++) {
+            int end = entry.indexOf(LOG_ELEM_SEPARATOR, start);
+            if (end == -1) {
+                return null;
+            }
+            elems[i] = entry.substring(start, end);
+            start = end + 1;
+        }
+        // the value may not contain a separator
+        int end = entry.indexOf(LOG_ELEM_SEPARATOR, start);
+        elems[elems.length - 1] = entry.substring(start, end == -1 ? entry.length() : end);
+        return elems;
+    }
+
+    private static ResultType parseType(String type) {
+        return ResultType.valueOf(type.toUpperCase(Locale.US));
+    }
+
+    private static ResultUnit parseUnit(String unit) {
+        return ResultUnit.valueOf(unit.toUpperCase(Locale.US));
+    }
+}
@@ -32,12 +32,8 @@ import junit.framework.Assert;
  * log for array = classMethodName:line_number|message|unit|type|space seSummaryparated values
  */
 public class ReportLog {
-    private static final String LOG_SEPARATOR = "+++";
-    private static final String SUMMARY_SEPARATOR = "++++";
-    private static final String LOG_ELEM_SEPARATOR = "|";
-
-    private List<String> mMessages = new LinkedList<String> ();
-    private String mSummary = null;
+    private List<PerfResult.ValueArray> mMessages = new LinkedList<PerfResult.ValueArray>();
+    private PerfResult.Summary mSummary = null;
     protected static int mDepth = 3;
 
     /**
@@ -56,17 +52,13 @@ public class ReportLog {
     }
 
     private void doPrintArray(String message, double[] values, ResultType type, ResultUnit unit) {
-        StringBuilder builder = new StringBuilder();
         // note mDepth + 1 as this function will be called by printVaue or printArray
         // and we need caller of printValue / printArray
-        builder.append(getClassMethodNames(mDepth + 1, true) + LOG_ELEM_SEPARATOR + message +
-                LOG_ELEM_SEPARATOR + type.getXmlString() + LOG_ELEM_SEPARATOR +
-                unit.getXmlString() + LOG_ELEM_SEPARATOR);
-        for (double v : values) {
-            builder.append(v);
-            builder.append(" ");
-        }
-        mMessages.add(builder.toString());
+        PerfResult.ValueArray array = new PerfResult.ValueArray(
+                getClassMethodNames(mDepth + 1, true), message, type, unit, values);
+        mMessages.add(array);
+        StringBuilder builder = new StringBuilder();
+        array.encode(builder);
         printLog(builder.toString());
     }
 
@@ -84,8 +76,7 @@ public class ReportLog {
      */
     public void printSummaryWithTarget(String message, double target, double value,
             ResultType type, ResultUnit unit) {
-        mSummary = message + LOG_ELEM_SEPARATOR + target + LOG_ELEM_SEPARATOR + type.getXmlString()
-                + LOG_ELEM_SEPARATOR + unit.getXmlString() + LOG_ELEM_SEPARATOR + value;
+        mSummary = new PerfResult.Summary(message, target, type, unit, value);
         boolean resultOk = true;
         if (type == ResultType.HIGHER_BETTER) {
             resultOk = value >= target;
@@ -107,32 +98,30 @@ public class ReportLog {
      * @param unit unit of the data
      */
     public void printSummary(String message, double value, ResultType type, ResultUnit unit) {
-        mSummary = message + LOG_ELEM_SEPARATOR + " " + LOG_ELEM_SEPARATOR + type.getXmlString() +
-                LOG_ELEM_SEPARATOR + unit.getXmlString() + LOG_ELEM_SEPARATOR + value;
+        mSummary = new PerfResult.Summary(message, null, type, unit, value);
     }
 
     /**
      * @return a string representation of this report.
      */
     protected String generateReport() {
+        PerfResult result = generatePerfResult();
+        return result == null ? "" : result.encode();
+    }
+
+    /**
+     * Get the recorded result, and clear this report.
+     *
+     * @return the {@link PerfResult}, or <code>null</code> if nothing was recorded
+     */
+    protected PerfResult generatePerfResult() {
         if ((mSummary == null) && mMessages.isEmpty()) {
-            // just return empty string
-            return "";
-        }
-        StringBuilder builder = new StringBuilder();
-        builder.append(mSummary);
-        builder.append(SUMMARY_SEPARATOR);
-        for (String entry : mMessages) {
-            builder.append(entry);
-            builder.append(LOG_SEPARATOR);
-        }
-        // delete the last separator
-        if (builder.length() >= LOG_SEPARATOR.length()) {
-            builder.delete(builder.length() - LOG_SEPARATOR.length(), builder.length());
+            return null;
         }
+        PerfResult result = new PerfResult(mSummary, mMessages);
         mSummary = null;
         mMessages.clear();
-        return builder.toString();
+        return result;
     }
 
     /**
@@ -16,6 +16,8 @@
 
 package com.android.cts.util;
 
+import java.util.Locale;
+
 /**
  * Enum for distinguishing performance results.
  */
@@ -33,6 +35,6 @@ public enum ResultType {
      * Return string used in CTS XML report
      */
     public String getXmlString() {
-        return name().toLowerCase();
+        return name().toLowerCase(Locale.US);
     }
 }
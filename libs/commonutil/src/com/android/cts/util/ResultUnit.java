@@ -16,6 +16,8 @@
 
 package com.android.cts.util;
 
+import java.util.Locale;
+
 /**
  * Enum for representing the unit of performance results.
  *
@@ -44,7 +46,7 @@ public enum ResultUnit {
      * Return string used in CTS XML report
      */
     public String getXmlString() {
-        return name().toLowerCase();
+        return name().toLowerCase(Locale.US);
     }
 }
 
@@ -19,7 +19,9 @@ package com.android.cts.apicoverage;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /** Representation of a class in the API with constructors and methods. */
 class ApiClass implements Comparable<ApiClass>, HasCoverage {
@@ -34,6 +36,15 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     private final List<ApiMethod> mApiMethods = new ArrayList<ApiMethod>();
 
+    /**
+     * Constructors by parameter types and methods by signature, since every method referenced
+     * by every APK is looked up and big classes have hundreds of methods.
+     */
+    private final Map<List<String>, ApiConstructor> mConstructorsByParameterTypes =
+            new HashMap<List<String>, ApiConstructor>();
+
+    private final Map<String, ApiMethod> mMethodsBySignature = new HashMap<String, ApiMethod>();
+
     ApiClass(String name, boolean deprecated, boolean classAbstract) {
         mName = name;
         mDeprecated = deprecated;
@@ -60,15 +71,15 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     public void addConstructor(ApiConstructor constructor) {
         mApiConstructors.add(constructor);
+        // like the first match of a linear search if the API lists a constructor twice
+        List<String> parameterTypes = constructor.getParameterTypes();
+        if (!mConstructorsByParameterTypes.containsKey(parameterTypes)) {
+            mConstructorsByParameterTypes.put(parameterTypes, constructor);
+        }
     }
 
     public ApiConstructor getConstructor(List<String> parameterTypes) {
-        for (ApiConstructor constructor : mApiConstructors) {
-            if (parameterTypes.equals(constructor.getParameterTypes())) {
-                return constructor;
-            }
-        }
-        return null;
+        return mConstructorsByParameterTypes.get(parameterTypes);
     }
 
     public Collection<ApiConstructor> getConstructors() {
@@ -77,17 +88,28 @@ class ApiClass implements Comparable<ApiClass>, HasCoverage {
 
     public void addMethod(ApiMethod method) {
         mApiMethods.add(method);
+        String signature = getSignature(method.getName(), method.getParameterTypes(),
+                method.getReturnType());
+        if (!mMethodsBySignature.containsKey(signature)) {
+            mMethodsBySignature.put(signature, method);
+        }
     }
 
     public ApiMethod getMethod(String name, List<String> parameterTypes, String returnType) {
-        for (ApiMethod method : mApiMethods) {
-            if (name.equals(method.getName())
-                    && parameterTypes.equals(method.getParameterTypes())
-                    && returnType.equals(method.getReturnType())) {
-                return method;
+        return mMethodsBySignature.get(getSignature(name, parameterTypes, returnType));
+    }
+
+    /** @return a key that is unique for each method name, parameter types and return type */
+    private static String getSignature(String name, List<String> parameterTypes,
+            String returnType) {
+        StringBuilder signature = new StringBuilder(name).append('(');
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            if (i > 0) {
+                signature.append(',');
             }
+            signature.append(parameterTypes.get(i));
         }
-        return null;
+        return signature.append(')').append(returnType).toString();
     }
 
     public Collection<ApiMethod> getMethods() {
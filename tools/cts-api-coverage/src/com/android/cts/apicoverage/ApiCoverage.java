@@ -20,6 +20,7 @@ import java.lang.String;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /** Representation of the entire API containing packages. */
@@ -39,6 +40,39 @@ class ApiCoverage {
         return Collections.unmodifiableCollection(mPackages.values());
     }
 
+    /**
+     * Marks the constructor with the given parameter types as covered, if the API has it.
+     */
+    public void markConstructorCovered(String packageName, String className,
+            List<String> parameterTypes) {
+        ApiClass apiClass = findClass(packageName, className);
+        if (apiClass != null) {
+            ApiConstructor apiConstructor = apiClass.getConstructor(parameterTypes);
+            if (apiConstructor != null) {
+                apiConstructor.setCovered(true);
+            }
+        }
+    }
+
+    /**
+     * Marks the method with the given signature as covered, if the API has it.
+     */
+    public void markMethodCovered(String packageName, String className, String methodName,
+            List<String> parameterTypes, String returnType) {
+        ApiClass apiClass = findClass(packageName, className);
+        if (apiClass != null) {
+            ApiMethod apiMethod = apiClass.getMethod(methodName, parameterTypes, returnType);
+            if (apiMethod != null) {
+                apiMethod.setCovered(true);
+            }
+        }
+    }
+
+    private ApiClass findClass(String packageName, String className) {
+        ApiPackage apiPackage = getPackage(packageName);
+        return apiPackage != null ? apiPackage.getClass(className) : null;
+    }
+
     public void removeEmptyAbstractClasses() {
         for (Map.Entry<String, ApiPackage> entry : mPackages.entrySet()) {
             ApiPackage pkg = entry.getValue();
@@ -31,7 +31,8 @@ class ApiMethod implements Comparable<ApiMethod> {
 
     private boolean mDeprecated;
 
-    private boolean mIsCovered;
+    /** set by the threads extracting the coverage of each APK */
+    private volatile boolean mIsCovered;
 
     ApiMethod(String name, List<String> parameterTypes, String returnType, boolean deprecated) {
         mName = name;
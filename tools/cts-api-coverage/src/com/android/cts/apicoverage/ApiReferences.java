@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.apicoverage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The constructors and methods referenced by a test APK, which can be saved to a file so the APK
+ * doesn't need to be scanned again while it is unchanged.
+ * <p/>
+ * The file has a header line followed by one line per reference, with tab separated fields:
+ * <pre>
+ * C    package    class    parameter types
+ * M    package    class    parameter types    method name    return type
+ * </pre>
+ * where the parameter types are separated by commas. Type names never contain tabs or commas,
+ * since generics are stripped from them.
+ */
+class ApiReferences {
+
+    /** Changed whenever the file format or the way references are found changes. */
+    private static final String HEADER = "cts-api-coverage references 1";
+
+    private static final String CONSTRUCTOR = "C";
+
+    private static final String METHOD = "M";
+
+    private final List<Reference> mReferences = new ArrayList<Reference>();
+
+    public void addConstructor(String packageName, String className,
+            List<String> parameterTypes) {
+        mReferences.add(new Reference(packageName, className, null, parameterTypes, null));
+    }
+
+    public void addMethod(String packageName, String className, String methodName,
+            List<String> parameterTypes, String returnType) {
+        mReferences.add(new Reference(packageName, className, methodName, parameterTypes,
+                returnType));
+    }
+
+    /** Removes all references. */
+    public void clear() {
+        mReferences.clear();
+    }
+
+    /** Marks the referenced constructors and methods of the API as covered. */
+    public void addTo(ApiCoverage apiCoverage) {
+        for (Reference reference : mReferences) {
+            if (reference.mMethodName == null) {
+                apiCoverage.markConstructorCovered(reference.mPackageName,
+                        reference.mClassName, reference.mParameterTypes);
+            } else {
+                apiCoverage.markMethodCovered(reference.mPackageName, reference.mClassName,
+                        reference.mMethodName, reference.mParameterTypes,
+                        reference.mReturnType);
+            }
+        }
+    }
+
+    /**
+     * Saves the references to a file. The file is written next to its final location and then
+     * renamed, so other runs never see a partly written file.
+     */
+    public void write(File file) throws IOException {
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile),
+                    "UTF-8"));
+            writer.write(HEADER);
+            writer.write('\n');
+            for (Reference reference : mReferences) {
+                writer.write(reference.mMethodName == null ? CONSTRUCTOR : METHOD);
+                writer.write('\t');
+                writer.write(reference.mPackageName);
+                writer.write('\t');
+                writer.write(reference.mClassName);
+                writer.write('\t');
+                for (int i = 0; i < reference.mParameterTypes.size(); i++) {
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    writer.write(reference.mParameterTypes.get(i));
+                }
+                if (reference.mMethodName != null) {
+                    writer.write('\t');
+                    writer.write(reference.mMethodName);
+                    writer.write('\t');
+                    writer.write(reference.mReturnType);
+                }
+                writer.write('\n');
+            }
+            writer.close();
+            writer = null;
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tmpFile + " to " + file);
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Loads references saved by {@link #write(File)}.
+     *
+     * @return the references, or null if the file was written by an incompatible version
+     * @throws IOException if the file could not be read or is corrupt
+     */
+    public static ApiReferences read(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            if (!HEADER.equals(reader.readLine())) {
+                return null;
+            }
+            ApiReferences references = new ApiReferences();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (CONSTRUCTOR.equals(fields[0]) && fields.length == 4) {
+                    references.addConstructor(fields[1], fields[2], splitTypes(fields[3]));
+                } else if (METHOD.equals(fields[0]) && fields.length == 6) {
+                    references.addMethod(fields[1], fields[2], fields[4], splitTypes(fields[3]),
+                            fields[5]);
+                } else {
+                    throw new IOException("Corrupt line in " + file + ": " + line);
+                }
+            }
+            return references;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static List<String> splitTypes(String types) {
+        if (types.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(types.split(","));
+    }
+
+    private static class Reference {
+        private final String mPackageName;
+        private final String mClassName;
+        private final String mMethodName;
+        private final List<String> mParameterTypes;
+        private final String mReturnType;
+
+        /** @param methodName the name of the method, or null for a constructor */
+        Reference(String packageName, String className, String methodName,
+                List<String> parameterTypes, String returnType) {
+            mPackageName = packageName;
+            mClassName = className;
+            mMethodName = methodName;
+            mParameterTypes = new ArrayList<String>(parameterTypes);
+            mReturnType = returnType;
+        }
+    }
+}
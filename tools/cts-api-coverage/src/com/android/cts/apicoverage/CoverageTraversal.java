@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.apicoverage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The traversal of an {@link ApiCoverage} shared by the reports. Packages and classes are
+ * visited from least to most covered, and the constructors and methods of a class in the order
+ * the API lists them, unless they are sorted. Classes without constructors or methods are
+ * skipped, and so are such packages unless they are included.
+ */
+class CoverageTraversal {
+
+    /** Receives the parts of the API in report order. Ignores everything by default. */
+    static abstract class Visitor {
+        void startPackage(ApiPackage apiPackage) {
+        }
+
+        void startClass(ApiClass apiClass) {
+        }
+
+        void visitConstructor(ApiConstructor constructor) {
+        }
+
+        void visitMethod(ApiMethod method) {
+        }
+
+        void endClass(ApiClass apiClass) {
+        }
+
+        void endPackage(ApiPackage apiPackage) {
+        }
+    }
+
+    private final CoverageComparator mComparator = new CoverageComparator();
+
+    private final List<ApiPackage> mPackages = new ArrayList<ApiPackage>();
+
+    private boolean mIncludeEmptyPackages = false;
+
+    private boolean mSortMembers = false;
+
+    /**
+     * @param apiCoverage the API to visit
+     * @param packageFilter the prefix of the packages to visit
+     */
+    CoverageTraversal(ApiCoverage apiCoverage, String packageFilter) {
+        for (ApiPackage apiPackage : apiCoverage.getPackages()) {
+            if (apiPackage.getName().startsWith(packageFilter)) {
+                mPackages.add(apiPackage);
+            }
+        }
+        Collections.sort(mPackages, mComparator);
+    }
+
+    /** Whether to visit packages without constructors or methods. */
+    public void setIncludeEmptyPackages(boolean includeEmptyPackages) {
+        mIncludeEmptyPackages = includeEmptyPackages;
+    }
+
+    /** Whether to visit constructors by number of parameters and methods by name. */
+    public void setSortMembers(boolean sortMembers) {
+        mSortMembers = sortMembers;
+    }
+
+    /** @return the packages that are visited, in the order they are visited */
+    public List<ApiPackage> getPackages() {
+        List<ApiPackage> packages = new ArrayList<ApiPackage>(mPackages.size());
+        for (ApiPackage apiPackage : mPackages) {
+            if (mIncludeEmptyPackages || apiPackage.getTotalMethods() > 0) {
+                packages.add(apiPackage);
+            }
+        }
+        return packages;
+    }
+
+    /** @return the number of constructors and methods that aren't deprecated */
+    public int getTotalMethods() {
+        return countMethods(false);
+    }
+
+    /** @return the number of covered constructors and methods that aren't deprecated */
+    public int getNumCoveredMethods() {
+        return countMethods(true);
+    }
+
+    private int countMethods(boolean coveredOnly) {
+        int numMethods = 0;
+        for (ApiPackage apiPackage : mPackages) {
+            for (ApiClass apiClass : apiPackage.getClasses()) {
+                for (ApiConstructor constructor : apiClass.getConstructors()) {
+                    if (!constructor.isDeprecated() && (!coveredOnly || constructor.isCovered())) {
+                        numMethods++;
+                    }
+                }
+                for (ApiMethod method : apiClass.getMethods()) {
+                    if (!method.isDeprecated() && (!coveredOnly || method.isCovered())) {
+                        numMethods++;
+                    }
+                }
+            }
+        }
+        return numMethods;
+    }
+
+    /** Visits the packages, and their classes, constructors and methods. */
+    public void walk(Visitor visitor) {
+        for (ApiPackage apiPackage : getPackages()) {
+            walkPackage(apiPackage, visitor);
+        }
+    }
+
+    /** Visits one of the packages, and its classes, constructors and methods. */
+    public void walkPackage(ApiPackage apiPackage, Visitor visitor) {
+        visitor.startPackage(apiPackage);
+
+        List<ApiClass> classes = new ArrayList<ApiClass>(apiPackage.getClasses());
+        Collections.sort(classes, mComparator);
+        for (ApiClass apiClass : classes) {
+            if (apiClass.getTotalMethods() > 0) {
+                walkClass(apiClass, visitor);
+            }
+        }
+
+        visitor.endPackage(apiPackage);
+    }
+
+    private void walkClass(ApiClass apiClass, Visitor visitor) {
+        visitor.startClass(apiClass);
+
+        List<ApiConstructor> constructors =
+                new ArrayList<ApiConstructor>(apiClass.getConstructors());
+        List<ApiMethod> methods = new ArrayList<ApiMethod>(apiClass.getMethods());
+        if (mSortMembers) {
+            Collections.sort(constructors);
+            Collections.sort(methods);
+        }
+        for (ApiConstructor constructor : constructors) {
+            visitor.visitConstructor(constructor);
+        }
+        for (ApiMethod method : methods) {
+            visitor.visitMethod(method);
+        }
+
+        visitor.endClass(apiClass);
+    }
+}
@@ -22,14 +22,21 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.XMLReaderFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
-
-import javax.xml.transform.TransformerException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Tool that generates a report of what Android framework methods are being called from a given
@@ -52,7 +59,8 @@ public class CtsApiCoverage {
         System.out.println("Use the Makefiles rules in CtsTestCoverage.mk to generate the report ");
         System.out.println("rather than executing this directly. If you still want to run this ");
         System.out.println("directly, then this must be used from the $ANDROID_BUILD_TOP ");
-        System.out.println("directory and dexdeps must be built via \"make dexdeps\".");
+        System.out.println("directory and dexdeps must be built via \"make dexdeps\". dexdeps is ");
+        System.out.println("only used for APKs whose dex files can't be read directly.");
         System.out.println();
         System.out.println("Options:");
         System.out.println("  -o FILE                output file or standard out if not given");
@@ -61,6 +69,11 @@ public class CtsApiCoverage {
         System.out.println("  -a PATH                path to the API XML file");
         System.out.println("  -p PACKAGENAMEPREFIX   report coverage only for package that start with");
         System.out.println("  -t TITLE               report title");
+        System.out.println("  -j NUM                 number of APKs to scan in parallel");
+        System.out.println("  -v                     print the time taken to scan each APK");
+        System.out.println("  -s                     split the HTML report into a page per package");
+        System.out.println("  -c DIR                 directory to cache the references of each APK in,");
+        System.out.println("                         so only changed APKs are scanned again");
         System.out.println();
         System.exit(1);
     }
@@ -74,6 +87,10 @@ public class CtsApiCoverage {
         // By default only care about packages starting with "android"
         String packageFilter = "android";
         String reportTitle = "CTS API Coverage";
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        boolean verbose = false;
+        File cacheDir = null;
+        boolean splitPackages = false;
 
         for (int i = 0; i < args.length; i++) {
             if (args[i].startsWith("-")) {
@@ -98,6 +115,21 @@ public class CtsApiCoverage {
                     packageFilter = getExpectedArg(args, ++i);
                 } else if ("-t".equals(args[i])) {
                     reportTitle = getExpectedArg(args, ++i);
+                } else if ("-j".equals(args[i])) {
+                    try {
+                        numThreads = Integer.parseInt(getExpectedArg(args, ++i));
+                    } catch (NumberFormatException e) {
+                        printUsage();
+                    }
+                    if (numThreads < 1) {
+                        printUsage();
+                    }
+                } else if ("-v".equals(args[i])) {
+                    verbose = true;
+                } else if ("-s".equals(args[i])) {
+                    splitPackages = true;
+                } else if ("-c".equals(args[i])) {
+                    cacheDir = new File(getExpectedArg(args, ++i));
                 } else {
                     printUsage();
                 }
@@ -111,18 +143,31 @@ public class CtsApiCoverage {
          *    in current.xml. The object will have no information about the coverage for each
          *    constructor or method yet.
          *
-         * 2. For each provided APK, scan it using dexdeps, parse the output of dexdeps, and
-         *    call methods on the ApiCoverage object to cumulatively add coverage stats.
+         * 2. For each provided APK, read the framework methods referenced by its dex files (or
+         *    if that fails, scan it using dexdeps and parse the output of dexdeps), and
+         *    call methods on the ApiCoverage object to cumulatively add coverage stats. APKs are
+         *    scanned in parallel. Coverage only ever gets added, so the result doesn't depend
+         *    on the order the APKs are scanned in. If a cache directory is given, the references
+         *    found in each APK are saved there by the SHA-1 of the APK, and an APK whose SHA-1
+         *    has been seen before isn't scanned again.
          *
          * 3. Output a report based on the coverage stats in the ApiCoverage object.
          */
 
+        if (splitPackages && (format != FORMAT_HTML || outputFile == null)) {
+            // the pages of the packages are written next to the output file
+            printUsage();
+        }
+        if (cacheDir != null && !cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            System.err.println("warning: not caching references, failed to create: " + cacheDir);
+            cacheDir = null;
+        }
+
         ApiCoverage apiCoverage = getEmptyApiCoverage(apiXmlPath);
         apiCoverage.removeEmptyAbstractClasses();
-        for (File testApk : testApks) {
-            addApiCoverage(apiCoverage, testApk, dexDeps);
-        }
-        outputCoverageReport(apiCoverage, testApks, outputFile, format, packageFilter, reportTitle);
+        addApiCoverage(apiCoverage, testApks, dexDeps, cacheDir, numThreads, verbose);
+        outputCoverageReport(apiCoverage, testApks, outputFile, format, packageFilter, reportTitle,
+                splitPackages);
     }
 
     /** Get the argument or print out the usage and exit. */
@@ -164,32 +209,186 @@ public class CtsApiCoverage {
     }
 
     /**
-     * Adds coverage information gleamed from running dexdeps on the APK to the
-     * {@link ApiCoverage} object.
+     * Adds coverage information from all the APKs to the {@link ApiCoverage} object, scanning
+     * several APKs at a time.
      *
      * @param apiCoverage object to which the coverage statistics will be added to
-     * @param testApk containing the tests that will be scanned by dexdeps
+     * @param testApks containing the tests that will be scanned
+     * @param cacheDir directory with the references of previously scanned APKs, or null
+     * @param numThreads the number of APKs to scan at a time
+     * @param verbose whether to print the time taken to scan each APK
+     */
+    private static void addApiCoverage(final ApiCoverage apiCoverage, List<File> testApks,
+            final String dexdeps, final File cacheDir, int numThreads, boolean verbose)
+            throws SAXException, IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<String>> scans = new ArrayList<Future<String>>(testApks.size());
+            for (final File testApk : testApks) {
+                scans.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws SAXException, IOException {
+                        long startTime = System.currentTimeMillis();
+                        boolean cached = addApiCoverage(apiCoverage, testApk, dexdeps, cacheDir);
+                        return String.format("%s: %d ms%s", testApk.getPath(),
+                                System.currentTimeMillis() - startTime, cached ? " (cached)" : "");
+                    }
+                }));
+            }
+            // wait for the scans in the order the APKs were given, so timings print in order
+            for (Future<String> scan : scans) {
+                String timing = getScanResult(scan);
+                if (verbose) {
+                    System.err.println(timing);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String getScanResult(Future<String> scan)
+            throws SAXException, IOException, InterruptedException {
+        try {
+            return scan.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Adds coverage information from the APK to the {@link ApiCoverage} object. The references
+     * cached for an APK with the same SHA-1 are used if there are any, and otherwise the APK is
+     * scanned and its references are added to the cache.
+     *
+     * @param apiCoverage object to which the coverage statistics will be added to
+     * @param testApk containing the tests that will be scanned
+     * @param cacheDir directory with the references of previously scanned APKs, or null
+     * @return true if the references of the APK were cached
      */
-    private static void addApiCoverage(ApiCoverage apiCoverage, File testApk, String dexdeps)
+    private static boolean addApiCoverage(ApiCoverage apiCoverage, File testApk, String dexdeps,
+            File cacheDir) throws SAXException, IOException {
+        File cacheFile = null;
+        if (cacheDir != null) {
+            cacheFile = new File(cacheDir, getSha1(testApk));
+            if (cacheFile.isFile()) {
+                try {
+                    ApiReferences references = ApiReferences.read(cacheFile);
+                    if (references != null) {
+                        references.addTo(apiCoverage);
+                        return true;
+                    }
+                } catch (IOException e) {
+                    System.err.println("warning: ignoring cached references for: "
+                            + testApk.getPath() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        ApiReferences references = new ApiReferences();
+        boolean scanned = addReferences(references, testApk, dexdeps);
+        references.addTo(apiCoverage);
+        // an APK that couldn't be scanned is tried again, and warned about, on the next run
+        if (cacheFile != null && scanned) {
+            try {
+                references.write(cacheFile);
+            } catch (IOException e) {
+                System.err.println("warning: failed to cache references for: "
+                        + testApk.getPath() + ": " + e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private static String getSha1(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has to support SHA-1
+            throw new RuntimeException(e);
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+        StringBuilder sha1 = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sha1.append(String.format("%02x", b));
+        }
+        return sha1.toString();
+    }
+
+    /**
+     * Adds the constructors and methods referenced by the dex files of the APK to the
+     * {@link ApiReferences} object. The dex files are read in process, and dexdeps is only run
+     * if that fails.
+     *
+     * @param references object to which the references will be added to
+     * @param testApk containing the tests that will be scanned
+     * @return false if the APK could not be scanned
+     */
+    private static boolean addReferences(ApiReferences references, File testApk, String dexdeps)
             throws SAXException, IOException {
+        try {
+            if (!DexScanner.addReferences(references, testApk)) {
+                System.err.println("warning: no classes.dex in: " + testApk.getPath());
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("warning: falling back to dexdeps for: " + testApk.getPath()
+                    + ": " + e.getMessage());
+        }
+        // start again, the dex files that were read before the failure have no references
+        references.clear();
+        return addDexDepsReferences(references, testApk, dexdeps);
+    }
+
+    /**
+     * Adds the constructors and methods referenced by the APK according to dexdeps to the
+     * {@link ApiReferences} object.
+     *
+     * @param references object to which the references will be added to
+     * @param testApk containing the tests that will be scanned by dexdeps
+     * @return false if the output of dexdeps could not be parsed
+     */
+    private static boolean addDexDepsReferences(ApiReferences references, File testApk,
+            String dexdeps) throws SAXException, IOException {
         XMLReader xmlReader = XMLReaderFactory.createXMLReader();
-        DexDepsXmlHandler dexDepsXmlHandler = new DexDepsXmlHandler(apiCoverage);
+        DexDepsXmlHandler dexDepsXmlHandler = new DexDepsXmlHandler(references);
         xmlReader.setContentHandler(dexDepsXmlHandler);
 
         String apkPath = testApk.getPath();
         Process process = new ProcessBuilder(dexdeps, "--format=xml", apkPath).start();
         try {
             xmlReader.parse(new InputSource(process.getInputStream()));
+            return true;
         } catch (SAXException e) {
           // Catch this exception, but continue. SAXException is acceptable in cases
           // where the apk does not contain a classes.dex and therefore parsing won't work.
           System.err.println("warning: dexdeps failed for: " + apkPath);
+          return false;
         }
     }
 
     private static void outputCoverageReport(ApiCoverage apiCoverage, List<File> testApks,
-            File outputFile, int format, String packageFilter, String reportTitle)
-                throws IOException, TransformerException, InterruptedException {
+            File outputFile, int format, String packageFilter, String reportTitle,
+            boolean splitPackages) throws IOException {
 
         OutputStream out = outputFile != null
                 ? new FileOutputStream(outputFile)
@@ -206,7 +405,8 @@ public class CtsApiCoverage {
                     break;
 
                 case FORMAT_HTML:
-                    HtmlReport.printHtmlReport(testApks, apiCoverage, packageFilter, reportTitle, out);
+                    HtmlReport.printHtmlReport(testApks, apiCoverage, packageFilter, reportTitle, out,
+                            splitPackages ? outputFile : null);
                     break;
             }
         } finally {
@@ -24,12 +24,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * {@link DefaultHander} that parses the output of dexdeps and adds the coverage information to
- * an {@link ApiCoverage} object.
+ * {@link DefaultHander} that parses the output of dexdeps and adds the referenced constructors
+ * and methods to an {@link ApiReferences} object.
  */
 class DexDepsXmlHandler extends DefaultHandler {
 
-    private final ApiCoverage mPackageMap;
+    private final ApiReferences mReferences;
 
     private String mCurrentPackageName;
 
@@ -41,8 +41,8 @@ class DexDepsXmlHandler extends DefaultHandler {
 
     private List<String> mCurrentParameterTypes = new ArrayList<String>();
 
-    DexDepsXmlHandler(ApiCoverage packageMap) {
-        this.mPackageMap = packageMap;
+    DexDepsXmlHandler(ApiReferences references) {
+        this.mReferences = references;
     }
 
     @Override
@@ -69,28 +69,11 @@ class DexDepsXmlHandler extends DefaultHandler {
     public void endElement(String uri, String localName, String name) throws SAXException {
         super.endElement(uri, localName, name);
         if ("constructor".equalsIgnoreCase(localName)) {
-            ApiPackage apiPackage = mPackageMap.getPackage(mCurrentPackageName);
-            if (apiPackage != null) {
-                ApiClass apiClass = apiPackage.getClass(mCurrentClassName);
-                if (apiClass != null) {
-                    ApiConstructor apiConstructor = apiClass.getConstructor(mCurrentParameterTypes);
-                    if (apiConstructor != null) {
-                        apiConstructor.setCovered(true);
-                    }
-                }
-            }
+            mReferences.addConstructor(mCurrentPackageName, mCurrentClassName,
+                    mCurrentParameterTypes);
         }  else if ("method".equalsIgnoreCase(localName)) {
-            ApiPackage apiPackage = mPackageMap.getPackage(mCurrentPackageName);
-            if (apiPackage != null) {
-                ApiClass apiClass = apiPackage.getClass(mCurrentClassName);
-                if (apiClass != null) {
-                    ApiMethod apiMethod = apiClass.getMethod(mCurrentMethodName,
-                            mCurrentParameterTypes, mCurrentMethodReturnType);
-                    if (apiMethod != null) {
-                        apiMethod.setCovered(true);
-                    }
-                }
-            }
+            mReferences.addMethod(mCurrentPackageName, mCurrentClassName,
+                    mCurrentMethodName, mCurrentParameterTypes, mCurrentMethodReturnType);
         }
     }
 }
\ No newline at end of file
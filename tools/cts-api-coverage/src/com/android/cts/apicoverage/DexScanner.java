@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.cts.apicoverage;
+
+import dex.reader.DexBuffer;
+import dex.reader.DexFileReader;
+import dex.reader.TypeFormatter;
+import dex.structure.DexFile;
+import dex.structure.DexMethodReference;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the dex files of an APK in process and adds the framework methods they reference to an
+ * {@link ApiReferences} object. This finds the same references as running dexdeps on the APK and
+ * parsing its output with {@link DexDepsXmlHandler}, without starting a process per APK.
+ */
+class DexScanner {
+
+    private static final String CONSTRUCTOR_NAME = "<init>";
+
+    private DexScanner() {
+    }
+
+    /**
+     * Adds the framework methods referenced by the dex files of the APK to the
+     * {@link ApiReferences} object.
+     *
+     * @param references object to which the references will be added to
+     * @param testApk containing the tests that will be scanned
+     * @return false if the APK contains no classes.dex
+     * @throws IOException if the APK or one of its dex files could not be read
+     */
+    static boolean addReferences(ApiReferences references, File testApk) throws IOException {
+        ZipFile zipFile = new ZipFile(testApk);
+        try {
+            // multidex APKs have classes.dex, classes2.dex, classes3.dex...
+            ZipEntry entry = zipFile.getEntry("classes.dex");
+            if (entry == null) {
+                return false;
+            }
+            for (int i = 2; entry != null; i++) {
+                addReferences(references, readDexFile(zipFile, entry));
+                entry = zipFile.getEntry("classes" + i + ".dex");
+            }
+            return true;
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private static DexFile readDexFile(ZipFile zipFile, ZipEntry entry) throws IOException {
+        if (entry.getSize() < 0 || entry.getSize() > Integer.MAX_VALUE) {
+            throw new IOException("Unexpected size of " + entry.getName() + ": "
+                    + entry.getSize());
+        }
+        byte[] bytes = new byte[(int) entry.getSize()];
+        InputStream in = zipFile.getInputStream(entry);
+        try {
+            new DataInputStream(in).readFully(bytes);
+        } finally {
+            in.close();
+        }
+        try {
+            return new DexFileReader().read(new DexBuffer(bytes));
+        } catch (RuntimeException e) {
+            // DexFileReader doesn't validate its input, so a corrupt dex file fails anywhere
+            throw new IOException("Failed to read " + entry.getName() + ": " + e);
+        }
+    }
+
+    private static void addReferences(ApiReferences references, DexFile dexFile) {
+        // only methods are looked up, since the API model doesn't have fields
+        TypeFormatter formatter = new TypeFormatter();
+        for (DexMethodReference method : dexFile.getExternalMethodReferences()) {
+            String declaringClass = method.getDeclaringClass();
+            if (!declaringClass.startsWith("L")) {
+                // methods called on arrays, like clone(), have no class in the API
+                continue;
+            }
+            String className = formatter.format(declaringClass);
+            int packageEnd = className.lastIndexOf('.');
+            String packageName = packageEnd >= 0 ? className.substring(0, packageEnd) : "";
+            className = formatType(className.substring(packageEnd + 1));
+
+            List<String> parameterTypes = new ArrayList<String>(
+                    method.getParameterTypes().size());
+            for (String parameterType : method.getParameterTypes()) {
+                parameterTypes.add(formatType(formatter.format(parameterType)));
+            }
+            if (CONSTRUCTOR_NAME.equals(method.getName())) {
+                references.addConstructor(packageName, className, parameterTypes);
+            } else {
+                references.addMethod(packageName, className, method.getName(),
+                        parameterTypes, formatType(formatter.format(method.getReturnType())));
+            }
+        }
+    }
+
+    /** Formats a type name the way {@link CurrentXmlHandler} does for the API. */
+    private static String formatType(String typeName) {
+        return typeName.replace('$', '.');
+    }
+}
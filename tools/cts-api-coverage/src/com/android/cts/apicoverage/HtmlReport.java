@@ -16,54 +16,223 @@
 
 package com.android.cts.apicoverage;
 
+import static com.android.cts.apicoverage.XmlReport.escape;
+
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.PrintStream;
 import java.util.List;
 
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-
 /**
- * Class that outputs an HTML report of the {@link ApiCoverage} collected. It is the XML report
- * transformed into HTML.
+ * Class that outputs an HTML report of the {@link ApiCoverage} collected. It looks like the XML
+ * report transformed with api-coverage.xsl, but is written directly while walking the API.
+ * <p/>
+ * The report can also be split into an index page and a page per package, so a browser doesn't
+ * have to load the whole API at once.
  */
 class HtmlReport {
 
-    public static void printHtmlReport(final List<File> testApks, final ApiCoverage apiCoverage,
-            final String packageFilter, final String reportTitle, final OutputStream out)
-                throws IOException, TransformerException {
-        final PipedOutputStream xmlOut = new PipedOutputStream();
-        final PipedInputStream xmlIn = new PipedInputStream(xmlOut);
+    private static final String HEAD =
+            "<head>\n"
+            + "<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\">\n"
+            + "<script type=\"text/javascript\">\n"
+            + "    function toggleVisibility(id) {\n"
+            + "        element = document.getElementById(id);\n"
+            + "        if (element.style.display == \"none\") {\n"
+            + "            element.style.display = \"\";\n"
+            + "        } else {\n"
+            + "            element.style.display = \"none\";\n"
+            + "        }\n"
+            + "    }\n"
+            + "</script>\n"
+            + "<style type=\"text/css\">\n"
+            + "    body { background-color: #CCCCCC; font-family: sans-serif; margin: 10px; }\n"
+            + "    .info { margin-bottom: 10px; }\n"
+            + "    .apks, .package, .class { cursor: pointer; text-decoration: underline; }\n"
+            + "    .packageDetails { padding-left: 20px; }\n"
+            + "    .classDetails { padding-left: 40px; }\n"
+            + "    .method { font-family: courier; white-space: nowrap; }\n"
+            + "    .red { background-color: #FF6666; }\n"
+            + "    .yellow { background-color: #FFFF66; }\n"
+            + "    .green { background-color: #66FF66; }\n"
+            + "    .deprecated { text-decoration: line-through; }\n"
+            + "</style>\n"
+            + "</head>";
+
+    /**
+     * @param reportFile the file the report is written to, next to which a page is written for
+     *     each package, or null to write the whole report to one page
+     */
+    public static void printHtmlReport(List<File> testApks, ApiCoverage apiCoverage,
+            String packageFilter, String reportTitle, OutputStream outputStream, File reportFile)
+                throws IOException {
+        PrintStream out = new PrintStream(new BufferedOutputStream(outputStream), false, "UTF-8");
+        String generatedTime = XmlReport.getGeneratedTime();
+        printPageStart(reportTitle, generatedTime, out);
+
+        CoverageTraversal traversal = new CoverageTraversal(apiCoverage, packageFilter);
+        int totalMethods = traversal.getTotalMethods();
+        int totalCoveredMethods = traversal.getNumCoveredMethods();
+        out.println("<div class=\"total\">Total:&nbsp;"
+                + Math.round((float) totalCoveredMethods / totalMethods * 100.0f) + "%&nbsp;("
+                + totalCoveredMethods + "/" + totalMethods + ")</div>");
+        out.println("<div class=\"apks\" onclick=\"toggleVisibility('sourceApks')\">"
+                + "Source APKs (" + testApks.size() + ")</div>");
+        out.println("<div id=\"sourceApks\" style=\"display: none\">");
+        out.println("<ul>");
+        for (File testApk : testApks) {
+            out.println("<li>" + escape(testApk.getPath()) + "</li>");
+        }
+        out.println("</ul>");
+        out.println("</div>");
+
+        out.println("<ul>");
+        for (ApiPackage apiPackage : traversal.getPackages()) {
+            if (reportFile == null) {
+                printPackage(traversal, apiPackage, false, out);
+            } else {
+                File packageFile = getPackageFile(reportFile, apiPackage);
+                out.println("<li class=\"package\"><a href=\"" + escape(packageFile.getName())
+                        + "\">" + formatCoverage(apiPackage) + "</a></li>");
+                printPackagePage(traversal, apiPackage, reportTitle, generatedTime, packageFile);
+            }
+        }
+        out.println("</ul>");
+        printPageEnd(out);
+        out.flush();
+    }
+
+    /** @return the page of the package, which is named after the report and the package */
+    private static File getPackageFile(File reportFile, ApiPackage apiPackage) {
+        String name = reportFile.getName();
+        if (name.endsWith(".html")) {
+            name = name.substring(0, name.length() - ".html".length());
+        }
+        return new File(reportFile.getParentFile(), name + "-" + apiPackage.getName() + ".html");
+    }
+
+    private static void printPackagePage(CoverageTraversal traversal, ApiPackage apiPackage,
+            String reportTitle, String generatedTime, File packageFile) throws IOException {
+        OutputStream outputStream = new FileOutputStream(packageFile);
+        try {
+            PrintStream out = new PrintStream(new BufferedOutputStream(outputStream), false,
+                    "UTF-8");
+            printPageStart(reportTitle, generatedTime, out);
+            out.println("<ul>");
+            printPackage(traversal, apiPackage, true, out);
+            out.println("</ul>");
+            printPageEnd(out);
+            out.flush();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static void printPageStart(String reportTitle, String generatedTime,
+            PrintStream out) {
+        out.println("<html>");
+        out.println(HEAD);
+        out.println("<body>");
+        out.println("<h1>" + escape(reportTitle) + "</h1>");
+        out.println("<div class=\"info\">Generated: " + escape(generatedTime) + "</div>");
+    }
+
+    private static void printPageEnd(PrintStream out) {
+        out.println("</body>");
+        out.println("</html>");
+    }
+
+    /**
+     * Prints the package and the details of its classes, which are hidden until the package is
+     * clicked unless they are expanded.
+     */
+    private static void printPackage(CoverageTraversal traversal, ApiPackage apiPackage,
+            boolean expanded, final PrintStream out) {
+        out.println("<li class=\"package\" onclick=\"toggleVisibility('"
+                + escape(apiPackage.getName()) + "')\">" + formatCoverage(apiPackage)
+                + "</li>");
+        out.println("<div class=\"packageDetails\" id=\"" + escape(apiPackage.getName()) + "\""
+                + (expanded ? "" : " style=\"display: none\"") + ">");
+        out.println("<ul>");
+        traversal.walkPackage(apiPackage, new CoverageTraversal.Visitor() {
+            private String mPackageName;
 
-        Thread t = new Thread(new Runnable() {
             @Override
-            public void run() {
-                XmlReport.printXmlReport(testApks, apiCoverage, packageFilter, reportTitle, xmlOut);
-
-                // Close the output stream to avoid "Write dead end" errors.
-                try {
-                    xmlOut.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            void startPackage(ApiPackage apiPackage) {
+                mPackageName = apiPackage.getName();
+            }
+
+            @Override
+            void startClass(ApiClass apiClass) {
+                // class names are only unique within their package
+                String id = escape(mPackageName + "." + apiClass.getName());
+                out.println("<li class=\"class\" onclick=\"toggleVisibility('" + id + "')\">"
+                        + formatCoverage(apiClass) + "</li>");
+                out.println("<div class=\"classDetails\" id=\"" + id
+                        + "\" style=\"display: none\">");
+            }
+
+            @Override
+            void visitConstructor(ApiConstructor constructor) {
+                printMethod(constructor.isCovered(), constructor.isDeprecated(), null,
+                        constructor.getName(), constructor.getParameterTypes(), out);
+            }
+
+            @Override
+            void visitMethod(ApiMethod method) {
+                printMethod(method.isCovered(), method.isDeprecated(), method.getReturnType(),
+                        method.getName(), method.getParameterTypes(), out);
+            }
+
+            @Override
+            void endClass(ApiClass apiClass) {
+                out.println("</div>");
             }
         });
-        t.start();
+        out.println("</ul>");
+        out.println("</div>");
+    }
+
+    private static String formatCoverage(ApiPackage apiPackage) {
+        return formatCoverage(apiPackage.getName(), apiPackage.getCoveragePercentage(),
+                apiPackage.getNumCoveredMethods(), apiPackage.getTotalMethods(), false);
+    }
 
-        InputStream xsl = CtsApiCoverage.class.getResourceAsStream("/api-coverage.xsl");
-        StreamSource xslSource = new StreamSource(xsl);
-        TransformerFactory factory = TransformerFactory.newInstance();
-        Transformer transformer = factory.newTransformer(xslSource);
+    private static String formatCoverage(ApiClass apiClass) {
+        return formatCoverage(apiClass.getName(), apiClass.getCoveragePercentage(),
+                apiClass.getNumCoveredMethods(), apiClass.getTotalMethods(),
+                apiClass.isDeprecated());
+    }
+
+    /** @return the name and coverage of a package or class, colored by coverage */
+    private static String formatCoverage(String name, float coveragePercentage, int numCovered,
+            int numTotal, boolean deprecated) {
+        int percentage = Math.round(coveragePercentage);
+        String colorClass = percentage <= 50 ? "red" : (percentage <= 80 ? "yellow" : "green");
+        return "<span class=\"" + colorClass + (deprecated ? " deprecated" : "") + "\"><b>"
+                + escape(name) + "</b>&nbsp;" + percentage + "%&nbsp;(" + numCovered + "/"
+                + numTotal + ")</span>";
+    }
 
-        StreamSource xmlSource = new StreamSource(xmlIn);
-        StreamResult result = new StreamResult(out);
-        transformer.transform(xmlSource, result);
+    /** @param returnType the return type of the method, or null for a constructor */
+    private static void printMethod(boolean covered, boolean deprecated, String returnType,
+            String name, List<String> parameterTypes, PrintStream out) {
+        StringBuilder builder = new StringBuilder("<span class=\"method")
+                .append(deprecated ? " deprecated" : "").append("\">")
+                .append(covered ? "[X]" : "[ ]");
+        if (returnType != null) {
+            builder.append("&nbsp;").append(escape(returnType));
+        }
+        builder.append("<b>&nbsp;").append(escape(name)).append("</b>(");
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            if (i > 0) {
+                builder.append(",&nbsp;");
+            }
+            builder.append(escape(parameterTypes.get(i)));
+        }
+        out.println(builder.append(")</span><br>"));
     }
 }
@@ -16,10 +16,9 @@
 
 package com.android.cts.apicoverage;
 
+import java.io.BufferedOutputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -28,48 +27,40 @@ import java.util.List;
 class TextReport {
 
     public static void printTextReport(ApiCoverage api, String packageFilter, OutputStream outputStream) {
-        PrintStream out = new PrintStream(outputStream);
+        final PrintStream out = new PrintStream(new BufferedOutputStream(outputStream));
 
-        CoverageComparator comparator = new CoverageComparator();
-        List<ApiPackage> packages = new ArrayList<ApiPackage>(api.getPackages());
-        Collections.sort(packages, comparator);
-
-        for (ApiPackage apiPackage : packages) {
-            if (apiPackage.getName().startsWith(packageFilter)
-                    && apiPackage.getTotalMethods() > 0) {
-                printPackage(apiPackage, out);
-            }
+        CoverageTraversal traversal = new CoverageTraversal(api, packageFilter);
+        for (ApiPackage apiPackage : traversal.getPackages()) {
+            printPackage(apiPackage, out);
         }
 
         out.println();
         out.println();
 
-        for (ApiPackage apiPackage : packages) {
-            if (apiPackage.getName().startsWith(packageFilter)) {
+        traversal.setIncludeEmptyPackages(true);
+        traversal.setSortMembers(true);
+        traversal.walk(new CoverageTraversal.Visitor() {
+            @Override
+            void startPackage(ApiPackage apiPackage) {
                 printPackage(apiPackage, out);
+            }
 
-                List<ApiClass> classes = new ArrayList<ApiClass>(apiPackage.getClasses());
-                Collections.sort(classes, comparator);
-                for (ApiClass apiClass : classes) {
-                    if (apiClass.getTotalMethods() > 0) {
-                        printClass(apiClass, out);
+            @Override
+            void startClass(ApiClass apiClass) {
+                printClass(apiClass, out);
+            }
 
-                        List<ApiConstructor> constructors =
-                                new ArrayList<ApiConstructor>(apiClass.getConstructors());
-                        Collections.sort(constructors);
-                        for (ApiConstructor constructor : constructors) {
-                            printConstructor(constructor, out);
-                        }
+            @Override
+            void visitConstructor(ApiConstructor constructor) {
+                printConstructor(constructor, out);
+            }
 
-                        List<ApiMethod> methods = new ArrayList<ApiMethod>(apiClass.getMethods());
-                        Collections.sort(methods);
-                        for (ApiMethod method : methods) {
-                            printMethod(method, out);
-                        }
-                    }
-                }
+            @Override
+            void visitMethod(ApiMethod method) {
+                printMethod(method, out);
             }
-        }
+        });
+        out.flush();
     }
 
     private static void printPackage(ApiPackage apiPackage, PrintStream out) {
@@ -16,12 +16,11 @@
 
 package com.android.cts.apicoverage;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -33,102 +32,132 @@ class XmlReport {
 
     public static void printXmlReport(List<File> testApks, ApiCoverage apiCoverage,
             String packageFilter, String reportTitle, OutputStream outputStream) {
-        PrintStream out = new PrintStream(outputStream);
+        final PrintStream out = new PrintStream(new BufferedOutputStream(outputStream));
         out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
         out.println("<?xml-stylesheet type=\"text/xsl\"  href=\"api-coverage.xsl\"?>");
 
-        SimpleDateFormat format = new SimpleDateFormat("EEE, MMM d, yyyy h:mm a z");
-        String date = format.format(new Date(System.currentTimeMillis()));
-        out.println("<api-coverage generatedTime=\"" + date + "\" title=\"" + reportTitle +"\">");
+        out.println("<api-coverage generatedTime=\"" + escape(getGeneratedTime())
+                + "\" title=\"" + escape(reportTitle) +"\">");
 
         out.println("<debug>");
         out.println("<sources>");
         for (File testApk : testApks) {
-            out.println("<apk path=\"" + testApk.getPath() + "\" />");
+            out.println("<apk path=\"" + escape(testApk.getPath()) + "\" />");
         }
         out.println("</sources>");
         out.println("</debug>");
 
         out.println("<api>");
 
-        CoverageComparator comparator = new CoverageComparator();
-        List<ApiPackage> packages = new ArrayList<ApiPackage>(apiCoverage.getPackages());
-        Collections.sort(packages, comparator);
-        int totalMethods = 0;
-        int totalCoveredMethods = 0;
-        for (ApiPackage pkg : packages) {
-            if (pkg.getName().startsWith(packageFilter)
-                   && pkg.getTotalMethods() > 0) {
-                int pkgTotal = pkg.getTotalMethods();
-                totalMethods += pkgTotal;
-                int pkgTotalCovered = pkg.getNumCoveredMethods();
-                totalCoveredMethods += pkgTotalCovered;
+        CoverageTraversal traversal = new CoverageTraversal(apiCoverage, packageFilter);
+        traversal.walk(new CoverageTraversal.Visitor() {
+            @Override
+            void startPackage(ApiPackage pkg) {
                 out.println("<package name=\"" + pkg.getName()
-                        + "\" numCovered=\"" + pkgTotalCovered
-                        + "\" numTotal=\"" + pkgTotal
+                        + "\" numCovered=\"" + pkg.getNumCoveredMethods()
+                        + "\" numTotal=\"" + pkg.getTotalMethods()
                         + "\" coveragePercentage=\""
                             + Math.round(pkg.getCoveragePercentage())
                         + "\">");
+            }
 
-                List<ApiClass> classes = new ArrayList<ApiClass>(pkg.getClasses());
-                Collections.sort(classes, comparator);
-
-                for (ApiClass apiClass : classes) {
-                    if (apiClass.getTotalMethods() > 0) {
-                        out.println("<class name=\"" + apiClass.getName()
-                                + "\" numCovered=\"" + apiClass.getNumCoveredMethods()
-                                + "\" numTotal=\"" + apiClass.getTotalMethods()
-                                + "\" deprecated=\"" + apiClass.isDeprecated()
-                                + "\" coveragePercentage=\""
-                                    + Math.round(apiClass.getCoveragePercentage())
-                                + "\">");
-
-                        for (ApiConstructor constructor : apiClass.getConstructors()) {
-                            out.println("<constructor name=\"" + constructor.getName()
-                                    + "\" deprecated=\"" + constructor.isDeprecated()
-                                    + "\" covered=\"" + constructor.isCovered() + "\">");
-                            if (constructor.isDeprecated()) {
-                                if (constructor.isCovered()) {
-                                    totalCoveredMethods -= 1;
-                                }
-                                totalMethods -= 1;
-                            }
-                            for (String parameterType : constructor.getParameterTypes()) {
-                                out.println("<parameter type=\"" + parameterType + "\" />");
-                            }
-
-                            out.println("</constructor>");
-                        }
-
-                        for (ApiMethod method : apiClass.getMethods()) {
-                            out.println("<method name=\"" + method.getName()
-                                    + "\" returnType=\"" + method.getReturnType()
-                                    + "\" deprecated=\"" + method.isDeprecated()
-                                    + "\" covered=\"" + method.isCovered() + "\">");
-                            if (method.isDeprecated()) {
-                                if (method.isCovered()) {
-                                    totalCoveredMethods -= 1;
-                                }
-                                totalMethods -= 1;
-                            }
-                            for (String parameterType : method.getParameterTypes()) {
-                                out.println("<parameter type=\"" + parameterType + "\" />");
-                            }
-
-                            out.println("</method>");
-                        }
-                        out.println("</class>");
-                    }
-                }
+            @Override
+            void startClass(ApiClass apiClass) {
+                out.println("<class name=\"" + apiClass.getName()
+                        + "\" numCovered=\"" + apiClass.getNumCoveredMethods()
+                        + "\" numTotal=\"" + apiClass.getTotalMethods()
+                        + "\" deprecated=\"" + apiClass.isDeprecated()
+                        + "\" coveragePercentage=\""
+                            + Math.round(apiClass.getCoveragePercentage())
+                        + "\">");
+            }
+
+            @Override
+            void visitConstructor(ApiConstructor constructor) {
+                out.println("<constructor name=\"" + constructor.getName()
+                        + "\" deprecated=\"" + constructor.isDeprecated()
+                        + "\" covered=\"" + constructor.isCovered() + "\">");
+                printParameters(constructor.getParameterTypes(), out);
+                out.println("</constructor>");
+            }
+
+            @Override
+            void visitMethod(ApiMethod method) {
+                out.println("<method name=\"" + method.getName()
+                        + "\" returnType=\"" + method.getReturnType()
+                        + "\" deprecated=\"" + method.isDeprecated()
+                        + "\" covered=\"" + method.isCovered() + "\">");
+                printParameters(method.getParameterTypes(), out);
+                out.println("</method>");
+            }
+
+            @Override
+            void endClass(ApiClass apiClass) {
+                out.println("</class>");
+            }
+
+            @Override
+            void endPackage(ApiPackage pkg) {
                 out.println("</package>");
             }
-        }
+        });
 
+        // deprecated constructors and methods don't count towards the total
+        int totalMethods = traversal.getTotalMethods();
+        int totalCoveredMethods = traversal.getNumCoveredMethods();
         out.println("</api>");
         out.println("<total numCovered=\"" + totalCoveredMethods + "\" "
                 + "numTotal=\"" + totalMethods + "\" "
                 + "coveragePercentage=\""
                 + Math.round((float)totalCoveredMethods / totalMethods * 100.0f) + "\" />");
         out.println("</api-coverage>");
+        out.flush();
+    }
+
+    private static void printParameters(List<String> parameterTypes, PrintStream out) {
+        for (String parameterType : parameterTypes) {
+            out.println("<parameter type=\"" + parameterType + "\" />");
+        }
+    }
+
+    /** @return the time shown in the reports as when they were generated */
+    static String getGeneratedTime() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, MMM d, yyyy h:mm a z");
+        return format.format(new Date(System.currentTimeMillis()));
+    }
+
+    /** @return the text with the characters that are special in XML and HTML escaped */
+    static String escape(String text) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < text.length(); i++) {
+            String replacement;
+            switch (text.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '\'':
+                    replacement = "&#39;";
+                    break;
+                default:
+                    if (escaped != null) {
+                        escaped.append(text.charAt(i));
+                    }
+                    continue;
+            }
+            if (escaped == null) {
+                escaped = new StringBuilder(text.length() + 16).append(text, 0, i);
+            }
+            escaped.append(replacement);
+        }
+        return escaped != null ? escaped.toString() : text;
     }
 }
@@ -22,10 +22,13 @@ import dex.reader.DexFileReader.MethodsIdItem;
 import dex.reader.DexFileReader.ProtIdItem;
 import dex.structure.DexClass;
 import dex.structure.DexFile;
+import dex.structure.DexMethodReference;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /* package */final class DexFileImpl implements DexFile {
 
@@ -38,6 +41,7 @@ import java.util.List;
     private final DexBuffer buffer;
 
     private List<DexClass> classes = null;
+    private List<DexMethodReference> externalMethods = null;
 
     public DexFileImpl(DexBuffer buffer, String[] stringPool, int[] typeIds,
             ProtIdItem[] protoIds, FieldIdItem[] fieldIdItems,
@@ -68,6 +72,30 @@ import java.util.List;
         return classes;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see dex.structure.DexFile#getExternalMethodReferences()
+     */
+    public synchronized List<DexMethodReference> getExternalMethodReferences() {
+        if (externalMethods == null) {
+            Set<Integer> definedTypes = new HashSet<Integer>();
+            for (ClassDefItem classDefItem : classDefItems) {
+                definedTypes.add(classDefItem.class_idx);
+            }
+            externalMethods = new ArrayList<DexMethodReference>();
+            for (MethodsIdItem methodIdItem : methodIdItems) {
+                if (!definedTypes.contains(methodIdItem.class_idx)) {
+                    externalMethods.add(new DexMethodReferenceImpl(buffer
+                            .createCopy(), methodIdItem,
+                            protoIdItems[methodIdItem.proto_idx], stringPool,
+                            typeIds));
+                }
+            }
+        }
+        return externalMethods;
+    }
+
     @Override
     public String toString() {
         StringBuilder b = new StringBuilder();
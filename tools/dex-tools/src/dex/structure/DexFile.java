@@ -33,4 +33,15 @@ public interface DexFile extends NamedElement {
      */
     public List<DexClass> getDefinedClasses();
 
+    /**
+     * Returns a list of the methods referenced by this {@code DexFile} that are
+     * declared by classes which are not part of it, such as the framework
+     * methods called by its code. Unlike {@link #getDefinedClasses()}, this
+     * does not parse any class data.
+     * 
+     * @return a list of the methods referenced by this {@code DexFile} that
+     *         are declared outside of it
+     */
+    public List<DexMethodReference> getExternalMethodReferences();
+
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package dex.structure;
+
+import java.util.List;
+
+/**
+ * {@code DexMethodReference} represents a method referenced by the code of a
+ * dex file. Unlike a {@link DexMethod}, the referenced method need not be
+ * declared by a class of that dex file.
+ */
+public interface DexMethodReference extends NamedElement {
+
+    /**
+     * Returns the type name of the class declaring the referenced method, e.g.
+     * "Ljava/lang/Object;".
+     * 
+     * @return the type name of the declaring class
+     */
+    String getDeclaringClass();
+
+    /**
+     * Returns the type names of the parameters of the referenced method, in
+     * declaration order.
+     * 
+     * @return the type names of the parameters
+     */
+    List<String> getParameterTypes();
+
+    /**
+     * Returns the type name of the return type of the referenced method, e.g.
+     * "V".
+     * 
+     * @return the type name of the return type
+     */
+    String getReturnType();
+}
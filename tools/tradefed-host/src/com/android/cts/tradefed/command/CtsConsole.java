@@ -20,6 +20,7 @@ import com.android.cts.tradefed.build.CtsBuildProvider;
 import com.android.cts.tradefed.result.ITestResultRepo;
 import com.android.cts.tradefed.result.ITestSummary;
 import com.android.cts.tradefed.result.PlanCreator;
+import com.android.cts.tradefed.result.ResultMerger;
 import com.android.cts.tradefed.result.TestResultRepo;
 import com.android.cts.tradefed.testtype.ITestPackageRepo;
 import com.android.cts.tradefed.testtype.TestPackageRepo;
@@ -122,9 +123,25 @@ public class CtsConsole extends Console {
             }
         };
         trie.put(addDerivedCommand, ADD_PATTERN, "d(?:erivedplan?)", null);
+        ArgRunnable<CaptureList> addMergedCommand = new ArgRunnable<CaptureList>() {
+            @Override
+            public void run(CaptureList args) {
+                // Skip 2 tokens to get past addPattern and "mergedresult"
+                String[] flatArgs = new String[args.size() - 2];
+                for (int i = 2; i < args.size(); i++) {
+                    flatArgs[i - 2] = args.get(i).get(0);
+                }
+                CtsBuildHelper ctsBuild = getCtsBuild();
+                if (ctsBuild != null) {
+                    addMergedResult(ctsBuild, flatArgs);
+                }
+            }
+        };
+        trie.put(addMergedCommand, ADD_PATTERN, "m(?:ergedresult)?", null);
         commandHelp.put(ADD_PATTERN, String.format(
                 "%s help:" + LINE_SEPARATOR +
-                "\tderivedplan      Add a derived plan" + LINE_SEPARATOR,
+                "\tderivedplan      Add a derived plan" + LINE_SEPARATOR +
+                "\tmergedresult     Add a result merged from several sessions" + LINE_SEPARATOR,
                 ADD_PATTERN));
     }
 
@@ -174,6 +191,8 @@ public class CtsConsole extends Console {
         helpBuilder.append("  add derivedplan --plan plane_name --session/-s session_id -r ");
         helpBuilder.append("[pass/fail/notExecuted/timeout]: derive a plan from the given ");
         helpBuilder.append("session\n");
+        helpBuilder.append("  add m/mergedresult --session/-s session_id --session/-s session_id ");
+        helpBuilder.append("[...]: merge the results of the given sessions into a new session\n");
         helpBuilder.append("Dump:\n");
         helpBuilder.append("  d/dump l/logs: dump the tradefed logs for all running invocations\n");
         helpBuilder.append("Options:\n");
@@ -230,6 +249,18 @@ public class CtsConsole extends Console {
         }
     }
 
+    private void addMergedResult(CtsBuildHelper ctsBuild, String[] flatArgs) {
+        ResultMerger merger = new ResultMerger();
+        try {
+            ArgsOptionParser optionParser = new ArgsOptionParser(merger);
+            optionParser.parse(Arrays.asList(flatArgs));
+            merger.createMergedResult(ctsBuild);
+        } catch (ConfigurationException e) {
+            printLine("Error: " + e.getMessage());
+            printLine(ArgsOptionParser.getOptionHelp(false, merger));
+        }
+    }
+
     private CtsBuildHelper getCtsBuild() {
         if (mCtsBuild == null) {
             String ctsInstallPath = System.getProperty("CTS_ROOT");
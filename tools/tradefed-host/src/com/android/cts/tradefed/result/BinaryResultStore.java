@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.cts.tradefed.result.TestLog.TestLogType;
+import com.android.cts.tradefed.util.AtomicFileUtil;
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary copy of a result XML, stored alongside it so a session can be reloaded
+ * without parsing the XML.
+ * <p/>
+ * All strings are stored once in a string table and referenced by index, so the class names and
+ * timestamps shared by many tests cost four bytes per test. The tests of each package are stored
+ * as columns. Like {@link CachedTestSummary}, the store records the size and modification time of
+ * the result file it was written for, and is ignored once the result file changes.
+ * <p/>
+ * The store holds the same data as the result XML: performance results and package metrics are
+ * not kept by either.
+ */
+class BinaryResultStore {
+
+    static final String STORE_FILE_NAME = "testResult.bin";
+
+    private static final int MAGIC = 0x43545352;
+    private static final int VERSION = 1;
+    private static final int NO_STRING = -1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Store the given results for the result file in the given directory.
+     * <p/>
+     * The store is an optimization only, so failures are logged rather than thrown.
+     *
+     * @param resultDir the result directory, containing an up to date result file
+     * @param results the {@link TestResults} in the result file
+     */
+    static void write(File resultDir, final TestResults results) {
+        final File resultFile = new File(resultDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        File storeFile = new File(resultDir, STORE_FILE_NAME);
+        AtomicFileUtil.replaceFile(storeFile, new AtomicFileUtil.ContentWriter() {
+            @Override
+            public void write(OutputStream stream) throws IOException {
+                DataOutputStream out = new DataOutputStream(stream);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(resultFile.length());
+                out.writeLong(resultFile.lastModified());
+                writeResults(out, results);
+                out.flush();
+            }
+        });
+    }
+
+    /**
+     * Load the results stored for the result file in the given directory.
+     *
+     * @param resultDir the result directory
+     * @return the {@link TestResults}, or <code>null</code> if there is no store for the current
+     * result file
+     */
+    static TestResults read(File resultDir) {
+        File resultFile = new File(resultDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        File storeFile = new File(resultDir, STORE_FILE_NAME);
+        if (!storeFile.exists()) {
+            return null;
+        }
+        DataInputStream stream = null;
+        try {
+            stream = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(storeFile), BUFFER_SIZE));
+            if (stream.readInt() != MAGIC || stream.readInt() != VERSION) {
+                CLog.d("Ignoring %s with unknown format", storeFile.getAbsolutePath());
+                return null;
+            }
+            if (stream.readLong() != resultFile.length()
+                    || stream.readLong() != resultFile.lastModified()) {
+                CLog.d("Ignoring out of date %s", storeFile.getAbsolutePath());
+                return null;
+            }
+            return readResults(stream);
+        } catch (IOException e) {
+            // includes EOFException for a truncated file
+            CLog.w("Failed to read %s", storeFile.getAbsolutePath());
+            return null;
+        } catch (RuntimeException e) {
+            // bad string or enum indices in a corrupt file
+            CLog.w("Failed to read %s", storeFile.getAbsolutePath());
+            return null;
+        } finally {
+            StreamUtil.close(stream);
+        }
+    }
+
+    private static void writeResults(DataOutputStream stream, TestResults results)
+            throws IOException {
+        StringTable strings = new StringTable();
+        Map<String, String> metrics = results.getDeviceInfo().getMetrics();
+        int[] metricColumn = new int[metrics.size() * 2];
+        int m = 0;
+        for (Map.Entry<String, String> metric : metrics.entrySet()) {
+            metricColumn[m++] = strings.add(metric.getKey());
+            metricColumn[m++] = strings.add(metric.getValue());
+        }
+        Collection<TestPackageResult> pkgs = results.getPackages();
+        List<PackageColumns> columns = new ArrayList<PackageColumns>(pkgs.size());
+        for (TestPackageResult pkg : pkgs) {
+            columns.add(new PackageColumns(pkg, strings));
+        }
+
+        strings.write(stream);
+        writeColumn(stream, metricColumn);
+        stream.writeInt(columns.size());
+        for (PackageColumns pkgColumns : columns) {
+            pkgColumns.write(stream);
+        }
+    }
+
+    private static TestResults readResults(DataInputStream stream) throws IOException {
+        String[] strings = StringTable.read(stream);
+        TestResults results = new TestResults();
+        int[] metricColumn = readColumn(stream);
+        Map<String, String> metrics = results.getDeviceInfo().getMetrics();
+        for (int i = 0; i < metricColumn.length; i += 2) {
+            metrics.put(getString(strings, metricColumn[i]),
+                    getString(strings, metricColumn[i + 1]));
+        }
+        int numPackages = stream.readInt();
+        for (int i = 0; i < numPackages; i++) {
+            TestPackageResult pkg = PackageColumns.read(stream, strings);
+            if (pkg.getId() != null) {
+                results.addPackage(pkg);
+            } else {
+                CLog.w("Found package with no id");
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The tests of a {@link TestPackageResult}, as columns of string indices.
+     */
+    private static class PackageColumns {
+        private final int[] mAttributes;
+        private final int[] mClassNames;
+        private final int[] mTestNames;
+        private final byte[] mStatuses;
+        private final int[] mStartTimes;
+        private final int[] mEndTimes;
+        private final int[] mMessages;
+        private final int[] mStackTraces;
+        /** the test index, log type and url of each test log */
+        private final List<int[]> mTestLogs = new ArrayList<int[]>();
+
+        PackageColumns(TestPackageResult pkg, StringTable strings) {
+            mAttributes = new int[] {
+                    strings.add(pkg.getAppPackageName()),
+                    strings.add(pkg.getName()),
+                    strings.add(pkg.getAbi()),
+                    strings.add(pkg.getDigest())};
+            Map<TestIdentifier, Test> tests = pkg.getTests();
+            mClassNames = new int[tests.size()];
+            mTestNames = new int[tests.size()];
+            mStatuses = new byte[tests.size()];
+            mStartTimes = new int[tests.size()];
+            mEndTimes = new int[tests.size()];
+            mMessages = new int[tests.size()];
+            mStackTraces = new int[tests.size()];
+            int i = 0;
+            for (Map.Entry<TestIdentifier, Test> entry : tests.entrySet()) {
+                Test test = entry.getValue();
+                mClassNames[i] = strings.add(entry.getKey().getClassName());
+                mTestNames[i] = strings.add(test.getName());
+                mStatuses[i] = (byte) test.getResult().ordinal();
+                mStartTimes[i] = strings.add(test.getStartTime());
+                mEndTimes[i] = strings.add(test.getEndTime());
+                mMessages[i] = strings.add(test.getMessage());
+                mStackTraces[i] = strings.add(test.getStackTrace());
+                for (TestLog log : test.getTestLogs()) {
+                    mTestLogs.add(new int[] {
+                            i, log.getLogType().ordinal(), strings.add(log.getUrl())});
+                }
+                i++;
+            }
+        }
+
+        void write(DataOutputStream stream) throws IOException {
+            writeColumn(stream, mAttributes);
+            writeColumn(stream, mClassNames);
+            writeColumn(stream, mTestNames);
+            stream.write(mStatuses);
+            writeColumn(stream, mStartTimes);
+            writeColumn(stream, mEndTimes);
+            writeColumn(stream, mMessages);
+            writeColumn(stream, mStackTraces);
+            stream.writeInt(mTestLogs.size());
+            for (int[] log : mTestLogs) {
+                stream.writeInt(log[0]);
+                stream.writeByte(log[1]);
+                stream.writeInt(log[2]);
+            }
+        }
+
+        static TestPackageResult read(DataInputStream stream, String[] strings)
+                throws IOException {
+            TestPackageResult pkg = new TestPackageResult();
+            int[] attributes = readColumn(stream);
+            pkg.setAppPackageName(getString(strings, attributes[0]));
+            pkg.setName(getString(strings, attributes[1]));
+            pkg.setAbi(getString(strings, attributes[2]));
+            pkg.setDigest(getString(strings, attributes[3]));
+
+            int[] classNames = readColumn(stream);
+            int[] testNames = readColumn(stream);
+            byte[] statuses = new byte[classNames.length];
+            stream.readFully(statuses);
+            int[] startTimes = readColumn(stream);
+            int[] endTimes = readColumn(stream);
+            int[] messages = readColumn(stream);
+            int[] stackTraces = readColumn(stream);
+            CtsTestStatus[] statusValues = CtsTestStatus.values();
+            Test[] tests = new Test[classNames.length];
+            for (int i = 0; i < tests.length; i++) {
+                tests[i] = new Test(getString(strings, testNames[i]), statusValues[statuses[i]],
+                        getString(strings, startTimes[i]), getString(strings, endTimes[i]));
+                String stackTrace = getString(strings, stackTraces[i]);
+                if (stackTrace != null) {
+                    tests[i].setStackTrace(stackTrace);
+                }
+                tests[i].setMessage(getString(strings, messages[i]));
+                pkg.insertTest(new TestIdentifier(getString(strings, classNames[i]),
+                        tests[i].getName()), tests[i]);
+            }
+            int numLogs = stream.readInt();
+            TestLogType[] logTypes = TestLogType.values();
+            for (int i = 0; i < numLogs; i++) {
+                Test test = tests[stream.readInt()];
+                TestLogType logType = logTypes[stream.readByte()];
+                test.addTestLog(TestLog.of(logType, getString(strings, stream.readInt())));
+            }
+            return pkg;
+        }
+    }
+
+    /**
+     * A table of distinct strings, written once and referenced by index.
+     */
+    private static class StringTable {
+        private final Map<String, Integer> mIndices = new HashMap<String, Integer>();
+        private final List<String> mStrings = new ArrayList<String>();
+
+        /**
+         * @return the index of the given string, or {@link #NO_STRING} for <code>null</code>
+         */
+        int add(String string) {
+            if (string == null) {
+                return NO_STRING;
+            }
+            Integer index = mIndices.get(string);
+            if (index == null) {
+                index = mStrings.size();
+                mIndices.put(string, index);
+                mStrings.add(string);
+            }
+            return index;
+        }
+
+        void write(DataOutputStream stream) throws IOException {
+            stream.writeInt(mStrings.size());
+            for (String string : mStrings) {
+                // writeUTF is limited to 64k, which stack traces can exceed
+                byte[] bytes = string.getBytes(UTF_8);
+                stream.writeInt(bytes.length);
+                stream.write(bytes);
+            }
+        }
+
+        static String[] read(DataInputStream stream) throws IOException {
+            String[] strings = new String[stream.readInt()];
+            byte[] buffer = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                int length = stream.readInt();
+                if (length > buffer.length) {
+                    buffer = new byte[Math.max(length, buffer.length * 2)];
+                }
+                stream.readFully(buffer, 0, length);
+                strings[i] = new String(buffer, 0, length, UTF_8);
+            }
+            return strings;
+        }
+    }
+
+    private static String getString(String[] strings, int index) {
+        return index == NO_STRING ? null : strings[index];
+    }
+
+    private static void writeColumn(DataOutputStream stream, int[] column) throws IOException {
+        stream.writeInt(column.length);
+        for (int value : column) {
+            stream.writeInt(value);
+        }
+    }
+
+    private static int[] readColumn(DataInputStream stream) throws IOException {
+        int[] column = new int[stream.readInt()];
+        for (int i = 0; i < column.length; i++) {
+            column[i] = stream.readInt();
+        }
+        return column;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import java.io.File;
+import java.util.Properties;
+
+/**
+ * A {@link ITestSummary} stored as {@link Properties}, along with the size and modification time
+ * of the result file it was read from so stale copies can be detected.
+ */
+class CachedTestSummary implements ITestSummary {
+
+    private static final String PLAN_PROP = "plan";
+    private static final String STARTTIME_PROP = "starttime";
+    private static final String SERIALS_PROP = "serials";
+    private static final String FAILED_PROP = "failed";
+    private static final String NOT_EXECUTED_PROP = "notExecuted";
+    private static final String PASSED_PROP = "passed";
+    private static final String MODIFIED_PROP = "resultModified";
+    private static final String SIZE_PROP = "resultSize";
+
+    private final int mId;
+    private final String mTimestamp;
+    private final int mNumFailed;
+    private final int mNumNotExecuted;
+    private final int mNumPassed;
+    private final String mPlan;
+    private final String mStartTime;
+    private final String mDeviceSerials;
+    private final long mResultModified;
+    private final long mResultSize;
+
+    /**
+     * Create a {@link CachedTestSummary} copying the data from another {@link ITestSummary}.
+     *
+     * @param summary the {@link ITestSummary} to copy
+     * @param resultFile the result file <var>summary</var> was parsed from
+     */
+    CachedTestSummary(ITestSummary summary, File resultFile) {
+        this(summary.getId(), summary.getTimestamp(), summary.getNumFailed(),
+                summary.getNumIncomplete(), summary.getNumPassed(), summary.getTestPlan(),
+                summary.getStartTime(), summary.getDeviceSerials(), resultFile.lastModified(),
+                resultFile.length());
+    }
+
+    private CachedTestSummary(int id, String timestamp, int numFailed, int numNotExecuted,
+            int numPassed, String plan, String startTime, String deviceSerials,
+            long resultModified, long resultSize) {
+        mId = id;
+        mTimestamp = timestamp;
+        mNumFailed = numFailed;
+        mNumNotExecuted = numNotExecuted;
+        mNumPassed = numPassed;
+        mPlan = plan == null ? "" : plan;
+        mStartTime = startTime == null ? "" : startTime;
+        mDeviceSerials = deviceSerials == null ? "" : deviceSerials;
+        mResultModified = resultModified;
+        mResultSize = resultSize;
+    }
+
+    /**
+     * Load a {@link CachedTestSummary} from properties.
+     *
+     * @param id the session id
+     * @param timestamp the result directory name
+     * @param props the {@link Properties} to load from
+     * @param prefix the prefix of the property keys
+     * @return the {@link CachedTestSummary} or <code>null</code> if the properties are incomplete
+     */
+    static CachedTestSummary fromProperties(int id, String timestamp, Properties props,
+            String prefix) {
+        try {
+            String plan = props.getProperty(prefix + PLAN_PROP);
+            String startTime = props.getProperty(prefix + STARTTIME_PROP);
+            String serials = props.getProperty(prefix + SERIALS_PROP);
+            if (plan == null || startTime == null || serials == null) {
+                return null;
+            }
+            return new CachedTestSummary(id, timestamp,
+                    Integer.parseInt(props.getProperty(prefix + FAILED_PROP)),
+                    Integer.parseInt(props.getProperty(prefix + NOT_EXECUTED_PROP)),
+                    Integer.parseInt(props.getProperty(prefix + PASSED_PROP)),
+                    plan, startTime, serials,
+                    Long.parseLong(props.getProperty(prefix + MODIFIED_PROP)),
+                    Long.parseLong(props.getProperty(prefix + SIZE_PROP)));
+        } catch (NumberFormatException e) {
+            // missing or corrupt value
+            return null;
+        }
+    }
+
+    /**
+     * Store this summary in the given properties.
+     *
+     * @param props the {@link Properties} to store to
+     * @param prefix the prefix of the property keys
+     */
+    void toProperties(Properties props, String prefix) {
+        props.setProperty(prefix + PLAN_PROP, mPlan);
+        props.setProperty(prefix + STARTTIME_PROP, mStartTime);
+        props.setProperty(prefix + SERIALS_PROP, mDeviceSerials);
+        props.setProperty(prefix + FAILED_PROP, Integer.toString(mNumFailed));
+        props.setProperty(prefix + NOT_EXECUTED_PROP, Integer.toString(mNumNotExecuted));
+        props.setProperty(prefix + PASSED_PROP, Integer.toString(mNumPassed));
+        props.setProperty(prefix + MODIFIED_PROP, Long.toString(mResultModified));
+        props.setProperty(prefix + SIZE_PROP, Long.toString(mResultSize));
+    }
+
+    /**
+     * @return <code>true</code> if this summary describes the current contents of
+     * <var>resultFile</var>
+     */
+    boolean isCurrent(File resultFile) {
+        return mResultModified == resultFile.lastModified() && mResultSize == resultFile.length();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumIncomplete() {
+        return mNumNotExecuted;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumFailed() {
+        return mNumFailed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumPassed() {
+        return mNumPassed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getTestPlan() {
+        return mPlan;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getStartTime() {
+        return mStartTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDeviceSerials() {
+        return mDeviceSerials;
+    }
+}
@@ -47,13 +47,18 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Writes results to an XML files in the CTS format.
  * <p/>
- * Collects all test info in memory, then dumps to file when invocation is complete.
+ * Collects all test info in memory, then dumps to file when invocation is complete. With
+ * --journal-results, each completed test package is instead written to a {@link ResultJournal}
+ * in the result directory, and the final file is stitched together from the journal.
  * <p/>
  * Outputs xml in format governed by the cts_result.xsd
  */
@@ -66,6 +71,10 @@ public class CtsXmlResultReporter
     static final String CTS_RESULT_FILE_VERSION = "4.4";
     private static final String[] CTS_RESULT_RESOURCES = {"cts_result.xsl", "cts_result.css",
         "logo.gif", "newrule-green.png"};
+    /** the files in a result directory that are not part of the result, and are not zipped */
+    private static final List<String> SIDECAR_FILE_NAMES = Arrays.asList(
+            BinaryResultStore.STORE_FILE_NAME, ResultSummaryIndex.SUMMARY_FILE_NAME,
+            PackageDurations.FILE_NAME, ResultJournal.JOURNAL_DIR_NAME);
 
     /** the XML namespace */
     static final String ns = null;
@@ -73,6 +82,8 @@ public class CtsXmlResultReporter
     static final String RESULT_TAG = "TestResult";
     static final String PLAN_ATTR = "testPlan";
     static final String STARTTIME_ATTR = "starttime";
+    static final String ENDTIME_ATTR = "endtime";
+    static final String SUITE_ATTR = "suite";
 
     @Option(name = "quiet-output", description = "Mute display of test results.")
     private boolean mQuietOutput = false;
@@ -97,14 +108,24 @@ public class CtsXmlResultReporter
     @Option(name = "include-test-log-tags", description = "Include test log tags in XML report.")
     private boolean mIncludeTestLogTags = false;
 
+    @Option(name = "journal-results", description = "Write each completed test package to an " +
+            "on-disk journal instead of holding all results in memory until the invocation ends.")
+    private boolean mJournalResults = false;
+
     protected IBuildInfo mBuildInfo;
     private String mStartTime;
     private String mDeviceSerial;
     private TestResults mResults = new TestResults();
     private TestPackageResult mCurrentPkgResult = null;
+    private String mCurrentPkgId = null;
+    private ResultJournal mJournal = null;
+    /** elapsed time of each package run, by package id */
+    private Map<String, Long> mPackageDurations = new LinkedHashMap<String, Long>();
     private Test mCurrentTest = null;
     private boolean mIsDeviceInfoRun = false;
     private ResultReporter mReporter;
+    /** compresses logs and the result directory in the background */
+    private ResultArchiver mArchiver = null;
     private File mLogDir;
     private String mSuiteName;
     private String mReferenceUrl;
@@ -118,6 +139,11 @@ public class CtsXmlResultReporter
         mIncludeTestLogTags = include;
     }
 
+    /** Set whether to journal completed packages to disk rather than keep them in memory. */
+    public void setJournalResults(boolean journal) {
+        mJournalResults = journal;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -140,9 +166,12 @@ public class CtsXmlResultReporter
                 throw new IllegalArgumentException(String.format("Could not find session %d",
                         mContinueSessionId));
             }
-            mPlanName = resultRepo.getSummaries().get(mContinueSessionId).getTestPlan();
-            mStartTime = resultRepo.getSummaries().get(mContinueSessionId).getStartTime();
+            ITestSummary summary = resultRepo.getSummaries().get(mContinueSessionId);
+            mPlanName = summary.getTestPlan();
+            mStartTime = summary.getStartTime();
             mReportDir = resultRepo.getReportDir(mContinueSessionId);
+            // a continued package only runs its remaining tests, so add to its previous time
+            mPackageDurations.putAll(PackageDurations.load(mReportDir));
         } else {
             if (mReportDir == null) {
                 mReportDir = ctsBuildHelper.getResultsDir();
@@ -154,6 +183,10 @@ public class CtsXmlResultReporter
         }
         mSuiteName = ctsBuildHelper.getSuiteName();
         mReporter = new ResultReporter(mResultServer, mSuiteName);
+        mArchiver = new ResultArchiver();
+        if (mJournalResults) {
+            openJournal();
+        }
 
         // TODO: allow customization of log dir
         // create a unique directory for saving logs, with same name as result dir
@@ -162,6 +195,40 @@ public class CtsXmlResultReporter
         mLogDir.mkdirs();
     }
 
+    /**
+     * Open the {@link ResultJournal} for the report dir, and move any packages already loaded
+     * from a continued session into it. Packages already in the journal are kept as journaled.
+     * <p/>
+     * Falls back to keeping results in memory if the journal cannot be used.
+     */
+    private void openJournal() {
+        ResultJournal journal = new ResultJournal(mReportDir);
+        try {
+            if (!journal.open()) {
+                CLog.w("Result journal in %s is in use, keeping results in memory",
+                        mReportDir.getName());
+                return;
+            }
+            journal.writeSessionInfo(mPlanName, mStartTime,
+                    mSuiteName == null ? "" : mSuiteName);
+        } catch (IOException e) {
+            CLog.e("Failed to open result journal, keeping results in memory");
+            CLog.e(e);
+            journal.close();
+            return;
+        }
+        mJournal = journal;
+        mResults.setJournal(mJournal);
+        for (TestPackageResult pkg : new ArrayList<TestPackageResult>(mResults.getPackages())) {
+            if (mJournal.contains(pkg.getId())) {
+                // the journaled copy is newer than the one loaded from the result file
+                mResults.removePackage(pkg.getId());
+            } else {
+                mResults.journalPackage(pkg.getId());
+            }
+        }
+    }
+
     /**
      * Create a unique directory for saving results.
      * <p/>
@@ -173,7 +240,7 @@ public class CtsXmlResultReporter
      * @param parentDir the parent folder to create dir in
      * @return the created directory
      */
-    private static synchronized File createUniqueReportDir(File parentDir) {
+    static synchronized File createUniqueReportDir(File parentDir) {
         // TODO: in future, consider using LogFileSaver to create build-specific directories
 
         File reportDir = new File(parentDir, TimeUtil.getResultTimestamp());
@@ -216,8 +283,17 @@ public class CtsXmlResultReporter
     @Override
     public void testLog(String dataName, LogDataType dataType, InputStreamSource dataStream) {
         try {
-            File logFile = getLogFileSaver().saveAndZipLogData(dataName, dataType,
-                    dataStream.createInputStream());
+            File logFile;
+            if (mArchiver != null) {
+                // save the log uncompressed, and zip it in the background
+                File rawLogFile = getLogFileSaver().saveLogData(dataName, dataType,
+                        dataStream.createInputStream());
+                logFile = mArchiver.compressLog(rawLogFile,
+                        String.format("%s.%s", dataName, dataType.getFileExt()));
+            } else {
+                logFile = getLogFileSaver().saveAndZipLogData(dataName, dataType,
+                        dataStream.createInputStream());
+            }
             logResult(String.format("Saved log %s", logFile.getName()));
         } catch (IOException e) {
             CLog.e("Failed to write log for %s", dataName);
@@ -254,8 +330,17 @@ public class CtsXmlResultReporter
 
     @Override
     public void testRunStarted(String id, int numTests) {
+        if (mCurrentPkgId != null && !mCurrentPkgId.equals(id)) {
+            // the previous package is complete. Journal it now rather than at testRunEnded, so
+            // logs saved after the run ended are still attached to its tests
+            mResults.journalPackage(mCurrentPkgId);
+            mCurrentPkgResult = null;
+            mCurrentPkgId = null;
+            mCurrentTest = null;
+        }
         mIsDeviceInfoRun = DeviceInfoCollector.IDS.contains(id);
         if (!mIsDeviceInfoRun) {
+            mCurrentPkgId = id;
             mCurrentPkgResult = mResults.getOrCreatePackage(id);
             mCurrentPkgResult.setDeviceSerial(mDeviceSerial);
         }
@@ -319,6 +404,11 @@ public class CtsXmlResultReporter
             mResults.populateDeviceInfoMetrics(runMetrics);
         } else {
             mCurrentPkgResult.populateMetrics(runMetrics);
+            if (elapsedTime > 0) {
+                Long previousTime = mPackageDurations.get(mCurrentPkgId);
+                mPackageDurations.put(mCurrentPkgId,
+                        previousTime == null ? elapsedTime : previousTime + elapsedTime);
+            }
         }
     }
 
@@ -335,8 +425,18 @@ public class CtsXmlResultReporter
 
         File reportFile = getResultFile(mReportDir);
         createXmlResult(reportFile, mStartTime, elapsedTime);
+        if (mJournal != null) {
+            // failed to create the result file. Leave the journal behind so it can be recovered
+            mJournal.close();
+            mJournal = null;
+        }
+        if (!mPackageDurations.isEmpty()) {
+            PackageDurations.store(mReportDir, mPackageDurations);
+        }
         copyFormattingFiles(mReportDir);
-        zipResults(mReportDir);
+        zipResults(mReportDir, mArchiver);
+        mArchiver.close();
+        mArchiver = null;
 
         try {
             mReporter.reportResult(reportFile, mReferenceUrl);
@@ -360,16 +460,20 @@ public class CtsXmlResultReporter
         String endTime = getTimestamp();
         OutputStream stream = null;
         try {
-            stream = createOutputResultStream(reportFile);
-            KXmlSerializer serializer = new KXmlSerializer();
-            serializer.setOutput(stream, "UTF-8");
-            serializer.startDocument("UTF-8", false);
-            serializer.setFeature(
-                    "http://xmlpull.org/v1/doc/features.html#indent-output", true);
-            serializer.processingInstruction("xml-stylesheet type=\"text/xsl\"  " +
-                    "href=\"cts_result.xsl\"");
-            serializeResultsDoc(serializer, startTimestamp, endTime);
-            serializer.endDocument();
+            // compress the result file while it is written, ready for zipping
+            stream = mArchiver.compressWhileWriting(createOutputResultStream(reportFile),
+                    reportFile);
+            serializeResults(stream, mResults, mPlanName, startTimestamp, endTime, mSuiteName);
+            stream.close();
+            if (mJournal != null) {
+                // the journaled packages are all in the result file now
+                mJournal.delete();
+                mJournal = null;
+            } else if (reportFile.exists()) {
+                // all results are in memory, store them for fast reloading. Journaled results
+                // are not held in memory, so those sessions are reloaded from the XML.
+                BinaryResultStore.write(mReportDir, mResults);
+            }
             String msg = String.format("XML test result file generated at %s. Passed %d, " +
                     "Failed %d, Not Executed %d", mReportDir.getName(),
                     mResults.countTests(CtsTestStatus.PASS),
@@ -384,23 +488,53 @@ public class CtsXmlResultReporter
         }
     }
 
+    /**
+     * Output the results XML document to the given stream.
+     *
+     * @param stream the {@link OutputStream} to write to
+     * @param results the {@link TestResults} to output
+     * @param planName the name of the test plan
+     * @param startTime the user-friendly starting time of the test invocation
+     * @param endTime the user-friendly ending time of the test invocation
+     * @param suiteName the name of the test suite
+     * @throws IOException
+     */
+    static void serializeResults(OutputStream stream, TestResults results, String planName,
+            String startTime, String endTime, String suiteName) throws IOException {
+        KXmlSerializer serializer = new KXmlSerializer();
+        serializer.setOutput(stream, "UTF-8");
+        serializer.startDocument("UTF-8", false);
+        serializer.setFeature(
+                "http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        serializer.processingInstruction("xml-stylesheet type=\"text/xsl\"  " +
+                "href=\"cts_result.xsl\"");
+        serializeResultsDoc(serializer, stream, results, planName, startTime, endTime,
+                suiteName);
+        serializer.endDocument();
+    }
+
     /**
      * Output the results XML.
      *
      * @param serializer the {@link KXmlSerializer} to use
+     * @param stream the underlying output stream of the serializer
+     * @param results the {@link TestResults} to output
+     * @param planName the name of the test plan
      * @param startTime the user-friendly starting time of the test invocation
      * @param endTime the user-friendly ending time of the test invocation
+     * @param suiteName the name of the test suite
      * @throws IOException
      */
-    private void serializeResultsDoc(KXmlSerializer serializer, String startTime, String endTime)
-            throws IOException {
+    private static void serializeResultsDoc(KXmlSerializer serializer, OutputStream stream,
+            TestResults results, String planName, String startTime, String endTime,
+            String suiteName) throws IOException {
         serializer.startTag(ns, RESULT_TAG);
-        serializer.attribute(ns, PLAN_ATTR, mPlanName);
+        serializer.attribute(ns, PLAN_ATTR, planName);
         serializer.attribute(ns, STARTTIME_ATTR, startTime);
-        serializer.attribute(ns, "endtime", endTime);
+        serializer.attribute(ns, ENDTIME_ATTR, endTime);
         serializer.attribute(ns, "version", CTS_RESULT_FILE_VERSION);
-        serializer.attribute(ns, "suite", mSuiteName);
-        mResults.serialize(serializer);
+        serializer.attribute(ns, SUITE_ATTR, suiteName);
+        results.serialize(serializer, stream);
         // TODO: not sure why, but the serializer doesn't like this statement
         //serializer.endTag(ns, RESULT_TAG);
     }
@@ -422,10 +556,10 @@ public class CtsXmlResultReporter
      *
      * @param resultsDir
      */
-    private void copyFormattingFiles(File resultsDir) {
+    static void copyFormattingFiles(File resultsDir) {
         for (String resultFileName : CTS_RESULT_RESOURCES) {
-            InputStream configStream = getClass().getResourceAsStream(String.format("/report/%s",
-                    resultFileName));
+            InputStream configStream = CtsXmlResultReporter.class.getResourceAsStream(
+                    String.format("/report/%s", resultFileName));
             if (configStream != null) {
                 File resultFile = new File(resultsDir, resultFileName);
                 try {
@@ -441,15 +575,26 @@ public class CtsXmlResultReporter
 
     /**
      * Zip the contents of the given results directory.
+     * <p/>
+     * The zip is assembled from the data {@link ResultArchiver} already compressed where possible,
+     * falling back to {@link ResultArchiver#createSequentialZip} if that fails. The sidecar files
+     * that only speed up reloading the session are left out.
      *
      * @param resultsDir
+     * @param archiver the {@link ResultArchiver} that compressed the results
      */
-    private void zipResults(File resultsDir) {
+    static void zipResults(File resultsDir, ResultArchiver archiver) {
+        // create a file in parent directory, with same name as resultsDir
+        File zipResultFile = new File(resultsDir.getParent(), String.format("%s.zip",
+                resultsDir.getName()));
+        try {
+            archiver.createZip(resultsDir, zipResultFile, SIDECAR_FILE_NAMES);
+            return;
+        } catch (IOException e) {
+            CLog.w("Failed to zip %s in parallel: %s", resultsDir.getName(), e.getMessage());
+        }
         try {
-            // create a file in parent directory, with same name as resultsDir
-            File zipResultFile = new File(resultsDir.getParent(), String.format("%s.zip",
-                    resultsDir.getName()));
-            FileUtil.createZip(resultsDir, zipResultFile);
+            ResultArchiver.createSequentialZip(resultsDir, zipResultFile, SIDECAR_FILE_NAMES);
         } catch (IOException e) {
             Log.w(LOG_TAG, String.format("Failed to create zip for %s", resultsDir.getName()));
         }
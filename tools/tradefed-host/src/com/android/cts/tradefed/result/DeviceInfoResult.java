@@ -406,8 +406,6 @@ class DeviceInfoResult extends AbstractXmlPullParser {
 
     /**
      * Return the currently stored metrics.
-     * <p/>
-     * Exposed for unit testing.
      */
     Map<String, String> getMetrics() {
         return mMetrics;
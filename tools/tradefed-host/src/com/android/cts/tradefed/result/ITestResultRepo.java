@@ -17,6 +17,7 @@ package com.android.cts.tradefed.result;
 
 import java.io.File;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Repository for CTS results.
@@ -25,7 +26,7 @@ public interface ITestResultRepo {
 
     /**
      * @return the list of {@link ITestSummary}s. The index of the {@link ITestSummary} in the
-     * list is its session id
+     * list is its session id. The list is computed once and reused by subsequent calls.
      */
     public List<ITestSummary> getSummaries();
 
@@ -45,4 +46,12 @@ public interface ITestResultRepo {
      */
     public File getReportDir(int sessionId);
 
+    /**
+     * Get the most recently recorded elapsed time of each test package, from the latest result
+     * sessions.
+     *
+     * @return a {@link Map} of package id to elapsed time in ms
+     */
+    public Map<String, Long> getPackageDurations();
+
 }
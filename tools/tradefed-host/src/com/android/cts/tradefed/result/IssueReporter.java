@@ -24,14 +24,21 @@ import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.LogDataType;
 import com.android.tradefed.result.TestSummary;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPOutputStream;
 
@@ -41,7 +48,13 @@ import java.util.zip.GZIPOutputStream;
  */
 public class IssueReporter implements ITestInvocationListener {
 
-    private static final int BUGREPORT_SIZE = 500 * 1024;
+    /** the number of issues reported at the same time */
+    private static final int MAX_REPORTING_THREADS = 2;
+    /**
+     * the number of issues that may wait to be reported. Further issues are dropped, since
+     * reporting them on the test thread would stall the device output for the upload.
+     */
+    private static final int MAX_PENDING_ISSUES = 16;
 
     private static final String PRODUCT_NAME_KEY = "buildName";
     private static final String BUILD_TYPE_KEY = "build_type";
@@ -50,7 +63,9 @@ public class IssueReporter implements ITestInvocationListener {
     @Option(name = "issue-server", description = "Server url to post test failures to.")
     private String mServerUrl;
 
-    private final ExecutorService mReporterService = Executors.newCachedThreadPool();
+    private final ExecutorService mReporterService = new ThreadPoolExecutor(
+            MAX_REPORTING_THREADS, MAX_REPORTING_THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(MAX_PENDING_ISSUES));
 
     private Issue mCurrentIssue;
     private String mBuildId;
@@ -88,51 +103,44 @@ public class IssueReporter implements ITestInvocationListener {
     }
 
     /**
-     * Set the bug report for the current test failure. GZip it to save space.
+     * Set the bug report for the current test failure. GZip it to a temporary file, so pending
+     * bug reports don't take up memory.
      * This is only called when the --bugreport option is enabled.
      */
     private void setBugReport(InputStreamSource dataStream) throws IOException {
         if (mCurrentIssue != null) {
-            // Only one bug report can be stored at a time and they are gzipped to
-            // about 0.5 MB so there shoudn't be any memory leak bringing down CTS.
+            File bugReport = FileUtil.createTempFile("bugreport", ".txt.gz");
             InputStream input = null;
+            OutputStream output = null;
             try {
                 input = dataStream.createInputStream();
-                mCurrentIssue.mBugReport = getBytes(input, BUGREPORT_SIZE);
+                output = new GZIPOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(bugReport)));
+                StreamUtil.copyStreams(input, output);
+                output.close();
+            } catch (IOException e) {
+                FileUtil.deleteFile(bugReport);
+                throw e;
             } finally {
-                if (input != null) {
-                    input.close();
-                }
+                StreamUtil.close(input);
+                StreamUtil.close(output);
             }
+            mCurrentIssue.setBugReport(bugReport);
         } else {
             CLog.e("setBugReport is getting called on an empty issue...");
         }
     }
 
-    /**
-     * @param input that will be gzipped and returne as a byte array
-     * @param size of the output expected
-     * @return the byte array with the input's data
-     * @throws IOException
-     */
-    static byte[] getBytes(InputStream input, int size) throws IOException {
-        ByteArrayOutputStream byteOutput = new ByteArrayOutputStream(size);
-        GZIPOutputStream gzipOutput = new GZIPOutputStream(byteOutput);
-        for (byte[] buffer = new byte[1024]; ; ) {
-            int numRead = input.read(buffer);
-            if (numRead < 0) {
-                break;
-            }
-            gzipOutput.write(buffer, 0, numRead);
-        }
-        gzipOutput.close();
-        return byteOutput.toByteArray();
-    }
-
     @Override
     public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
         if (mCurrentIssue != null) {
-            mReporterService.submit(mCurrentIssue);
+            try {
+                mReporterService.submit(mCurrentIssue);
+            } catch (RejectedExecutionException e) {
+                CLog.w("Dropping issue for %s, %d issues are already pending",
+                        mCurrentIssue.mTestName, MAX_PENDING_ISSUES);
+                mCurrentIssue.setBugReport(null);
+            }
             mCurrentIssue = null;
         }
     }
@@ -171,28 +179,39 @@ public class IssueReporter implements ITestInvocationListener {
 
         private String mTestName;
         private String mStackTrace;
-        private byte[] mBugReport;
+        private File mBugReport;
+
+        /**
+         * Set the gzipped bug report, which is deleted once the issue has been reported.
+         */
+        private void setBugReport(File bugReport) {
+            FileUtil.deleteFile(mBugReport);
+            mBugReport = bugReport;
+        }
 
         @Override
         public Void call() throws Exception {
-            if (isEmpty(mServerUrl)
-                    || isEmpty(mBuildId)
-                    || isEmpty(mBuildType)
-                    || isEmpty(mProductName)
-                    || isEmpty(mTestName)
-                    || isEmpty(mStackTrace)) {
-                return null;
-            }
-
-            new MultipartForm(mServerUrl)
-                    .addFormValue("productName", mProductName)
-                    .addFormValue("buildType", mBuildType)
-                    .addFormValue("buildId", mBuildId)
-                    .addFormValue("testName", mTestName)
-                    .addFormValue("stackTrace", mStackTrace)
-                    .addFormFile("bugReport", "bugreport.txt.gz", mBugReport)
-                    .submit();
+            try {
+                if (isEmpty(mServerUrl)
+                        || isEmpty(mBuildId)
+                        || isEmpty(mBuildType)
+                        || isEmpty(mProductName)
+                        || isEmpty(mTestName)
+                        || isEmpty(mStackTrace)) {
+                    return null;
+                }
 
+                new MultipartForm(mServerUrl)
+                        .addFormValue("productName", mProductName)
+                        .addFormValue("buildType", mBuildType)
+                        .addFormValue("buildId", mBuildId)
+                        .addFormValue("testName", mTestName)
+                        .addFormValue("stackTrace", mStackTrace)
+                        .addFormFile("bugReport", "bugreport.txt.gz", mBugReport, false)
+                        .submit();
+            } finally {
+                FileUtil.deleteFile(mBugReport);
+            }
             return null;
         }
 
@@ -16,7 +16,14 @@
 
 package com.android.cts.tradefed.result;
 
-import java.io.ByteArrayOutputStream;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.RunUtil;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -24,21 +31,40 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
 
-/** MultipartForm builds a multipart form and submits it. */
+/**
+ * MultipartForm builds a multipart form and submits it.
+ * <p/>
+ * The form is streamed to the server in chunks, so the form file is never held in memory.
+ * Submissions that fail to connect or find the server unavailable are retried with a randomized
+ * backoff. Other errors may come after the server stored the form, so they are not retried.
+ */
 class MultipartForm {
 
     private static final String FORM_DATA_BOUNDARY = "C75I55u3R3p0r73r";
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private static final Random sRandom = new Random();
 
     private final String mServerUrl;
 
-    private final Map<String, String> mFormValues = new HashMap<String, String>();
+    private final Map<String, String> mFormValues = new LinkedHashMap<String, String>();
 
     private String mName;
     private String mFileName;
-    private byte[] mData;
+    private File mFile;
+    private boolean mCompressFile;
+    private long mRetryDelayMs = RETRY_DELAY_MS;
+
+    private int mAttempts = 0;
+    private long mBytesSent = 0;
+    private long mElapsedTime = 0;
 
     public MultipartForm(String serverUrl) {
         mServerUrl = serverUrl;
@@ -49,20 +75,96 @@ class MultipartForm {
         return this;
     }
 
-    public MultipartForm addFormFile(String name, String fileName, byte[] data) {
+    /**
+     * Add a file to the form. The file is sent as gzipped data.
+     *
+     * @param name the name of the form field
+     * @param fileName the file name to send
+     * @param file the file to send, or <code>null</code> to send no file
+     * @param compress <code>true</code> to gzip the file while sending it, <code>false</code> if
+     *            it is gzipped already
+     */
+    public MultipartForm addFormFile(String name, String fileName, File file, boolean compress) {
         mName = name;
         mFileName = fileName;
-        mData = data;
+        mFile = file;
+        mCompressFile = compress;
         return this;
     }
 
+    /**
+     * Set the delay before the first retry, which doubles for each further retry.
+     * <p/>
+     * Exposed for unit testing.
+     */
+    void setRetryDelay(long delayMs) {
+        mRetryDelayMs = delayMs;
+    }
+
     public void submit() throws IOException {
-        String redirectUrl = submitForm(mServerUrl);
-        if (redirectUrl != null) {
-            submitForm(redirectUrl);
+        long startTime = System.currentTimeMillis();
+        mAttempts = 0;
+        mBytesSent = 0;
+        try {
+            String redirectUrl = submitWithRetries(mServerUrl);
+            if (redirectUrl != null) {
+                // the server accepted the first post, so only the redirected post is retried
+                submitWithRetries(redirectUrl);
+            }
+        } finally {
+            mElapsedTime = System.currentTimeMillis() - startTime;
+            CLog.d("Form upload to %s took %d attempts, %d bytes and %d ms", mServerUrl,
+                    mAttempts, mBytesSent, mElapsedTime);
         }
     }
 
+    /**
+     * Post the form to the given url, retrying while the server cannot have accepted it.
+     *
+     * @return a url if the server redirected to another url
+     */
+    private String submitWithRetries(String serverUrl) throws IOException {
+        int attempts = 0;
+        while (true) {
+            attempts++;
+            mAttempts++;
+            try {
+                return submitForm(serverUrl);
+            } catch (NotAcceptedException e) {
+                if (attempts >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+                // add up to 100% jitter, so failed uploads don't all retry at once
+                long delay = mRetryDelayMs << (attempts - 1);
+                delay += (long) (sRandom.nextDouble() * delay);
+                CLog.w("Failed to submit form to %s, retrying in %d ms: %s", serverUrl,
+                        delay, e.getMessage());
+                RunUtil.getDefault().sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * @return the number of attempts the last {@link #submit()} made
+     */
+    int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * @return the number of bytes the last {@link #submit()} sent, over all attempts
+     */
+    long getBytesSent() {
+        return mBytesSent;
+    }
+
+    /**
+     * @return the time in ms the last {@link #submit()} took
+     */
+    long getElapsedTime() {
+        return mElapsedTime;
+    }
+
     /**
      * @param serverUrl to post the data to
      * @return a url if the server redirected to another url
@@ -76,24 +178,43 @@ class MultipartForm {
             connection.setInstanceFollowRedirects(false);
             connection.setRequestMethod("POST");
             connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(CHUNK_SIZE);
             connection.setRequestProperty("Content-Type",
                     "multipart/form-data; boundary=" + FORM_DATA_BOUNDARY);
 
-            byte[] body = getContentBody();
-            connection.setRequestProperty("Content-Length", Integer.toString(body.length));
-
-            OutputStream output = connection.getOutputStream();
+            CountingOutputStream output = null;
             try {
-                output.write(body);
-            } finally {
+                output = new CountingOutputStream(connection.getOutputStream());
+                writeContentBody(output);
                 output.close();
+            } catch (IOException e) {
+                // the server never got the whole form
+                throw new NotAcceptedException(e.getMessage(), e);
+            } finally {
+                StreamUtil.close(output);
+                if (output != null) {
+                    mBytesSent += output.getCount();
+                }
+            }
+
+            // any other error from here on may come after the server stored the form
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE) {
+                throw new NotAcceptedException(String.format("Server unavailable from %s",
+                        serverUrl), null);
+            } else if (responseCode >= 500) {
+                throw new IOException(String.format("Server error %d from %s", responseCode,
+                        serverUrl));
+            } else if (responseCode >= 400) {
+                throw new FormRejectedException(String.format("Form rejected with %d by %s",
+                        responseCode, serverUrl));
             }
 
             // Open the stream to get a response. Otherwise request will be cancelled.
             InputStream input = connection.getInputStream();
             input.close();
 
-            if (connection.getResponseCode() == 302) {
+            if (responseCode == 302) {
                 return connection.getHeaderField("Location");
             }
         } finally {
@@ -105,25 +226,50 @@ class MultipartForm {
         return null;
     }
 
-    private byte[] getContentBody() throws IOException {
-        ByteArrayOutputStream byteOutput = new ByteArrayOutputStream();
-        PrintWriter writer = new PrintWriter(new OutputStreamWriter(byteOutput));
+    private void writeContentBody(OutputStream output) throws IOException {
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(output));
         writer.println();
 
         for (Map.Entry<String, String> formValue : mFormValues.entrySet()) {
             writeFormField(writer, formValue.getKey(), formValue.getValue());
         }
 
-        if (mData != null) {
+        if (mFile != null) {
             writeFormFileHeader(writer, mName, mFileName);
             writer.flush(); // Must flush here before writing to the byte stream!
-            byteOutput.write(mData);
+            writeFile(output);
             writer.println();
         }
         writer.append("--").append(FORM_DATA_BOUNDARY).println("--");
         writer.flush();
-        writer.close();
-        return byteOutput.toByteArray();
+    }
+
+    private void writeFile(OutputStream output) throws IOException {
+        InputStream input = null;
+        OutputStream fileOutput = null;
+        try {
+            input = new BufferedInputStream(new FileInputStream(mFile));
+            // leave the request stream open for the rest of the form
+            fileOutput = new FilterOutputStream(output) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+            if (mCompressFile) {
+                fileOutput = new GZIPOutputStream(fileOutput, CHUNK_SIZE);
+            }
+            StreamUtil.copyStreams(input, fileOutput);
+            fileOutput.close();
+        } finally {
+            StreamUtil.close(input);
+            StreamUtil.close(fileOutput);
+        }
     }
 
     private void writeFormField(PrintWriter writer, String name, String value) {
@@ -141,4 +287,53 @@ class MultipartForm {
         writer.println("Content-Transfer-Encoding: binary");
         writer.println();
     }
+
+    /**
+     * Counts the bytes written to a stream.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long mCount = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+
+    /**
+     * Thrown when the server did not accept the form, in which case it is safe to post it again.
+     */
+    private static class NotAcceptedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotAcceptedException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * Thrown when the server rejects the form, in which case retrying won't help.
+     */
+    private static class FormRejectedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        FormRejectedException(String message) {
+            super(message);
+        }
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.cts.tradefed.util.AtomicFileUtil;
+import com.android.tradefed.log.LogUtil.CLog;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Reads and writes the elapsed time of each test package in a result session.
+ * <p/>
+ * Stored as a properties file in the result directory, keyed by package id, so it can be read
+ * back without parsing the result XML.
+ */
+public class PackageDurations {
+
+    static final String FILE_NAME = "packageDurations.properties";
+
+    /**
+     * the number of most recent sessions to read package durations from.
+     */
+    private static final int MAX_DURATION_SESSIONS = 10;
+
+    private PackageDurations() {
+    }
+
+    /**
+     * Load the package durations of the given result directory.
+     *
+     * @param resultDir the result directory
+     * @return a {@link Map} of package id to elapsed time in ms. Empty if none were recorded.
+     */
+    static Map<String, Long> load(File resultDir) {
+        Map<String, Long> durations = new HashMap<String, Long>();
+        Properties props = new Properties();
+        if (AtomicFileUtil.loadProperties(new File(resultDir, FILE_NAME), props)) {
+            for (String id : props.stringPropertyNames()) {
+                try {
+                    durations.put(id, Long.parseLong(props.getProperty(id)));
+                } catch (NumberFormatException e) {
+                    CLog.w("Ignoring invalid duration for %s in %s", id, resultDir.getName());
+                }
+            }
+        }
+        return durations;
+    }
+
+    /**
+     * Load the most recent duration of each package from the latest sessions in the given parent
+     * directory of results.
+     * <p/>
+     * Only the package durations files are read, so this is cheap enough to call when sharding.
+     *
+     * @param testResultsDir the parent directory of results
+     * @return a {@link Map} of package id to elapsed time in ms
+     */
+    public static Map<String, Long> loadRecent(File testResultsDir) {
+        File[] resultArray = testResultsDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return new File(file, FILE_NAME).isFile();
+            }
+        });
+        List<File> resultDirs = new ArrayList<File>();
+        if (resultArray != null) {
+            Collections.addAll(resultDirs, resultArray);
+            Collections.sort(resultDirs);
+        }
+        return loadRecent(resultDirs);
+    }
+
+    /**
+     * Load the most recent duration of each package from the given result directories.
+     *
+     * @param resultDirs the result directories, from oldest to newest session
+     * @return a {@link Map} of package id to elapsed time in ms
+     */
+    static Map<String, Long> loadRecent(List<File> resultDirs) {
+        Map<String, Long> durations = new HashMap<String, Long>();
+        int oldestSession = Math.max(0, resultDirs.size() - MAX_DURATION_SESSIONS);
+        for (int i = resultDirs.size() - 1; i >= oldestSession; i--) {
+            for (Map.Entry<String, Long> entry : load(resultDirs.get(i)).entrySet()) {
+                if (!durations.containsKey(entry.getKey())) {
+                    durations.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return durations;
+    }
+
+    /**
+     * Store the package durations in the given result directory.
+     *
+     * @param resultDir the result directory
+     * @param durations a {@link Map} of package id to elapsed time in ms
+     */
+    static void store(File resultDir, Map<String, Long> durations) {
+        Properties props = new Properties();
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            props.setProperty(entry.getKey(), Long.toString(entry.getValue()));
+        }
+        AtomicFileUtil.storeProperties(new File(resultDir, FILE_NAME), props);
+    }
+}
@@ -20,6 +20,7 @@ import com.android.cts.tradefed.testtype.CtsTest;
 import com.android.cts.tradefed.testtype.ITestPackageDef;
 import com.android.cts.tradefed.testtype.ITestPackageRepo;
 import com.android.cts.tradefed.testtype.ITestPlan;
+import com.android.cts.tradefed.testtype.TestFilter;
 import com.android.cts.tradefed.testtype.TestPackageRepo;
 import com.android.cts.tradefed.testtype.TestPlan;
 import com.android.cts.util.AbiUtils;
@@ -36,8 +37,12 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -62,7 +67,7 @@ public class PlanCreator {
     private boolean mIncludeKnownFailures = false;
 
     private CtsTestStatus mResultFilter = null;
-    private TestResults mResult = null;
+    private File mResultFile = null;
 
     private File mPlanFile;
 
@@ -119,23 +124,97 @@ public class PlanCreator {
         ITestPackageRepo pkgDefRepo =
                 new TestPackageRepo(build.getTestCasesDir(), mIncludeKnownFailures);
         ITestPlan derivedPlan = new TestPlan(mPlanName, abis);
-        for (TestPackageResult pkg : mResult.getPackages()) {
-            Collection<TestIdentifier> filteredTests = pkg.getTestsWithStatus(mResultFilter);
-            String pkgId = pkg.getId();
-            ITestPackageDef pkgDef = pkgDefRepo.getTestPackage(pkgId);
-            if (pkgDef != null) {
-                Collection<TestIdentifier> excludedTests =
-                        new LinkedHashSet<TestIdentifier>(pkgDef.getTests());
-                excludedTests.removeAll(filteredTests);
-                derivedPlan.addPackage(pkgId);
-                derivedPlan.addExcludedTests(pkgId, excludedTests);
-            } else {
-                CLog.e("Could not find package %s in repository", pkgId);
+        // read the result one package at a time, rather than loading the whole session
+        ResultPackageReader reader = null;
+        try {
+            reader = new ResultPackageReader(mResultFile);
+            boolean hasPackage = reader.getPackage() != null;
+            while (hasPackage) {
+                TestPackageResult pkg = reader.getPackage();
+                String pkgId = pkg.getId();
+                ITestPackageDef pkgDef = pkgDefRepo.getTestPackage(pkgId);
+                if (pkgDef != null) {
+                    derivedPlan.addPackage(pkgId);
+                    addTestFilter(derivedPlan.getTestFilter(pkgId), pkgDef.getTests(),
+                            new HashSet<TestIdentifier>(pkg.getTestsWithStatus(mResultFilter)));
+                } else {
+                    CLog.e("Could not find package %s in repository", pkgId);
+                }
+                hasPackage = reader.nextPackage();
+            }
+        } catch (IOException e) {
+            CLog.e(e);
+            throw new ConfigurationException(String.format("Could not read session with id %d",
+                    mSessionId));
+        } finally {
+            if (reader != null) {
+                reader.close();
             }
         }
         return derivedPlan;
     }
 
+    /**
+     * Set up a filter that only lets the given tests of a package through.
+     * <p/>
+     * Whichever of the included and excluded tests is smaller is added to the filter, and classes
+     * whose tests are all included or all excluded are added as a class, to keep both the plan
+     * file and the filtering small.
+     *
+     * @param filter the {@link TestFilter} of the package
+     * @param pkgTests all tests of the package
+     * @param filteredTests the tests to let through
+     */
+    static void addTestFilter(TestFilter filter, Collection<TestIdentifier> pkgTests,
+            Set<TestIdentifier> filteredTests) {
+        // the included and excluded tests of each class, in package order
+        Map<String, List<TestIdentifier>> includedTests =
+                new LinkedHashMap<String, List<TestIdentifier>>();
+        Map<String, List<TestIdentifier>> excludedTests =
+                new LinkedHashMap<String, List<TestIdentifier>>();
+        int numIncluded = 0;
+        for (TestIdentifier test : pkgTests) {
+            if (filteredTests.contains(test)) {
+                addTest(includedTests, test);
+                numIncluded++;
+            } else {
+                addTest(excludedTests, test);
+            }
+        }
+        // an empty inclusion would let every test through
+        if (numIncluded > 0 && numIncluded < pkgTests.size() - numIncluded) {
+            for (Map.Entry<String, List<TestIdentifier>> entry : includedTests.entrySet()) {
+                if (excludedTests.containsKey(entry.getKey())) {
+                    for (TestIdentifier test : entry.getValue()) {
+                        filter.addIncludedTest(test);
+                    }
+                } else {
+                    filter.addIncludedClass(entry.getKey());
+                }
+            }
+        } else {
+            for (Map.Entry<String, List<TestIdentifier>> entry : excludedTests.entrySet()) {
+                if (includedTests.containsKey(entry.getKey())) {
+                    for (TestIdentifier test : entry.getValue()) {
+                        filter.addExcludedTest(test);
+                    }
+                } else {
+                    filter.addExcludedClass(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private static void addTest(Map<String, List<TestIdentifier>> classTests,
+            TestIdentifier test) {
+        List<TestIdentifier> tests = classTests.get(test.getClassName());
+        if (tests == null) {
+            tests = new ArrayList<TestIdentifier>();
+            classTests.put(test.getClassName(), tests);
+        }
+        tests.add(test);
+    }
+
     /**
      * Check that all {@Option}s have been populated with valid values.
      * @param build
@@ -146,11 +225,12 @@ public class PlanCreator {
             throw new ConfigurationException("Missing --session argument");
         }
         ITestResultRepo repo = new TestResultRepo(build.getResultsDir());
-        mResult = repo.getResult(mSessionId);
-        if (mResult == null) {
+        if (mSessionId < 0 || mSessionId >= repo.getSummaries().size()) {
             throw new ConfigurationException(String.format("Could not find session with id %d",
                     mSessionId));
         }
+        mResultFile = new File(repo.getReportDir(mSessionId),
+                CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
         if (mResultFilterString == null) {
             throw new ConfigurationException("Missing --result argument");
         }
@@ -0,0 +1,645 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compresses the logs and results of a session on a pool of background threads.
+ * <p/>
+ * Logs are compressed as they are saved. Result files are split into chunks that are compressed
+ * in parallel, each primed with the end of the previous chunk and flushed to a byte boundary, so
+ * the chunks concatenate into a single deflate stream. Files written through
+ * {@link #compressWhileWriting} are compressed as they are written, so the zip of the result
+ * directory can be assembled from the compressed chunks without compressing them again.
+ */
+class ResultArchiver {
+
+    /** the size of the chunks files are compressed in */
+    static final int CHUNK_SIZE = 128 * 1024;
+    /** the size of the deflate window, which is primed from the previous chunk */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    /** the number of chunks per thread that may be waiting to be compressed */
+    private static final int PENDING_CHUNKS_PER_THREAD = 4;
+    /**
+     * the amount of data per thread that {@link #createZip} compresses ahead of the zip writer,
+     * which bounds the compressed chunks held in memory while files compress in parallel
+     */
+    private static final long ZIP_LOOKAHEAD_PER_THREAD = 16L * CHUNK_SIZE;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP_VERSION = 20;
+    /** general purpose flag for names encoded in UTF-8 */
+    private static final int UTF8_FLAG = 0x800;
+    private static final long MAX_ZIP_SIZE = 0xffffffffL;
+    private static final int MAX_ZIP_ENTRIES = 0xffff;
+
+    private final ExecutorService mExecutor;
+    /** limits the memory held by chunks waiting to be compressed */
+    private final Semaphore mPendingChunks;
+    private final long mZipLookahead;
+    /** the compressed contents of files, by absolute path */
+    private final Map<String, CompressedData> mCompressedFiles =
+            new HashMap<String, CompressedData>();
+    private final List<Future<?>> mLogTasks = new ArrayList<Future<?>>();
+
+    /**
+     * Create a {@link ResultArchiver} using a thread for each processor.
+     */
+    ResultArchiver() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param numThreads the number of threads to compress on
+     */
+    ResultArchiver(int numThreads) {
+        mExecutor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ResultArchiver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mPendingChunks = new Semaphore(numThreads * PENDING_CHUNKS_PER_THREAD);
+        mZipLookahead = numThreads * ZIP_LOOKAHEAD_PER_THREAD;
+    }
+
+    /**
+     * Compress a log into a zip next to it in the background, and delete the log once done.
+     *
+     * @param logFile the log to compress
+     * @param entryName the name of the log within the zip
+     * @return the zip the log will be compressed into
+     */
+    File compressLog(final File logFile, final String entryName) {
+        String name = logFile.getName();
+        int extIndex = name.lastIndexOf('.');
+        if (extIndex > 0) {
+            name = name.substring(0, extIndex);
+        }
+        final File zipFile = new File(logFile.getParentFile(), String.format("%s.zip", name));
+        Future<?> task = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    zipLog(logFile, entryName, zipFile);
+                    FileUtil.deleteFile(logFile);
+                } catch (IOException e) {
+                    CLog.e("Failed to compress log %s", logFile.getName());
+                    CLog.e(e);
+                    FileUtil.deleteFile(zipFile);
+                }
+            }
+        });
+        synchronized (mLogTasks) {
+            mLogTasks.add(task);
+        }
+        return zipFile;
+    }
+
+    private static void zipLog(File logFile, String entryName, File zipFile) throws IOException {
+        InputStream in = null;
+        ZipOutputStream out = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(logFile));
+            out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
+            out.putNextEntry(new ZipEntry(entryName));
+            StreamUtil.copyStreams(in, out);
+            out.closeEntry();
+        } finally {
+            StreamUtil.close(in);
+            StreamUtil.close(out);
+        }
+    }
+
+    /**
+     * Wrap the stream a result file is written to, so the file is compressed as it is written.
+     * <p/>
+     * Once the returned stream is closed, {@link #createZip} uses the compressed data for the file
+     * as long as the file has not been modified since.
+     *
+     * @param out the stream writing to <var>file</var>
+     * @param file the file being written
+     * @return the stream to write to instead of <var>out</var>
+     */
+    OutputStream compressWhileWriting(final OutputStream out, final File file) {
+        final ChunkedDeflaterStream deflaterStream = new ChunkedDeflaterStream();
+        return new OutputStream() {
+            private boolean mClosed = false;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                deflaterStream.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                deflaterStream.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (mClosed) {
+                    return;
+                }
+                mClosed = true;
+                out.close();
+                CompressedData data = deflaterStream.finish();
+                data.mLastModified = file.lastModified();
+                synchronized (mCompressedFiles) {
+                    mCompressedFiles.put(file.getAbsolutePath(), data);
+                }
+            }
+        };
+    }
+
+    /**
+     * Zip a directory, in the same layout as {@link FileUtil#createZip(File, File)}.
+     *
+     * @param dir the directory to zip
+     * @param zipFile the zip to create
+     * @param excludedNames the names of files directly in <var>dir</var> to leave out
+     * @throws IOException if the zip could not be created
+     */
+    void createZip(File dir, File zipFile, Collection<String> excludedNames) throws IOException {
+        List<File> files = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+        listDir(dir, excludedNames, files, names);
+        if (files.size() > MAX_ZIP_ENTRIES) {
+            throw new IOException(String.format("%s has too many files to zip", dir.getName()));
+        }
+        CompressedData[] contents = new CompressedData[files.size()];
+        int nextFile = 0;
+        long pendingSize = 0;
+        ZipWriter writer = null;
+        try {
+            writer = new ZipWriter(zipFile);
+            for (int i = 0; i < files.size(); i++) {
+                // start compressing the next few files before writing, so they compress in
+                // parallel without holding the compressed data of the whole directory
+                while (nextFile < files.size() && (nextFile == i || pendingSize < mZipLookahead)) {
+                    File file = files.get(nextFile);
+                    if (file.isFile()) {
+                        contents[nextFile] = getCompressedData(file);
+                        pendingSize += contents[nextFile].mSize;
+                    }
+                    nextFile++;
+                }
+                writer.writeEntry(names.get(i), files.get(i).lastModified(), contents[i]);
+                if (contents[i] != null) {
+                    pendingSize -= contents[i].mSize;
+                    contents[i] = null;
+                }
+            }
+            writer.finish();
+        } finally {
+            StreamUtil.close(writer);
+        }
+    }
+
+    /**
+     * Zip a directory on the calling thread, without the data compressed in the background.
+     * <p/>
+     * Used when {@link #createZip} fails.
+     *
+     * @param dir the directory to zip
+     * @param zipFile the zip to create
+     * @param excludedNames the names of files directly in <var>dir</var> to leave out
+     * @throws IOException if the zip could not be created
+     */
+    static void createSequentialZip(File dir, File zipFile, Collection<String> excludedNames)
+            throws IOException {
+        List<File> files = new ArrayList<File>();
+        List<String> names = new ArrayList<String>();
+        listDir(dir, excludedNames, files, names);
+        ZipOutputStream out = null;
+        try {
+            out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
+            for (int i = 0; i < files.size(); i++) {
+                out.putNextEntry(new ZipEntry(names.get(i)));
+                if (files.get(i).isFile()) {
+                    InputStream in = null;
+                    try {
+                        in = new BufferedInputStream(new FileInputStream(files.get(i)));
+                        StreamUtil.copyStreams(in, out);
+                    } finally {
+                        StreamUtil.close(in);
+                    }
+                }
+                out.closeEntry();
+            }
+        } finally {
+            StreamUtil.close(out);
+        }
+    }
+
+    /**
+     * List a directory and its contents like {@link #listFiles}, leaving out the given files or
+     * directories directly in the directory.
+     */
+    private static void listDir(File dir, Collection<String> excludedNames, List<File> files,
+            List<String> names) {
+        listFiles(dir, "", files, names);
+        String dirPath = dir.getName() + "/";
+        for (int i = files.size() - 1; i >= 0; i--) {
+            String name = names.get(i);
+            if (name.length() == dirPath.length()) {
+                continue;
+            }
+            int end = name.indexOf('/', dirPath.length());
+            String topName = name.substring(dirPath.length(), end == -1 ? name.length() : end);
+            if (excludedNames.contains(topName)) {
+                files.remove(i);
+                names.remove(i);
+            }
+        }
+    }
+
+    /**
+     * List a directory and its contents, in the order {@link FileUtil#createZip(File, File)}
+     * adds them.
+     */
+    private static void listFiles(File file, String parentPath, List<File> files,
+            List<String> names) {
+        files.add(file);
+        if (!file.isDirectory()) {
+            names.add(parentPath + file.getName());
+            return;
+        }
+        String path = String.format("%s%s/", parentPath, file.getName());
+        names.add(path);
+        File[] subFiles = file.listFiles();
+        if (subFiles != null) {
+            for (File subFile : subFiles) {
+                listFiles(subFile, path, files, names);
+            }
+        }
+    }
+
+    /**
+     * @return the compressed contents of the given file, compressing it now if needed
+     */
+    private CompressedData getCompressedData(File file) throws IOException {
+        CompressedData data;
+        synchronized (mCompressedFiles) {
+            data = mCompressedFiles.remove(file.getAbsolutePath());
+        }
+        if (data != null && data.mSize == file.length()
+                && data.mLastModified == file.lastModified()) {
+            return data;
+        }
+        ChunkedDeflaterStream deflaterStream = new ChunkedDeflaterStream();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                deflaterStream.write(buffer, 0, length);
+            }
+        } finally {
+            StreamUtil.close(in);
+        }
+        return deflaterStream.finish();
+    }
+
+    /**
+     * Wait for all logs to be compressed, and stop the compression threads.
+     */
+    void close() {
+        List<Future<?>> logTasks;
+        synchronized (mLogTasks) {
+            logTasks = new ArrayList<Future<?>>(mLogTasks);
+            mLogTasks.clear();
+        }
+        try {
+            for (Future<?> task : logTasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            CLog.w("Interrupted while compressing logs");
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            CLog.e(e);
+        }
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Compress a chunk of data as part of a raw deflate stream.
+     *
+     * @param data the data to compress
+     * @param dictionary the data preceding the chunk, or <code>null</code> for the first chunk
+     * @param last <code>true</code> if this is the last chunk of the stream
+     * @return the compressed data, ending on a byte boundary
+     */
+    static byte[] deflateChunk(byte[] data, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data);
+            if (last) {
+                deflater.finish();
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            while (true) {
+                int length = deflater.deflate(buffer, 0, buffer.length,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                out.write(buffer, 0, length);
+                // a sync flush is complete once it no longer fills the buffer
+                if (last ? deflater.finished() : length < buffer.length) {
+                    return out.toByteArray();
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * The compressed contents of a file.
+     */
+    private static class CompressedData {
+        private final List<Future<byte[]>> mChunks;
+        private final long mSize;
+        private final long mCrc;
+        private long mLastModified = 0;
+
+        CompressedData(List<Future<byte[]>> chunks, long size, long crc) {
+            mChunks = chunks;
+            mSize = size;
+            mCrc = crc;
+        }
+    }
+
+    /**
+     * Splits the data written to it into chunks, and compresses them on the pool.
+     */
+    private class ChunkedDeflaterStream {
+        private final List<Future<byte[]>> mChunks = new ArrayList<Future<byte[]>>();
+        private final CRC32 mCrc = new CRC32();
+        private long mSize = 0;
+        private byte[] mChunk = new byte[CHUNK_SIZE];
+        private int mChunkLength = 0;
+        private byte[] mDictionary = null;
+
+        void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        void write(byte[] b, int off, int len) throws IOException {
+            mCrc.update(b, off, len);
+            mSize += len;
+            while (len > 0) {
+                int length = Math.min(len, CHUNK_SIZE - mChunkLength);
+                System.arraycopy(b, off, mChunk, mChunkLength, length);
+                mChunkLength += length;
+                off += length;
+                len -= length;
+                if (mChunkLength == CHUNK_SIZE) {
+                    submitChunk(false);
+                }
+            }
+        }
+
+        /**
+         * Compress the remaining data.
+         *
+         * @return the {@link CompressedData} of everything written
+         */
+        CompressedData finish() throws IOException {
+            submitChunk(true);
+            return new CompressedData(mChunks, mSize, mCrc.getValue());
+        }
+
+        private void submitChunk(final boolean last) throws IOException {
+            final byte[] chunk = mChunkLength == CHUNK_SIZE ? mChunk :
+                    Arrays.copyOf(mChunk, mChunkLength);
+            final byte[] dictionary = mDictionary;
+            if (!last) {
+                mDictionary = Arrays.copyOfRange(chunk, chunk.length - DICTIONARY_SIZE,
+                        chunk.length);
+                mChunk = new byte[CHUNK_SIZE];
+                mChunkLength = 0;
+            }
+            try {
+                mPendingChunks.acquire();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while compressing");
+            }
+            mChunks.add(mExecutor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    try {
+                        return deflateChunk(chunk, dictionary, last);
+                    } finally {
+                        mPendingChunks.release();
+                    }
+                }
+            }));
+        }
+    }
+
+    /**
+     * Writes a zip from {@link CompressedData}, which {@link ZipOutputStream} cannot do.
+     */
+    private static class ZipWriter implements java.io.Closeable {
+        private final OutputStream mOut;
+        private final ByteArrayOutputStream mCentralDirectory = new ByteArrayOutputStream();
+        private long mOffset = 0;
+        private int mNumEntries = 0;
+
+        ZipWriter(File zipFile) throws IOException {
+            mOut = new BufferedOutputStream(new FileOutputStream(zipFile));
+        }
+
+        /**
+         * Write an entry.
+         *
+         * @param name the name of the entry, ending in '/' for a directory
+         * @param time the modification time of the entry
+         * @param data the compressed contents, or <code>null</code> for a directory
+         */
+        void writeEntry(String name, long time, CompressedData data) throws IOException {
+            List<byte[]> chunks = new ArrayList<byte[]>();
+            long compressedSize = 0;
+            if (data != null) {
+                for (Future<byte[]> chunk : data.mChunks) {
+                    chunks.add(getChunk(chunk));
+                    compressedSize += chunks.get(chunks.size() - 1).length;
+                }
+                if (data.mSize > MAX_ZIP_SIZE || compressedSize > MAX_ZIP_SIZE) {
+                    throw new IOException(String.format("%s is too large to zip", name));
+                }
+            }
+            if (mOffset > MAX_ZIP_SIZE) {
+                throw new IOException("Zip is too large");
+            }
+            byte[] nameBytes = name.getBytes("UTF-8");
+            int method = data == null ? ZipEntry.STORED : ZipEntry.DEFLATED;
+            int dosTime = toDosTime(time);
+            long crc = data == null ? 0 : data.mCrc;
+            long size = data == null ? 0 : data.mSize;
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream(30 + nameBytes.length);
+            writeInt(header, LOCAL_HEADER_SIGNATURE);
+            writeShort(header, ZIP_VERSION);
+            writeShort(header, UTF8_FLAG);
+            writeShort(header, method);
+            writeInt(header, dosTime);
+            writeInt(header, crc);
+            writeInt(header, compressedSize);
+            writeInt(header, size);
+            writeShort(header, nameBytes.length);
+            writeShort(header, 0);
+            header.write(nameBytes);
+
+            writeInt(mCentralDirectory, CENTRAL_HEADER_SIGNATURE);
+            writeShort(mCentralDirectory, ZIP_VERSION);
+            writeShort(mCentralDirectory, ZIP_VERSION);
+            writeShort(mCentralDirectory, UTF8_FLAG);
+            writeShort(mCentralDirectory, method);
+            writeInt(mCentralDirectory, dosTime);
+            writeInt(mCentralDirectory, crc);
+            writeInt(mCentralDirectory, compressedSize);
+            writeInt(mCentralDirectory, size);
+            writeShort(mCentralDirectory, nameBytes.length);
+            // extra field, comment, disk number, internal and external attributes
+            writeShort(mCentralDirectory, 0);
+            writeShort(mCentralDirectory, 0);
+            writeShort(mCentralDirectory, 0);
+            writeShort(mCentralDirectory, 0);
+            writeInt(mCentralDirectory, 0);
+            writeInt(mCentralDirectory, mOffset);
+            mCentralDirectory.write(nameBytes);
+
+            header.writeTo(mOut);
+            mOffset += header.size();
+            for (byte[] chunk : chunks) {
+                mOut.write(chunk);
+            }
+            mOffset += compressedSize;
+            mNumEntries++;
+        }
+
+        /**
+         * Write the central directory.
+         */
+        void finish() throws IOException {
+            if (mOffset > MAX_ZIP_SIZE) {
+                throw new IOException("Zip is too large");
+            }
+            mCentralDirectory.writeTo(mOut);
+            ByteArrayOutputStream end = new ByteArrayOutputStream(22);
+            writeInt(end, END_SIGNATURE);
+            writeShort(end, 0);
+            writeShort(end, 0);
+            writeShort(end, mNumEntries);
+            writeShort(end, mNumEntries);
+            writeInt(end, mCentralDirectory.size());
+            writeInt(end, mOffset);
+            writeShort(end, 0);
+            end.writeTo(mOut);
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+
+        private static byte[] getChunk(Future<byte[]> chunk) throws IOException {
+            try {
+                return chunk.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while compressing");
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to compress", e.getCause());
+            }
+        }
+
+        private static int toDosTime(long time) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(time);
+            int year = calendar.get(Calendar.YEAR);
+            if (year < 1980) {
+                // the earliest time a zip can hold
+                return (1 << 21) | (1 << 16);
+            }
+            return (year - 1980) << 25
+                    | (calendar.get(Calendar.MONTH) + 1) << 21
+                    | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                    | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                    | calendar.get(Calendar.MINUTE) << 5
+                    | calendar.get(Calendar.SECOND) >> 1;
+        }
+
+        private static void writeShort(ByteArrayOutputStream out, int value) {
+            out.write(value & 0xff);
+            out.write((value >>> 8) & 0xff);
+        }
+
+        private static void writeInt(ByteArrayOutputStream out, long value) {
+            writeShort(out, (int) (value & 0xffff));
+            writeShort(out, (int) ((value >>> 16) & 0xffff));
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
+
+import org.kxml2.io.KXmlSerializer;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * An on-disk journal of completed {@link TestPackageResult}s.
+ * <p/>
+ * Each package is serialized to its own XML fragment as soon as it completes, so the full result
+ * tree never has to be held in memory. The final result XML is stitched together by copying the
+ * fragments verbatim, in the same order as {@link TestResults#serialize(KXmlSerializer)}.
+ * <p/>
+ * A journal is locked while in use. A journal left behind by a crashed invocation can be turned
+ * into a partial result with {@link #recover(File)}.
+ */
+class ResultJournal {
+
+    static final String JOURNAL_DIR_NAME = "journal";
+
+    private static final String FRAGMENT_EXT = ".xml";
+    private static final String TMP_EXT = ".tmp";
+    private static final String LOCK_FILE_NAME = "lock";
+    private static final String SESSION_FILE_NAME = "session.properties";
+    private static final String PLAN_PROP = "plan";
+    private static final String STARTTIME_PROP = "starttime";
+    private static final String SUITE_PROP = "suite";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final File mDir;
+    /** test counts by status ordinal for each journaled package, sorted by package id */
+    private final Map<String, int[]> mCounts = new TreeMap<String, int[]>();
+    private RandomAccessFile mLockFile = null;
+    private FileLock mLock = null;
+
+    /**
+     * Create a {@link ResultJournal} stored in the given result directory.
+     *
+     * @param reportDir the result directory
+     */
+    ResultJournal(File reportDir) {
+        mDir = new File(reportDir, JOURNAL_DIR_NAME);
+    }
+
+    /**
+     * Create the journal directory and lock it, picking up any packages already journaled there.
+     *
+     * @return <code>true</code> if the journal was opened, <code>false</code> if it is in use
+     * @throws IOException if the journal could not be created
+     */
+    boolean open() throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException(String.format("Failed to create journal dir %s",
+                    mDir.getAbsolutePath()));
+        }
+        mLockFile = new RandomAccessFile(new File(mDir, LOCK_FILE_NAME), "rw");
+        FileChannel channel = mLockFile.getChannel();
+        try {
+            mLock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // already locked by this process
+            mLock = null;
+        }
+        if (mLock == null) {
+            StreamUtil.close(mLockFile);
+            mLockFile = null;
+            return false;
+        }
+        loadCounts();
+        return true;
+    }
+
+    /**
+     * Release the journal lock.
+     */
+    void close() {
+        if (mLock != null) {
+            try {
+                mLock.release();
+            } catch (IOException e) {
+                CLog.w("Failed to release journal lock in %s", mDir.getAbsolutePath());
+            }
+            mLock = null;
+        }
+        StreamUtil.close(mLockFile);
+        mLockFile = null;
+    }
+
+    /**
+     * Close and delete the journal.
+     */
+    void delete() {
+        close();
+        FileUtil.recursiveDelete(mDir);
+    }
+
+    /**
+     * Record the session attributes needed to recover a result from this journal.
+     */
+    void writeSessionInfo(String plan, String startTime, String suite) throws IOException {
+        Properties props = new Properties();
+        props.setProperty(PLAN_PROP, plan);
+        props.setProperty(STARTTIME_PROP, startTime);
+        props.setProperty(SUITE_PROP, suite);
+        OutputStream stream = null;
+        try {
+            stream = new FileOutputStream(new File(mDir, SESSION_FILE_NAME));
+            props.store(stream, null);
+        } finally {
+            StreamUtil.close(stream);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if a package with the given id is in this journal
+     */
+    boolean contains(String id) {
+        return mCounts.containsKey(id);
+    }
+
+    /**
+     * Write the given package to the journal, replacing any previous copy.
+     * <p/>
+     * The fragment is written to a temporary file first and renamed over any previous copy, so a
+     * crash never leaves a partially written or missing package behind.
+     */
+    void write(TestPackageResult pkg) throws IOException {
+        File fragment = getFragmentFile(pkg.getId());
+        File tmpFragment = File.createTempFile(fragment.getName(), TMP_EXT, mDir);
+        OutputStream stream = null;
+        try {
+            stream = new BufferedOutputStream(new FileOutputStream(tmpFragment));
+            KXmlSerializer serializer = new KXmlSerializer();
+            serializer.setOutput(stream, "UTF-8");
+            serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+            pkg.serialize(serializer);
+            serializer.flush();
+        } finally {
+            StreamUtil.close(stream);
+        }
+        try {
+            // rename over the old fragment, so a completed package is never missing on disk
+            Files.move(tmpFragment.toPath(), fragment.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            tmpFragment.delete();
+            throw new IOException(String.format("Failed to write journal entry %s",
+                    fragment.getAbsolutePath()), e);
+        }
+        mCounts.put(pkg.getId(), countTests(pkg));
+    }
+
+    /**
+     * Read the package with given id back from the journal, and remove it from the journal.
+     *
+     * @return the {@link TestPackageResult} or <code>null</code> if not found
+     * @throws IOException if the entry could not be read. The entry is left in the journal.
+     */
+    TestPackageResult remove(String id) throws IOException {
+        if (!mCounts.containsKey(id)) {
+            return null;
+        }
+        File fragment = getFragmentFile(id);
+        TestPackageResult pkg = readFragment(fragment);
+        if (pkg == null) {
+            // keep the entry, so the package's results are not silently replaced
+            throw new IOException(String.format("Failed to read journal entry %s",
+                    fragment.getAbsolutePath()));
+        }
+        mCounts.remove(id);
+        if (!fragment.delete()) {
+            CLog.w("Failed to delete journal entry %s", fragment.getAbsolutePath());
+        }
+        return pkg;
+    }
+
+    /**
+     * Count the number of journaled tests with given status.
+     */
+    int countTests(CtsTestStatus status) {
+        int total = 0;
+        for (int[] counts : mCounts.values()) {
+            total += counts[status.ordinal()];
+        }
+        return total;
+    }
+
+    /**
+     * Copy all journaled packages, sorted by package id, to the given stream.
+     */
+    void copyPackages(OutputStream stream) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        for (String id : mCounts.keySet()) {
+            InputStream input = null;
+            try {
+                input = new FileInputStream(getFragmentFile(id));
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    stream.write(buffer, 0, read);
+                }
+            } finally {
+                StreamUtil.close(input);
+            }
+        }
+        stream.flush();
+    }
+
+    /**
+     * Rebuild the test counts from the fragments on disk, one package at a time.
+     */
+    private void loadCounts() throws IOException {
+        mCounts.clear();
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(FRAGMENT_EXT)) {
+                continue;
+            }
+            TestPackageResult pkg = readFragment(file);
+            if (pkg != null && pkg.getId() != null) {
+                mCounts.put(pkg.getId(), countTests(pkg));
+            }
+        }
+    }
+
+    private TestPackageResult readFragment(File fragment) throws IOException {
+        InputStream stream = null;
+        try {
+            stream = new BufferedInputStream(new FileInputStream(fragment));
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(new BufferedReader(new InputStreamReader(stream, "UTF-8")));
+            parser.nextTag();
+            TestPackageResult pkg = new TestPackageResult();
+            pkg.parse(parser);
+            return pkg;
+        } catch (XmlPullParserException e) {
+            CLog.e("Failed to parse journal entry %s", fragment.getAbsolutePath());
+            CLog.e(e);
+            return null;
+        } finally {
+            StreamUtil.close(stream);
+        }
+    }
+
+    private File getFragmentFile(String id) {
+        // package ids are "<abi> <app package name>"
+        return new File(mDir, id.replace(' ', '_') + FRAGMENT_EXT);
+    }
+
+    private static int[] countTests(TestPackageResult pkg) {
+        int[] counts = new int[CtsTestStatus.values().length];
+        for (CtsTestStatus status : CtsTestStatus.values()) {
+            counts[status.ordinal()] = pkg.countTests(status);
+        }
+        return counts;
+    }
+
+    /**
+     * @return <code>true</code> if the given result directory contains a journal
+     */
+    static boolean hasJournal(File reportDir) {
+        return new File(new File(reportDir, JOURNAL_DIR_NAME), SESSION_FILE_NAME).exists();
+    }
+
+    /**
+     * Stitch a result XML from a journal left behind by an invocation that did not complete.
+     * <p/>
+     * If the result directory already has a result XML, the invocation was continuing that
+     * session. The journaled packages are newer than those in the XML, so they replace them.
+     * <p/>
+     * Does nothing if the journal is still in use.
+     *
+     * @param reportDir the result directory containing the journal
+     * @return <code>true</code> if a result file was created
+     */
+    static boolean recover(File reportDir) {
+        ResultJournal journal = new ResultJournal(reportDir);
+        File resultFile = new File(reportDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        File tmpResultFile = null;
+        InputStream propStream = null;
+        OutputStream resultStream = null;
+        try {
+            if (!journal.open()) {
+                return false;
+            }
+            Properties props = new Properties();
+            propStream = new FileInputStream(new File(journal.mDir, SESSION_FILE_NAME));
+            props.load(propStream);
+            TestResults results = new TestResults();
+            if (resultFile.exists()) {
+                results.parse(new BufferedReader(new InputStreamReader(
+                        new FileInputStream(resultFile), "UTF-8")));
+                for (TestPackageResult pkg : new ArrayList<TestPackageResult>(
+                        results.getPackages())) {
+                    if (journal.contains(pkg.getId())) {
+                        results.removePackage(pkg.getId());
+                    }
+                }
+            }
+            results.setJournal(journal);
+            // keep the previous result file until the recovered one is complete
+            tmpResultFile = File.createTempFile(resultFile.getName(), TMP_EXT, reportDir);
+            resultStream = new FileOutputStream(tmpResultFile);
+            String startTime = props.getProperty(STARTTIME_PROP, "unknown");
+            CtsXmlResultReporter.serializeResults(resultStream, results,
+                    props.getProperty(PLAN_PROP, "NA"), startTime, startTime,
+                    props.getProperty(SUITE_PROP, ""));
+            resultStream.close();
+            Files.move(tmpResultFile.toPath(), resultFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            CLog.i("Recovered %d completed packages in %s", journal.mCounts.size(),
+                    reportDir.getName());
+            journal.delete();
+            return true;
+        } catch (IOException e) {
+            CLog.e("Failed to recover result journal in %s", reportDir.getAbsolutePath());
+            CLog.e(e);
+            journal.close();
+            return false;
+        } catch (ParseException e) {
+            CLog.e("Failed to parse result file in %s", reportDir.getAbsolutePath());
+            CLog.e(e);
+            journal.close();
+            return false;
+        } finally {
+            StreamUtil.close(propStream);
+            StreamUtil.close(resultStream);
+            if (tmpResultFile != null) {
+                // don't leave a truncated result behind
+                tmpResultFile.delete();
+            }
+        }
+    }
+}
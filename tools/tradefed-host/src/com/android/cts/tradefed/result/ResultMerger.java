@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.cts.tradefed.build.CtsBuildHelper;
+import com.android.ddmlib.Log;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.config.ConfigurationException;
+import com.android.tradefed.config.Option;
+import com.android.tradefed.config.Option.Importance;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Class for merging several CTS result XMLs into one, for example the results of a plan that was
+ * split across hosts.
+ * <p/>
+ * The results are merged one package at a time, so only the current package of each session is
+ * held in memory. Packages are sorted by id in every result XML, so this is a k-way merge.
+ * <p/>
+ * If a test has results in several sessions, a pass beats a failure, which beats a not executed
+ * test. Between results with the same status, the result from the later session wins.
+ */
+public class ResultMerger {
+
+    @Option (name = "session", shortName = 's', description = "the session ids to merge, " +
+            "from oldest to newest. May be repeated.", importance=Importance.IF_UNSET)
+    private Collection<Integer> mSessionIds = new ArrayList<Integer>();
+
+    /**
+     * Create an empty {@link ResultMerger}.
+     * <p/>
+     * All {@link Option} fields must be populated via
+     * {@link com.android.tradefed.config.ArgsOptionParser}
+     */
+    public ResultMerger() {
+    }
+
+    /**
+     * Merge the sessions given by the {@link Option} values into a new session.
+     *
+     * @param build
+     * @return the result directory of the merged session
+     * @throws ConfigurationException if any option has an invalid value
+     */
+    public File createMergedResult(CtsBuildHelper build) throws ConfigurationException {
+        if (mSessionIds.size() < 2) {
+            throw new ConfigurationException("At least two --session arguments are required");
+        }
+        ITestResultRepo repo = new TestResultRepo(build.getResultsDir());
+        int numSessions = repo.getSummaries().size();
+        List<File> resultFiles = new ArrayList<File>(mSessionIds.size());
+        for (Integer sessionId : mSessionIds) {
+            if (sessionId < 0 || sessionId >= numSessions) {
+                throw new ConfigurationException(String.format(
+                        "Could not find session with id %d", sessionId));
+            }
+            resultFiles.add(new File(repo.getReportDir(sessionId),
+                    CtsXmlResultReporter.TEST_RESULT_FILE_NAME));
+        }
+        File reportDir = CtsXmlResultReporter.createUniqueReportDir(build.getResultsDir());
+        try {
+            merge(resultFiles, reportDir);
+        } catch (IOException e) {
+            Log.logAndDisplay(LogLevel.ERROR, "", String.format("Failed to merge sessions: %s",
+                    e.getMessage()));
+            CLog.e(e);
+            FileUtil.recursiveDelete(reportDir);
+            return null;
+        }
+        Log.logAndDisplay(LogLevel.INFO, "", String.format("Merged %d sessions into %s",
+                resultFiles.size(), reportDir.getName()));
+        return reportDir;
+    }
+
+    /**
+     * Merge the given result XMLs into a result XML in the given directory, and add the formatting
+     * files and zip of a regular session.
+     *
+     * @param resultFiles the result XMLs to merge, from oldest to newest session
+     * @param reportDir the directory to create the merged result XML in
+     * @throws IOException if the results could not be read or written
+     */
+    static void merge(List<File> resultFiles, File reportDir) throws IOException {
+        // packages are written to a journal first, since the summary counts precede them
+        ResultJournal journal = new ResultJournal(reportDir);
+        if (!journal.open()) {
+            throw new IOException(String.format("Result journal in %s is in use",
+                    reportDir.getAbsolutePath()));
+        }
+        List<SessionReader> readers = new ArrayList<SessionReader>(resultFiles.size());
+        OutputStream stream = null;
+        try {
+            TestResults results = new TestResults();
+            PriorityQueue<SessionReader> queue = new PriorityQueue<SessionReader>(
+                    resultFiles.size(), new ReaderComparator());
+            for (int i = 0; i < resultFiles.size(); i++) {
+                SessionReader reader = new SessionReader(resultFiles.get(i), i);
+                readers.add(reader);
+                results.getDeviceInfo().populateMetrics(reader.getDeviceInfo().getMetrics());
+                if (reader.getPackage() != null) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                // the readers of all sessions containing the next package, in session order
+                List<SessionReader> current = new ArrayList<SessionReader>();
+                current.add(queue.poll());
+                String id = current.get(0).getPackage().getId();
+                while (!queue.isEmpty() && queue.peek().getPackage().getId().equals(id)) {
+                    current.add(queue.poll());
+                }
+                TestPackageResult merged = current.get(0).getPackage();
+                for (int i = 1; i < current.size(); i++) {
+                    mergePackage(merged, current.get(i).getPackage());
+                }
+                journal.write(merged);
+                for (SessionReader reader : current) {
+                    if (reader.nextPackage()) {
+                        queue.add(reader);
+                    }
+                }
+            }
+
+            results.setJournal(journal);
+            SessionReader first = readers.get(0);
+            SessionReader last = readers.get(readers.size() - 1);
+            stream = new BufferedOutputStream(new FileOutputStream(new File(reportDir,
+                    CtsXmlResultReporter.TEST_RESULT_FILE_NAME)));
+            CtsXmlResultReporter.serializeResults(stream, results, first.getPlan(),
+                    first.getStartTime(), last.getEndTime(), first.getSuite());
+        } finally {
+            StreamUtil.close(stream);
+            for (SessionReader reader : readers) {
+                reader.close();
+            }
+            journal.delete();
+        }
+        // make the merged session viewable and zipped like any other
+        CtsXmlResultReporter.copyFormattingFiles(reportDir);
+        ResultArchiver archiver = new ResultArchiver();
+        try {
+            CtsXmlResultReporter.zipResults(reportDir, archiver);
+        } finally {
+            archiver.close();
+        }
+    }
+
+    /**
+     * Merge the tests of a package from a later session into a package.
+     *
+     * @param merged the package to merge into
+     * @param later the same package from a later session
+     */
+    private static void mergePackage(TestPackageResult merged, TestPackageResult later) {
+        if (merged.getName() == null) {
+            merged.setName(later.getName());
+        }
+        if (merged.getDigest() == null) {
+            merged.setDigest(later.getDigest());
+        }
+        for (Map.Entry<TestIdentifier, Test> entry : later.getTests().entrySet()) {
+            Test existing = merged.findTest(entry.getKey());
+            if (existing == null || getRank(entry.getValue()) >= getRank(existing)) {
+                merged.insertTest(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the precedence of the given test's result when merging
+     */
+    private static int getRank(Test test) {
+        switch (test.getResult()) {
+            case PASS:
+                return 2;
+            case FAIL:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Reads the packages of a session, and checks that they are sorted.
+     */
+    private static class SessionReader extends ResultPackageReader {
+        private final int mSessionIndex;
+
+        /**
+         * @param resultFile the result XML
+         * @param sessionIndex the position of the session in the merge order
+         */
+        SessionReader(File resultFile, int sessionIndex) throws IOException {
+            super(resultFile);
+            mSessionIndex = sessionIndex;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @throws IOException if the package could not be read, or packages are not sorted
+         */
+        @Override
+        boolean nextPackage() throws IOException {
+            String previousId = getPackage().getId();
+            if (!super.nextPackage()) {
+                return false;
+            }
+            if (getPackage().getId().compareTo(previousId) <= 0) {
+                throw new IOException(String.format("Packages in %s are not sorted by id",
+                        getResultFile().getAbsolutePath()));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Orders readers by the id of their current package, and then by session order.
+     */
+    private static class ReaderComparator implements Comparator<SessionReader> {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compare(SessionReader lhs, SessionReader rhs) {
+            int result = lhs.getPackage().getId().compareTo(rhs.getPackage().getId());
+            if (result != 0) {
+                return result;
+            }
+            return lhs.mSessionIndex < rhs.mSessionIndex ? -1 :
+                    (lhs.mSessionIndex == rhs.mSessionIndex ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.util.StreamUtil;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Reads the packages of a result XML one at a time, so only one package is held in memory.
+ */
+class ResultPackageReader {
+    private final File mResultFile;
+    private final BufferedReader mReader;
+    private final XmlPullParser mParser;
+    private final DeviceInfoResult mDeviceInfo = new DeviceInfoResult();
+    private String mPlan = null;
+    private String mStartTime = null;
+    private String mEndTime = null;
+    private String mSuite = null;
+    private TestPackageResult mPackage = null;
+
+    /**
+     * Open the given result XML, and read up to and including its first package.
+     *
+     * @param resultFile the result XML
+     * @throws IOException if the result XML could not be read
+     */
+    ResultPackageReader(File resultFile) throws IOException {
+        mResultFile = resultFile;
+        mReader = new BufferedReader(new InputStreamReader(new BufferedInputStream(
+                new FileInputStream(resultFile)), "UTF-8"));
+        try {
+            mParser = XmlPullParserFactory.newInstance().newPullParser();
+            mParser.setInput(mReader);
+            readHeader();
+        } catch (XmlPullParserException e) {
+            close();
+            throw new IOException(String.format("Failed to parse %s: %s",
+                    resultFile.getAbsolutePath(), e.getMessage()));
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void readHeader() throws XmlPullParserException, IOException {
+        for (int eventType = mParser.getEventType(); eventType != XmlPullParser.END_DOCUMENT;
+                eventType = mParser.next()) {
+            if (eventType != XmlPullParser.START_TAG) {
+                continue;
+            }
+            String name = mParser.getName();
+            if (name.equals(CtsXmlResultReporter.RESULT_TAG)) {
+                mPlan = mParser.getAttributeValue(null, CtsXmlResultReporter.PLAN_ATTR);
+                mStartTime = mParser.getAttributeValue(null, CtsXmlResultReporter.STARTTIME_ATTR);
+                mEndTime = mParser.getAttributeValue(null, CtsXmlResultReporter.ENDTIME_ATTR);
+                mSuite = mParser.getAttributeValue(null, CtsXmlResultReporter.SUITE_ATTR);
+            } else if (name.equals(DeviceInfoResult.TAG)) {
+                mDeviceInfo.parse(mParser);
+            } else if (name.equals(TestPackageResult.TAG)) {
+                readPackage();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Advance to the next package.
+     *
+     * @return <code>true</code> if there is a next package
+     * @throws IOException if the package could not be read
+     */
+    boolean nextPackage() throws IOException {
+        mPackage = null;
+        try {
+            for (int eventType = mParser.next(); eventType != XmlPullParser.END_DOCUMENT;
+                    eventType = mParser.next()) {
+                if (eventType == XmlPullParser.START_TAG
+                        && mParser.getName().equals(TestPackageResult.TAG)) {
+                    readPackage();
+                    return true;
+                }
+            }
+        } catch (XmlPullParserException e) {
+            throw new IOException(String.format("Failed to parse %s: %s",
+                    mResultFile.getAbsolutePath(), e.getMessage()));
+        }
+        return false;
+    }
+
+    private void readPackage() throws XmlPullParserException, IOException {
+        mPackage = new TestPackageResult();
+        mPackage.parse(mParser);
+    }
+
+    /**
+     * @return the result XML
+     */
+    File getResultFile() {
+        return mResultFile;
+    }
+
+    /**
+     * @return the current package, or <code>null</code> if all packages have been read
+     */
+    TestPackageResult getPackage() {
+        return mPackage;
+    }
+
+    DeviceInfoResult getDeviceInfo() {
+        return mDeviceInfo;
+    }
+
+    String getPlan() {
+        return mPlan;
+    }
+
+    String getStartTime() {
+        return mStartTime;
+    }
+
+    String getEndTime() {
+        return mEndTime;
+    }
+
+    String getSuite() {
+        return mSuite;
+    }
+
+    /**
+     * Close the result XML.
+     */
+    void close() {
+        StreamUtil.close(mReader);
+    }
+}
@@ -17,9 +17,7 @@
 package com.android.cts.tradefed.result;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 import javax.annotation.Nullable;
 
@@ -29,8 +27,6 @@ import javax.annotation.Nullable;
  */
 class ResultReporter {
 
-    private static final int RESULT_XML_BYTES = 500 * 1024;
-
     private final String mServerUrl;
     private final String mSuiteName;
 
@@ -44,19 +40,14 @@ class ResultReporter {
             return;
         }
 
-        InputStream input = new FileInputStream(reportFile);
-        try {
-            byte[] data = IssueReporter.getBytes(input, RESULT_XML_BYTES);
-            MultipartForm multipartForm = new MultipartForm(mServerUrl)
-                    .addFormValue("suite", mSuiteName)
-                    .addFormFile("resultXml", "testResult.xml.gz", data);
-            if (!isEmpty(referenceUrl)) {
-                multipartForm.addFormValue("referenceUrl", referenceUrl);
-            }
-            multipartForm.submit();
-        } finally {
-            input.close();
+        // the result XML is gzipped while it is streamed to the server
+        MultipartForm multipartForm = new MultipartForm(mServerUrl)
+                .addFormValue("suite", mSuiteName)
+                .addFormFile("resultXml", "testResult.xml.gz", reportFile, true);
+        if (!isEmpty(referenceUrl)) {
+            multipartForm.addFormValue("referenceUrl", referenceUrl);
         }
+        multipartForm.submit();
     }
 
     private static boolean isEmpty(String value) {
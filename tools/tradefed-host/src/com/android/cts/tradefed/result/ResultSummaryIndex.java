@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.cts.tradefed.util.AtomicFileUtil;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * A persistent cache of {@link ITestSummary}s for a directory of results.
+ * <p/>
+ * Each result directory gets a small summary sidecar file, and the results directory gets an
+ * index of all sidecars, so listing results only has to parse the result XML of new or
+ * modified sessions. Entries are validated against the size and modification time of the result
+ * file, so a continued session is picked up again automatically.
+ */
+class ResultSummaryIndex {
+
+    static final String INDEX_FILE_NAME = "results.index";
+    static final String SUMMARY_FILE_NAME = "testSummary.properties";
+
+    private static final String KEY_SEPARATOR = "/";
+
+    private final File mIndexFile;
+    private final Properties mIndex = new Properties();
+    private boolean mModified = false;
+
+    /**
+     * @param resultsDir the parent directory of results
+     */
+    ResultSummaryIndex(File resultsDir) {
+        mIndexFile = new File(resultsDir, INDEX_FILE_NAME);
+        AtomicFileUtil.loadProperties(mIndexFile, mIndex);
+    }
+
+    /**
+     * Get the cached summary of the given result directory.
+     *
+     * @param id the session id
+     * @param resultDir the result directory
+     * @return the {@link ITestSummary} or <code>null</code> if there is no current cached summary
+     */
+    ITestSummary getSummary(int id, File resultDir) {
+        File resultFile = new File(resultDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        CachedTestSummary summary = CachedTestSummary.fromProperties(id, resultDir.getName(),
+                mIndex, getPrefix(resultDir));
+        if (summary != null && summary.isCurrent(resultFile)) {
+            return summary;
+        }
+        // index is out of date, try the sidecar
+        Properties props = new Properties();
+        if (AtomicFileUtil.loadProperties(new File(resultDir, SUMMARY_FILE_NAME), props)) {
+            summary = CachedTestSummary.fromProperties(id, resultDir.getName(), props, "");
+            if (summary != null && summary.isCurrent(resultFile)) {
+                summary.toProperties(mIndex, getPrefix(resultDir));
+                mModified = true;
+                return summary;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cache the summary parsed from the given result directory, in both its sidecar and the index.
+     *
+     * @param resultDir the result directory
+     * @param summary the {@link ITestSummary} parsed from <var>resultDir</var>
+     */
+    void putSummary(File resultDir, ITestSummary summary) {
+        File resultFile = new File(resultDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        CachedTestSummary cached = new CachedTestSummary(summary, resultFile);
+        Properties props = new Properties();
+        cached.toProperties(props, "");
+        AtomicFileUtil.storeProperties(new File(resultDir, SUMMARY_FILE_NAME), props);
+        cached.toProperties(mIndex, getPrefix(resultDir));
+        mModified = true;
+    }
+
+    /**
+     * Remove index entries for result directories that no longer exist.
+     *
+     * @param resultDirs the current result directories
+     */
+    void retainAll(Collection<File> resultDirs) {
+        Set<String> prefixes = new HashSet<String>(resultDirs.size());
+        for (File resultDir : resultDirs) {
+            prefixes.add(getPrefix(resultDir));
+        }
+        for (String key : mIndex.stringPropertyNames()) {
+            int separator = key.lastIndexOf(KEY_SEPARATOR);
+            if (separator == -1 || !prefixes.contains(key.substring(0, separator + 1))) {
+                mIndex.remove(key);
+                mModified = true;
+            }
+        }
+    }
+
+    /**
+     * Write the index back to disk, if it changed.
+     */
+    void save() {
+        if (mModified) {
+            AtomicFileUtil.storeProperties(mIndexFile, mIndex);
+            mModified = false;
+        }
+    }
+
+    private static String getPrefix(File resultDir) {
+        return resultDir.getName() + KEY_SEPARATOR;
+    }
+}
@@ -15,8 +15,8 @@
  */
 package com.android.cts.tradefed.result;
 
-import com.android.ddmlib.Log;
 import com.android.cts.tradefed.result.TestLog.TestLogType;
+import com.android.cts.util.PerfResult;
 
 import org.kxml2.io.KXmlSerializer;
 import org.xmlpull.v1.XmlPullParser;
@@ -46,9 +46,6 @@ class Test extends AbstractXmlPullParser {
     private static final String SCORETYPE_ATTR = "scoreType";
     private static final String UNIT_ATTR = "unit";
     private static final String SOURCE_ATTR = "source";
-    // separators for the message
-    private static final String LOG_SEPARATOR = "\\+\\+\\+";
-    private static final String LOG_ELEM_SEPARATOR = "\\|";
 
     private String mName;
     private CtsTestStatus mResult;
@@ -56,9 +53,8 @@ class Test extends AbstractXmlPullParser {
     private String mEndTime;
     private String mMessage;
     private String mStackTrace;
-    // summary and details passed from cts
-    private String mSummary;
-    private String mDetails;
+    // performance result passed from cts
+    private PerfResult mPerfResult;
 
     /**
      * Log info for this test like a logcat dump or bugreport.
@@ -84,6 +80,16 @@ class Test extends AbstractXmlPullParser {
         updateEndTime();
     }
 
+    /**
+     * Create a {@link Test} with the given result, as loaded from a stored result.
+     */
+    Test(String name, CtsTestStatus result, String startTime, String endTime) {
+        mName = name;
+        mResult = result;
+        mStartTime = startTime;
+        mEndTime = endTime;
+    }
+
     /**
      * Add a test log to this Test.
      */
@@ -135,20 +141,12 @@ class Test extends AbstractXmlPullParser {
         mMessage = getFailureMessageFromStackTrace(mStackTrace);
     }
 
-    public String getSummary() {
-        return mSummary;
-    }
-
-    public void setSummary(String summary) {
-        mSummary = summary;
+    public PerfResult getPerfResult() {
+        return mPerfResult;
     }
 
-    public String getDetails() {
-        return mDetails;
-    }
-
-    public void setDetails(String details) {
-        mDetails = details;
+    public void setPerfResult(PerfResult perfResult) {
+        mPerfResult = perfResult;
     }
 
     public void updateEndTime() {
@@ -185,110 +183,52 @@ class Test extends AbstractXmlPullParser {
             }
             serializer.endTag(CtsXmlResultReporter.ns, SCENE_TAG);
         }
-        if (mSummary != null) {
-            // <Summary message = "screen copies per sec" scoretype="higherBetter" unit="fps">
-            // 23938.82978723404</Summary>
-            PerfResultSummary summary = parseSummary(mSummary);
-            if (summary != null) {
-                serializer.startTag(CtsXmlResultReporter.ns, SUMMARY_TAG);
-                serializer.attribute(CtsXmlResultReporter.ns, MESSAGE_ATTR, summary.mMessage);
-                if (summary.mTarget.length() != 0 && !summary.mTarget.equals(" ")) {
-                    serializer.attribute(CtsXmlResultReporter.ns, TARGET_ATTR, summary.mTarget);
-                }
-                serializer.attribute(CtsXmlResultReporter.ns, SCORETYPE_ATTR, summary.mType);
-                serializer.attribute(CtsXmlResultReporter.ns, UNIT_ATTR, summary.mUnit);
-                serializer.text(summary.mValue);
-                serializer.endTag(CtsXmlResultReporter.ns, SUMMARY_TAG);
-                // add details only if summary is present
-                // <Details>
-                //   <ValueArray source=”com.android.cts.dram.BandwidthTest#doRunMemcpy:98”
-                //                    message=”measure1” unit="ms" scoretype="higherBetter">
-                //     <Value>0.0</Value>
-                //     <Value>0.1</Value>
-                //   </ValueArray>
-                // </Details>
-                if (mDetails != null) {
-                    PerfResultDetail[] ds = parseDetails(mDetails);
-                    serializer.startTag(CtsXmlResultReporter.ns, DETAILS_TAG);
-                        for (PerfResultDetail d : ds) {
-                            if (d == null) {
-                                continue;
-                            }
-                            serializer.startTag(CtsXmlResultReporter.ns, VALUEARRAY_TAG);
-                            serializer.attribute(CtsXmlResultReporter.ns, SOURCE_ATTR, d.mSource);
-                            serializer.attribute(CtsXmlResultReporter.ns, MESSAGE_ATTR,
-                                    d.mMessage);
-                            serializer.attribute(CtsXmlResultReporter.ns, SCORETYPE_ATTR, d.mType);
-                            serializer.attribute(CtsXmlResultReporter.ns, UNIT_ATTR, d.mUnit);
-                            for (String v : d.mValues) {
-                                if (v == null) {
-                                    continue;
-                                }
-                                serializer.startTag(CtsXmlResultReporter.ns, VALUE_TAG);
-                                serializer.text(v);
-                                serializer.endTag(CtsXmlResultReporter.ns, VALUE_TAG);
-                            }
-                            serializer.endTag(CtsXmlResultReporter.ns, VALUEARRAY_TAG);
-                        }
-                    serializer.endTag(CtsXmlResultReporter.ns, DETAILS_TAG);
-                }
-            }
+        if (mPerfResult != null && mPerfResult.getSummary() != null) {
+            serializePerfResult(serializer, mPerfResult);
         }
         serializer.endTag(CtsXmlResultReporter.ns, TAG);
     }
 
-    /**
-     *  class containing performance result.
-     */
-    public static class PerfResultCommon {
-        public String mMessage;
-        public String mType;
-        public String mUnit;
-    }
-
-    private class PerfResultSummary extends PerfResultCommon {
-        public String mTarget;
-        public String mValue;
-    }
-
-    private class PerfResultDetail extends PerfResultCommon {
-        public String mSource;
-        public String[] mValues;
-    }
-
-    private PerfResultSummary parseSummary(String summary) {
-        String[] elems = summary.split(LOG_ELEM_SEPARATOR);
-        PerfResultSummary r = new PerfResultSummary();
-        if (elems.length < 5) {
-            Log.w(TAG, "wrong message " + summary);
-            return null;
+    private static void serializePerfResult(KXmlSerializer serializer, PerfResult perfResult)
+            throws IOException {
+        // <Summary message = "screen copies per sec" scoretype="higherBetter" unit="fps">
+        // 23938.82978723404</Summary>
+        PerfResult.Summary summary = perfResult.getSummary();
+        serializer.startTag(CtsXmlResultReporter.ns, SUMMARY_TAG);
+        serializer.attribute(CtsXmlResultReporter.ns, MESSAGE_ATTR, summary.getMessage());
+        if (summary.getTarget() != null) {
+            serializer.attribute(CtsXmlResultReporter.ns, TARGET_ATTR,
+                    summary.getTarget().toString());
         }
-        r.mMessage = elems[0];
-        r.mTarget = elems[1];
-        r.mType = elems[2];
-        r.mUnit = elems[3];
-        r.mValue = elems[4];
-        return r;
-    }
-
-    private PerfResultDetail[] parseDetails(String details) {
-        String[] arrays = details.split(LOG_SEPARATOR);
-        PerfResultDetail[] rs = new PerfResultDetail[arrays.length];
-        for (int i = 0; i < arrays.length; i++) {
-            String[] elems = arrays[i].split(LOG_ELEM_SEPARATOR);
-            if (elems.length < 5) {
-                Log.w(TAG, "wrong message " + arrays[i]);
-                continue;
+        serializer.attribute(CtsXmlResultReporter.ns, SCORETYPE_ATTR,
+                summary.getType().getXmlString());
+        serializer.attribute(CtsXmlResultReporter.ns, UNIT_ATTR, summary.getUnit().getXmlString());
+        serializer.text(Double.toString(summary.getValue()));
+        serializer.endTag(CtsXmlResultReporter.ns, SUMMARY_TAG);
+        // add details only if summary is present
+        // <Details>
+        //   <ValueArray source=”com.android.cts.dram.BandwidthTest#doRunMemcpy:98”
+        //                    message=”measure1” unit="ms" scoretype="higherBetter">
+        //     <Value>0.0</Value>
+        //     <Value>0.1</Value>
+        //   </ValueArray>
+        // </Details>
+        serializer.startTag(CtsXmlResultReporter.ns, DETAILS_TAG);
+        for (PerfResult.ValueArray d : perfResult.getDetails()) {
+            serializer.startTag(CtsXmlResultReporter.ns, VALUEARRAY_TAG);
+            serializer.attribute(CtsXmlResultReporter.ns, SOURCE_ATTR, d.getSource());
+            serializer.attribute(CtsXmlResultReporter.ns, MESSAGE_ATTR, d.getMessage());
+            serializer.attribute(CtsXmlResultReporter.ns, SCORETYPE_ATTR,
+                    d.getType().getXmlString());
+            serializer.attribute(CtsXmlResultReporter.ns, UNIT_ATTR, d.getUnit().getXmlString());
+            for (int i = 0; i < d.size(); i++) {
+                serializer.startTag(CtsXmlResultReporter.ns, VALUE_TAG);
+                serializer.text(Double.toString(d.getValue(i)));
+                serializer.endTag(CtsXmlResultReporter.ns, VALUE_TAG);
             }
-            PerfResultDetail r = new PerfResultDetail();
-            r.mSource = elems[0];
-            r.mMessage = elems[1];
-            r.mType = elems[2];
-            r.mUnit = elems[3];
-            r.mValues = elems[4].split(" ");
-            rs[i] = r;
+            serializer.endTag(CtsXmlResultReporter.ns, VALUEARRAY_TAG);
         }
-        return rs;
+        serializer.endTag(CtsXmlResultReporter.ns, DETAILS_TAG);
     }
 
     /**
@@ -372,6 +312,14 @@ class Test extends AbstractXmlPullParser {
         mTestLogs.add(testLog);
     }
 
+    /** Get a copy of the TestLogs of this test in a thread safe manner. */
+    synchronized List<TestLog> getTestLogs() {
+        if (mTestLogs == null) {
+            return new ArrayList<TestLog>(0);
+        }
+        return new ArrayList<TestLog>(mTestLogs);
+    }
+
     /** Serialize the TestLogs of this test in a thread safe manner. */
     private synchronized void serializeTestLogsLocked(KXmlSerializer serializer) throws IOException {
         if (mTestLogs != null) {
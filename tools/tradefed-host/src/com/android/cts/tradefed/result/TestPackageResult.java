@@ -18,6 +18,7 @@ package com.android.cts.tradefed.result;
 import com.android.cts.tradefed.testtype.CtsTest;
 import com.android.cts.tradefed.util.CtsHostStore;
 import com.android.cts.util.AbiUtils;
+import com.android.cts.util.PerfResult;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.log.LogUtil.CLog;
 
@@ -26,15 +27,15 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Data structure for a CTS test package result.
@@ -54,8 +55,6 @@ class TestPackageResult extends AbstractXmlPullParser {
     private static final String ns = CtsXmlResultReporter.ns;
     private static final String SIGNATURE_TEST_PKG = "android.tests.sigtest";
 
-    private static final Pattern mCtsLogPattern = Pattern.compile("(.*)\\+\\+\\+\\+(.*)");
-
     private String mDeviceSerial;
     private String mAppPackageName;
     private String mName;
@@ -63,10 +62,16 @@ class TestPackageResult extends AbstractXmlPullParser {
     private String mDigest;
 
     private Map<String, String> mMetrics = new HashMap<String, String>();
-    private Map<TestIdentifier, Map<String, String>> mTestMetrics = new HashMap<TestIdentifier, Map<String, String>>();
 
     private TestSuite mSuiteRoot = new TestSuite(null);
 
+    /**
+     * All tests in this package, for constant time lookup when reporting test events. Tests
+     * inserted while running are only added to the suite tree when it is next needed.
+     */
+    private Map<TestIdentifier, Test> mTestIndex = new HashMap<TestIdentifier, Test>();
+    private List<TestIdentifier> mPendingTests = new ArrayList<TestIdentifier>();
+
     public void setDeviceSerial(String deviceSerial) {
         mDeviceSerial = deviceSerial;
     }
@@ -115,6 +120,7 @@ class TestPackageResult extends AbstractXmlPullParser {
      * Return the {@link TestSuite}s
      */
     public Collection<TestSuite> getTestSuites() {
+        buildSuiteTree();
         return mSuiteRoot.getTestSuites();
     }
 
@@ -124,22 +130,35 @@ class TestPackageResult extends AbstractXmlPullParser {
      * @param testId
      */
     public Test insertTest(TestIdentifier testId) {
-        return findTest(testId, true);
+        Test test = mTestIndex.get(testId);
+        if (test == null) {
+            test = new Test(testId.getTestName());
+            mTestIndex.put(testId, test);
+            mPendingTests.add(testId);
+        }
+        return test;
     }
 
-    private Test findTest(TestIdentifier testId, boolean insertIfMissing) {
-        List<String> classNameSegments = new LinkedList<String>();
-        Collections.addAll(classNameSegments, testId.getClassName().split("\\."));
-        if (classNameSegments.size() <= 0) {
-            CLog.e("Unrecognized package name format for test class '%s'",
-                    testId.getClassName());
-            // should never happen
-            classNameSegments.add("UnknownTestClass");
-        }
-        String testCaseName = classNameSegments.remove(classNameSegments.size() - 1);
-        return mSuiteRoot.findTest(classNameSegments, testCaseName, testId.getTestName(), insertIfMissing);
+    /**
+     * Adds an existing test result to this test package, replacing any result for the same test.
+     *
+     * @param testId
+     * @param test
+     */
+    void insertTest(TestIdentifier testId, Test test) {
+        mTestIndex.put(testId, test);
+        mPendingTests.add(testId);
     }
 
+    /**
+     * Return all tests in this package, in the order they are serialized.
+     */
+    Map<TestIdentifier, Test> getTests() {
+        buildSuiteTree();
+        Map<TestIdentifier, Test> tests = new LinkedHashMap<TestIdentifier, Test>();
+        mSuiteRoot.indexTests(tests, new LinkedList<String>());
+        return tests;
+    }
 
     /**
      * Find the test result for given {@link TestIdentifier}.
@@ -147,7 +166,26 @@ class TestPackageResult extends AbstractXmlPullParser {
      * @return the {@link Test} or <code>null</code>
      */
     public Test findTest(TestIdentifier testId) {
-        return findTest(testId, false);
+        return mTestIndex.get(testId);
+    }
+
+    /**
+     * Add the tests inserted since the suite tree was last built to the tree, in insertion order.
+     */
+    private void buildSuiteTree() {
+        for (TestIdentifier testId : mPendingTests) {
+            List<String> classNameSegments = new LinkedList<String>();
+            Collections.addAll(classNameSegments, testId.getClassName().split("\\."));
+            if (classNameSegments.size() <= 0) {
+                CLog.e("Unrecognized package name format for test class '%s'",
+                        testId.getClassName());
+                // should never happen
+                classNameSegments.add("UnknownTestClass");
+            }
+            String testCaseName = classNameSegments.remove(classNameSegments.size() - 1);
+            mSuiteRoot.insertTest(classNameSegments, testCaseName, mTestIndex.get(testId));
+        }
+        mPendingTests.clear();
     }
 
     /**
@@ -165,6 +203,7 @@ class TestPackageResult extends AbstractXmlPullParser {
         if (SIGNATURE_TEST_PKG.equals(mName)) {
             serializer.attribute(ns, "signatureCheck", "true");
         }
+        buildSuiteTree();
         mSuiteRoot.serialize(serializer);
         serializer.endTag(ns, TAG);
     }
@@ -208,10 +247,19 @@ class TestPackageResult extends AbstractXmlPullParser {
                 mSuiteRoot.insertSuite(suite);
             }
             if (eventType == XmlPullParser.END_TAG && parser.getName().equals(TAG)) {
+                indexTests();
                 return;
             }
             eventType = parser.next();
         }
+        indexTests();
+    }
+
+    /**
+     * Add all tests in the suite tree to the test index.
+     */
+    private void indexTests() {
+        mSuiteRoot.indexTests(mTestIndex, new LinkedList<String>());
     }
 
     /**
@@ -223,6 +271,7 @@ class TestPackageResult extends AbstractXmlPullParser {
     public Collection<TestIdentifier> getTestsWithStatus(CtsTestStatus resultFilter) {
         Collection<TestIdentifier> tests = new LinkedList<TestIdentifier>();
         Deque<String> suiteNames = new LinkedList<String>();
+        buildSuiteTree();
         mSuiteRoot.addTestsWithStatus(tests, suiteNames, resultFilter);
         return tests;
     }
@@ -245,29 +294,6 @@ class TestPackageResult extends AbstractXmlPullParser {
             setDigest(digest);
         }
         mMetrics.putAll(metrics);
-
-        // Collect performance results
-        for (TestIdentifier test : mTestMetrics.keySet()) {
-            // device test can have performance results in test metrics
-            String perfResult = mTestMetrics.get(test).get(CTS_RESULT_KEY);
-            // host test should be checked in CtsHostStore.
-            if (perfResult == null) {
-                perfResult = CtsHostStore.removeCtsResult(mDeviceSerial, mAbi, test.toString());
-            }
-            if (perfResult != null) {
-                // CTS result is passed in Summary++++Details format.
-                // Extract Summary and Details, and pass them.
-                Matcher m = mCtsLogPattern.matcher(perfResult);
-                if (m.find()) {
-                    Test result = findTest(test);
-                    result.setResultStatus(CtsTestStatus.PASS);
-                    result.setSummary(m.group(1));
-                    result.setDetails(m.group(2));
-                } else {
-                    CLog.e("CTS Result unrecognizable:" + perfResult);
-                }
-            }
-        }
     }
 
     /**
@@ -295,13 +321,36 @@ class TestPackageResult extends AbstractXmlPullParser {
             result.setResultStatus(CtsTestStatus.PASS);
         }
         result.updateEndTime();
-        if (mTestMetrics.containsKey(test)) {
-            CLog.e("Test metrics already contains key: " + test);
+        PerfResult perfResult = getPerfResult(test, testMetrics);
+        if (perfResult != null) {
+            result.setResultStatus(CtsTestStatus.PASS);
+            result.setPerfResult(perfResult);
         }
-        mTestMetrics.put(test, testMetrics);
         CLog.i("Test metrics:" + testMetrics);
     }
 
+    /**
+     * Get the performance result of the given test, if any.
+     *
+     * @param test The {@link TestIdentifier} of the completed test.
+     * @param testMetrics A map holding metrics about the completed test, if any.
+     * @return the {@link PerfResult}, or <code>null</code> if the test reported none
+     */
+    private PerfResult getPerfResult(TestIdentifier test, Map<String, String> testMetrics) {
+        // device test can have performance results in test metrics
+        String report = testMetrics == null ? null : testMetrics.get(CTS_RESULT_KEY);
+        if (report == null) {
+            // host test should be checked in CtsHostStore.
+            return CtsHostStore.removePerfResult(mDeviceSerial, mAbi, test.toString());
+        }
+        // CTS result is passed in Summary++++Details format.
+        PerfResult perfResult = PerfResult.parse(report);
+        if (perfResult == null) {
+            CLog.e("CTS Result unrecognizable:" + report);
+        }
+        return perfResult;
+    }
+
     /**
      * Return the number of tests with given status
      *
@@ -309,7 +358,13 @@ class TestPackageResult extends AbstractXmlPullParser {
      * @return the total number of tests with given status
      */
     public int countTests(CtsTestStatus status) {
-        return mSuiteRoot.countTests(status);
+        int total = 0;
+        for (Test test : mTestIndex.values()) {
+            if (test.getResult().equals(status)) {
+                total++;
+            }
+        }
+        return total;
     }
 
     /**
@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An implementation of {@link ITestResultsRepo}.
@@ -38,6 +39,16 @@ public class TestResultRepo implements ITestResultRepo {
      */
     private List<File> mResultDirs;
 
+    /**
+     * the persistent summary cache for the result directories.
+     */
+    private ResultSummaryIndex mSummaryIndex;
+
+    /**
+     * the summaries, loaded on first use.
+     */
+    private List<ITestSummary> mSummaries = null;
+
     /**
      * Create a {@link TestResultRepo} from a directory of results
      *
@@ -45,6 +56,7 @@ public class TestResultRepo implements ITestResultRepo {
      */
     public TestResultRepo(File testResultsDir) {
         mResultDirs = new ArrayList<File>();
+        mSummaryIndex = new ResultSummaryIndex(testResultsDir);
         File[] resultArray = testResultsDir.listFiles(new ResultDirFilter());
         if (resultArray != null) {
             List<File> resultList = new ArrayList<File>();
@@ -53,6 +65,11 @@ public class TestResultRepo implements ITestResultRepo {
             for (int i=0; i < resultList.size(); i++) {
                 File resultFile = new File(resultList.get(i),
                         CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+                if (ResultJournal.hasJournal(resultList.get(i))) {
+                    // invocation did not complete, recover what was journaled. A continued
+                    // session also has a result file, which is older than the journal
+                    ResultJournal.recover(resultList.get(i));
+                }
                 if (resultFile.exists()) {
                     mResultDirs.add(resultList.get(i));
                 }
@@ -70,6 +87,7 @@ public class TestResultRepo implements ITestResultRepo {
         try {
             result.parse(new BufferedReader(new FileReader(new File(resultDir,
                     CtsXmlResultReporter.TEST_RESULT_FILE_NAME))));
+            mSummaryIndex.putSummary(resultDir, result);
             return result;
         } catch (ParseException e) {
             CLog.e(e);
@@ -85,13 +103,23 @@ public class TestResultRepo implements ITestResultRepo {
      */
     @Override
     public List<ITestSummary> getSummaries() {
-        // parsing the summary data should be relatively quick, so just parse it every time
-        // rather than caching it
-        List<ITestSummary> summaries = new ArrayList<ITestSummary>(mResultDirs.size());
-        for (int i = 0; i < mResultDirs.size(); i++) {
-            summaries.add(parseSummary(i, mResultDirs.get(i)));
+        if (mSummaries == null) {
+            // only parse the result XML of sessions that are new or changed since the summary
+            // index was last written
+            List<ITestSummary> summaries = new ArrayList<ITestSummary>(mResultDirs.size());
+            for (int i = 0; i < mResultDirs.size(); i++) {
+                File resultDir = mResultDirs.get(i);
+                ITestSummary summary = mSummaryIndex.getSummary(i, resultDir);
+                if (summary == null) {
+                    summary = parseSummary(i, resultDir);
+                }
+                summaries.add(summary);
+            }
+            mSummaryIndex.retainAll(mResultDirs);
+            mSummaryIndex.save();
+            mSummaries = summaries;
         }
-        return summaries;
+        return mSummaries;
     }
 
     /**
@@ -104,10 +132,14 @@ public class TestResultRepo implements ITestResultRepo {
             CLog.e("Session id %d does not exist", sessionId);
             return null;
         }
+        File resultDir = mResultDirs.get(sessionId);
+        TestResults results = BinaryResultStore.read(resultDir);
+        if (results != null) {
+            return results;
+        }
         try {
-            TestResults results = new TestResults();
-            File resultFile = new File(mResultDirs.get(sessionId),
-                    CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+            results = new TestResults();
+            File resultFile = new File(resultDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
             results.parse(new BufferedReader(new FileReader(resultFile)));
             return results;
         } catch (FileNotFoundException e) {
@@ -118,6 +150,14 @@ public class TestResultRepo implements ITestResultRepo {
         return null;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getPackageDurations() {
+        return PackageDurations.loadRecent(mResultDirs);
+    }
+
     private class ResultDirFilter implements FileFilter {
 
         /**
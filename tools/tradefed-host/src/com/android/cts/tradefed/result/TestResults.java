@@ -24,6 +24,7 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
@@ -53,6 +54,15 @@ class TestResults extends AbstractXmlPullParser {
     private Map<String, TestPackageResult> mPackageResults =
             new LinkedHashMap<String, TestPackageResult>();
     private DeviceInfoResult mDeviceInfo = new DeviceInfoResult();
+    private ResultJournal mJournal = null;
+
+    /**
+     * Set the {@link ResultJournal} that completed packages are moved to by
+     * {@link #journalPackage(String)}.
+     */
+    void setJournal(ResultJournal journal) {
+        mJournal = journal;
+    }
 
     /**
      * {@inheritDoc}
@@ -80,12 +90,34 @@ class TestResults extends AbstractXmlPullParser {
     }
 
     /**
-     * @return the list of {@link TestPackageResult}.
+     * @return the {@link DeviceInfoResult}
+     */
+    DeviceInfoResult getDeviceInfo() {
+        return mDeviceInfo;
+    }
+
+    /**
+     * @return the list of {@link TestPackageResult}s held in memory. Does not include
+     * journaled packages.
      */
     public Collection<TestPackageResult> getPackages() {
         return mPackageResults.values();
     }
 
+    /**
+     * Add a package loaded from a stored result.
+     */
+    void addPackage(TestPackageResult pkg) {
+        mPackageResults.put(pkg.getId(), pkg);
+    }
+
+    /**
+     * Remove the package with given id from memory.
+     */
+    void removePackage(String id) {
+        mPackageResults.remove(id);
+    }
+
     /**
      * Count the number of tests with given status
      * @param status
@@ -95,6 +127,9 @@ class TestResults extends AbstractXmlPullParser {
         for (TestPackageResult result : mPackageResults.values()) {
             total += result.countTests(status);
         }
+        if (mJournal != null) {
+            total += mJournal.countTests(status);
+        }
         return total;
     }
 
@@ -105,9 +140,33 @@ class TestResults extends AbstractXmlPullParser {
      * @throws IOException
      */
     public void serialize(KXmlSerializer serializer) throws IOException {
+        serialize(serializer, null);
+    }
+
+    /**
+     * Serialize the test results to XML.
+     * <p/>
+     * If a {@link ResultJournal} is set, all packages are moved to the journal and copied
+     * verbatim from there to <var>stream</var>, which must be the output of <var>serializer</var>.
+     * Any package that could not be journaled is serialized from memory afterwards.
+     *
+     * @param serializer
+     * @param stream the underlying output stream of the serializer
+     * @throws IOException
+     */
+    public void serialize(KXmlSerializer serializer, OutputStream stream) throws IOException {
+        if (mJournal != null) {
+            for (String id : new ArrayList<String>(mPackageResults.keySet())) {
+                journalPackage(id);
+            }
+        }
         mDeviceInfo.serialize(serializer);
         serializeHostInfo(serializer);
         serializeTestSummary(serializer);
+        if (mJournal != null) {
+            serializer.flush();
+            mJournal.copyPackages(stream);
+        }
         // sort before serializing
         List<TestPackageResult> pkgs = new ArrayList<TestPackageResult>(mPackageResults.values());
         Collections.sort(pkgs, new PkgComparator());
@@ -183,10 +242,23 @@ class TestResults extends AbstractXmlPullParser {
     /**
      * Return existing package with given id. If not found, create a new one.
      * @param id
+     * @throws IllegalStateException if the package is journaled but could not be read back
      * @return
      */
     public TestPackageResult getOrCreatePackage(String id) {
         TestPackageResult pkgResult = mPackageResults.get(id);
+        if (pkgResult == null && mJournal != null && mJournal.contains(id)) {
+            try {
+                pkgResult = mJournal.remove(id);
+            } catch (IOException e) {
+                // don't replace the journaled results with an empty package
+                throw new IllegalStateException(String.format(
+                        "failed to reload package %s from journal", id), e);
+            }
+            if (pkgResult != null) {
+                mPackageResults.put(id, pkgResult);
+            }
+        }
         if (pkgResult == null) {
             pkgResult = new TestPackageResult();
             String[] abiAndName = AbiUtils.parseId(id);
@@ -197,6 +269,31 @@ class TestResults extends AbstractXmlPullParser {
         return pkgResult;
     }
 
+    /**
+     * Move the package with given id from memory to the journal, if one is set.
+     * <p/>
+     * The package will be reloaded if it is requested again by {@link #getOrCreatePackage}.
+     *
+     * @param id
+     */
+    public void journalPackage(String id) {
+        if (mJournal == null) {
+            return;
+        }
+        TestPackageResult pkgResult = mPackageResults.get(id);
+        if (pkgResult == null) {
+            return;
+        }
+        try {
+            mJournal.write(pkgResult);
+            mPackageResults.remove(id);
+        } catch (IOException e) {
+            // keep the package in memory, it will be serialized with the rest of the results
+            CLog.e("Failed to journal package %s", id);
+            CLog.e(e);
+        }
+    }
+
     /**
      * Populate the results with collected device info metrics.
      * @param runMetrics
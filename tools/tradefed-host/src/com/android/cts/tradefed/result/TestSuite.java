@@ -70,19 +70,15 @@ class TestSuite extends AbstractXmlPullParser {
      *
      * @param suiteNames list of remaining suite names for this test
      * @param testClassName the test class name
-     * @param testName the test method name
-     * @param testResult the {@link TestResult}
+     * @param test the {@link Test}
      */
-    public Test findTest(List<String> suiteNames, String testClassName, String testName,
-            boolean insertIfMissing) {
+    public void insertTest(List<String> suiteNames, String testClassName, Test test) {
         if (suiteNames.size() <= 0) {
             // no more package segments
-            TestCase testCase = getTestCase(testClassName);
-            return testCase.findTest(testName, insertIfMissing);
+            getTestCase(testClassName).insertTest(test);
         } else {
             String rootName = suiteNames.remove(0);
-            TestSuite suite = getTestSuite(rootName);
-            return suite.findTest(suiteNames, testClassName, testName, insertIfMissing);
+            getTestSuite(rootName).insertTest(suiteNames, testClassName, test);
         }
     }
 
@@ -221,6 +217,28 @@ class TestSuite extends AbstractXmlPullParser {
         }
     }
 
+    /**
+     * Adds all tests contained in this suite to the given index.
+     *
+     * @param index the {@link Map} of {@link TestIdentifier} to {@link Test} to add to
+     * @param parentSuiteNames a {@link Deque} of parent suite names. Used to construct the full
+     * class name of the test
+     */
+    void indexTests(Map<TestIdentifier, Test> index, Deque<String> parentSuiteNames) {
+        if (getName() != null) {
+            parentSuiteNames.addLast(getName());
+        }
+        for (TestSuite suite : mChildSuiteMap.values()) {
+            suite.indexTests(index, parentSuiteNames);
+        }
+        for (TestCase testCase : mChildTestCaseMap.values()) {
+            testCase.indexTests(index, parentSuiteNames);
+        }
+        if (getName() != null) {
+            parentSuiteNames.removeLast();
+        }
+    }
+
     /**
      * Count the number of tests in this {@link TestSuite} with given status.
      *
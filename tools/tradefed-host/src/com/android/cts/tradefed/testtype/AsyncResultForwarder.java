@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.build.IBuildInfo;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.result.InputStreamSource;
+import com.android.tradefed.result.LogDataType;
+import com.android.tradefed.result.ResultForwarder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A {@link ResultForwarder} that delivers result events to each listener on its own thread, so a
+ * slow listener doesn't hold up the test output being parsed.
+ * <p/>
+ * Each listener has a bounded queue of pending events, and receives its events in the order they
+ * were reported. When a listener's queue is full, reporting waits for the listener to catch up.
+ * Logs are delivered before {@link #testLog} returns, since the caller may cancel the log data
+ * afterwards. Exceptions thrown by a listener are logged rather than passed to the caller.
+ * <p/>
+ * The number of events, the queue depth and the delivery latency of each listener are tracked,
+ * and logged by {@link #close()}.
+ */
+class AsyncResultForwarder extends ResultForwarder {
+
+    static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    /** tells a delivery thread to stop */
+    private static final Event STOP = new Event() {
+        @Override
+        void deliver(ITestInvocationListener listener) {
+        }
+    };
+
+    private final List<ListenerQueue> mQueues;
+    private final long mStartTime;
+    private boolean mClosed = false;
+
+    /**
+     * A result event waiting to be delivered.
+     */
+    private abstract static class Event {
+        abstract void deliver(ITestInvocationListener listener);
+    }
+
+    /**
+     * Delivery counters of a listener.
+     */
+    static class ListenerStats {
+        private final String mName;
+        private long mEventCount = 0;
+        private int mMaxQueueDepth = 0;
+        private final LatencyHistogram mLatency = new LatencyHistogram();
+
+        ListenerStats(String name) {
+            mName = name;
+        }
+
+        String getName() {
+            return mName;
+        }
+
+        synchronized long getEventCount() {
+            return mEventCount;
+        }
+
+        /**
+         * @return the most events that were waiting to be delivered at once
+         */
+        synchronized int getMaxQueueDepth() {
+            return mMaxQueueDepth;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return an upper bound of the given percentile of the time the listener took to handle
+         *         an event, in microseconds
+         */
+        synchronized long getLatencyPercentile(double percentile) {
+            return mLatency.getPercentile(percentile);
+        }
+
+        private synchronized void recordQueueDepth(int depth) {
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, depth);
+        }
+
+        private synchronized void recordEvent(long latencyUs) {
+            mEventCount++;
+            mLatency.add(latencyUs);
+        }
+    }
+
+    /**
+     * Create a {@link AsyncResultForwarder}, and start its delivery threads.
+     *
+     * @param queueSize the number of events that may wait to be delivered to each listener
+     * @param listeners the {@link ITestInvocationListener}s to forward results to
+     */
+    AsyncResultForwarder(int queueSize, ITestInvocationListener... listeners) {
+        super(listeners);
+        mStartTime = System.currentTimeMillis();
+        List<ListenerQueue> queues = new ArrayList<ListenerQueue>(listeners.length);
+        for (ITestInvocationListener listener : listeners) {
+            ListenerQueue queue = new ListenerQueue(listener, queueSize);
+            queues.add(queue);
+            Thread thread = new Thread(queue, String.format("AsyncResultForwarder-%s",
+                    queue.mStats.getName()));
+            thread.setDaemon(true);
+            thread.start();
+        }
+        mQueues = Collections.unmodifiableList(queues);
+    }
+
+    private void post(Event event) {
+        for (ListenerQueue queue : mQueues) {
+            queue.post(event);
+        }
+    }
+
+    /**
+     * Wait for all events reported so far to be delivered.
+     */
+    void flush() {
+        for (ListenerQueue queue : mQueues) {
+            queue.waitUntilEmpty();
+        }
+    }
+
+    /**
+     * Deliver all pending events, stop the delivery threads and log the delivery counters.
+     */
+    void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        post(STOP);
+        flush();
+        double elapsedSec = Math.max(System.currentTimeMillis() - mStartTime, 1) / 1000.0;
+        for (ListenerQueue queue : mQueues) {
+            ListenerStats stats = queue.mStats;
+            CLog.i("%s: %d events, %.1f events/sec, max queue depth %d, p99 latency %d us",
+                    stats.getName(), stats.getEventCount(), stats.getEventCount() / elapsedSec,
+                    stats.getMaxQueueDepth(), stats.getLatencyPercentile(99));
+        }
+    }
+
+    /**
+     * @return the delivery counters of each listener, in the order the listeners were given
+     */
+    List<ListenerStats> getStats() {
+        List<ListenerStats> stats = new ArrayList<ListenerStats>(mQueues.size());
+        for (ListenerQueue queue : mQueues) {
+            stats.add(queue.mStats);
+        }
+        return stats;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invocationStarted(final IBuildInfo buildInfo) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.invocationStarted(buildInfo);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testLog(final String dataName, final LogDataType dataType,
+            final InputStreamSource dataStream) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.testLog(dataName, dataType, dataStream);
+            }
+        });
+        flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invocationEnded(final long elapsedTime) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.invocationEnded(elapsedTime);
+            }
+        });
+        flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invocationFailed(final Throwable cause) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.invocationFailed(cause);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunStarted(final String runName, final int testCount) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.testRunStarted(runName, testCount);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(final TestIdentifier test) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.testStarted(test);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testFailed(final TestIdentifier test, final String trace) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.testFailed(test, trace);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testAssumptionFailure(final TestIdentifier test, final String trace) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.testAssumptionFailure(test, trace);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testIgnored(final TestIdentifier test) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.testIgnored(test);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded(final TestIdentifier test, final Map<String, String> testMetrics) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.testEnded(test, testMetrics);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunFailed(final String errorMessage) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.testRunFailed(errorMessage);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunStopped(final long elapsedTime) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.testRunStopped(elapsedTime);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunEnded(final long elapsedTime, final Map<String, String> runMetrics) {
+        post(new Event() {
+            @Override
+            void deliver(ITestInvocationListener listener) {
+                listener.testRunEnded(elapsedTime, runMetrics);
+            }
+        });
+    }
+
+    /**
+     * The pending events of a listener, and the thread delivering them.
+     */
+    private static class ListenerQueue implements Runnable {
+        private final ITestInvocationListener mListener;
+        private final BlockingQueue<Event> mEvents;
+        private final ListenerStats mStats;
+        /** the number of events posted but not yet delivered, guarded by this */
+        private int mPending = 0;
+
+        ListenerQueue(ITestInvocationListener listener, int queueSize) {
+            mListener = listener;
+            mEvents = new ArrayBlockingQueue<Event>(queueSize);
+            mStats = new ListenerStats(listener.getClass().getSimpleName());
+        }
+
+        void post(Event event) {
+            int depth;
+            synchronized (this) {
+                depth = ++mPending;
+            }
+            mStats.recordQueueDepth(depth);
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    // waits while the queue is full
+                    mEvents.put(event);
+                    break;
+                } catch (InterruptedException e) {
+                    // dropping the event would leave the listener with an inconsistent view
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized void waitUntilEmpty() {
+            boolean interrupted = false;
+            while (mPending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Event event;
+                try {
+                    event = mEvents.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (event != STOP) {
+                    long startTime = System.nanoTime();
+                    try {
+                        event.deliver(mListener);
+                    } catch (RuntimeException e) {
+                        CLog.e("%s failed to handle a result event", mStats.getName());
+                        CLog.e(e);
+                    }
+                    mStats.recordEvent((System.nanoTime() - startTime) / 1000);
+                }
+                synchronized (this) {
+                    if (--mPending == 0) {
+                        notifyAll();
+                    }
+                }
+                if (event == STOP) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A histogram of latencies, with buckets whose width is an eighth of their magnitude, so
+     * percentiles are accurate to within 12.5%.
+     */
+    static class LatencyHistogram {
+        /** values below this have a bucket of their own */
+        private static final int LINEAR_LIMIT = 16;
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final long[] mCounts = new long[LINEAR_LIMIT + (64 - 4) * SUB_BUCKETS];
+        private long mTotal = 0;
+
+        void add(long value) {
+            mCounts[getBucket(Math.max(value, 0))]++;
+            mTotal++;
+        }
+
+        /**
+         * @param percentile the percentile, between 0 and 100
+         * @return the upper bound of the bucket holding the given percentile, or 0 if empty
+         */
+        long getPercentile(double percentile) {
+            if (mTotal == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(mTotal * percentile / 100);
+            long count = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                count += mCounts[i];
+                if (count >= Math.max(rank, 1)) {
+                    return getUpperBound(i);
+                }
+            }
+            return getUpperBound(mCounts.length - 1);
+        }
+
+        private static int getBucket(long value) {
+            if (value < LINEAR_LIMIT) {
+                return (int) value;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return LINEAR_LIMIT + (magnitude - 4) * SUB_BUCKETS + subBucket;
+        }
+
+        private static long getUpperBound(int bucket) {
+            if (bucket < LINEAR_LIMIT) {
+                return bucket;
+            }
+            int magnitude = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 4;
+            int subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+            long width = 1L << (magnitude - SUB_BUCKET_BITS);
+            return (1L << magnitude) + (subBucket + 1) * width - 1;
+        }
+    }
+}
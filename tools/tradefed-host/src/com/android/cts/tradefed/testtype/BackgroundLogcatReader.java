@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.RunUtil;
+
+/**
+ * Streams the logcat of a device into a {@link LogcatRingBuffer} on a background thread, so the
+ * log around a test failure can be read without pulling the log from the device again.
+ * <p/>
+ * Data is stamped with the host time it was received at, so it can be matched with test events
+ * without relying on the device clock.
+ */
+class BackgroundLogcatReader implements IShellOutputReceiver {
+
+    static final int DEFAULT_BUFFER_SIZE = 2 * 1024 * 1024;
+    /** the maximum number of chunks tracked by the buffer, see {@link LogcatRingBuffer} */
+    private static final int MAX_CHUNKS = 16 * 1024;
+    private static final String LOGCAT_CMD = "logcat -v threadtime";
+    private static final long RESTART_DELAY_MS = 1000;
+
+    private final ITestDevice mDevice;
+    private final LogcatRingBuffer mBuffer;
+    private Thread mThread = null;
+    private volatile boolean mRunning = false;
+
+    /**
+     * @param device the {@link ITestDevice} to read the logcat of
+     * @param bufferSize the number of bytes of logcat to keep
+     */
+    BackgroundLogcatReader(ITestDevice device, int bufferSize) {
+        mDevice = device;
+        mBuffer = new LogcatRingBuffer(bufferSize, MAX_CHUNKS);
+    }
+
+    /**
+     * Start reading the logcat.
+     */
+    synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readLogcat();
+            }
+        }, String.format("BackgroundLogcatReader-%s", mDevice.getSerialNumber()));
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stop reading the logcat.
+     */
+    synchronized void stop() {
+        mRunning = false;
+        mThread = null;
+    }
+
+    /**
+     * @return <code>true</code> if the logcat is being read
+     */
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * Get the logcat received at or after the given time.
+     *
+     * @param time the host time in ms
+     * @param maxBytes the maximum number of bytes to return, counting back from the most recent
+     * @return the logcat data
+     */
+    byte[] getLogcatSince(long time, int maxBytes) {
+        return mBuffer.getDataSince(time, maxBytes);
+    }
+
+    private void readLogcat() {
+        while (mRunning) {
+            try {
+                // no timeout, the command only ends once this receiver is cancelled
+                mDevice.executeShellCommand(LOGCAT_CMD, this, 0, 0);
+            } catch (DeviceNotAvailableException e) {
+                CLog.w("Device %s became unavailable while reading logcat",
+                        mDevice.getSerialNumber());
+                mRunning = false;
+                return;
+            }
+            if (mRunning) {
+                CLog.d("Logcat of %s ended, restarting", mDevice.getSerialNumber());
+                RunUtil.getDefault().sleep(RESTART_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addOutput(byte[] data, int offset, int length) {
+        mBuffer.append(System.currentTimeMillis(), data, offset, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() {
+        // data is appended as soon as it is received
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCancelled() {
+        return !mRunning;
+    }
+}
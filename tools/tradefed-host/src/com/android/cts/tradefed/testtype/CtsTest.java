@@ -19,6 +19,7 @@ package com.android.cts.tradefed.testtype;
 import com.android.cts.tradefed.build.CtsBuildHelper;
 import com.android.cts.tradefed.device.DeviceInfoCollector;
 import com.android.cts.tradefed.result.CtsTestStatus;
+import com.android.cts.tradefed.result.PackageDurations;
 import com.android.cts.tradefed.result.PlanCreator;
 import com.android.cts.util.AbiUtils;
 import com.android.ddmlib.Log;
@@ -36,7 +37,6 @@ import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.result.ITestInvocationListener;
 import com.android.tradefed.result.InputStreamSource;
 import com.android.tradefed.result.LogDataType;
-import com.android.tradefed.result.ResultForwarder;
 import com.android.tradefed.testtype.IAbi;
 import com.android.tradefed.testtype.IBuildReceiver;
 import com.android.tradefed.testtype.IDeviceTest;
@@ -44,7 +44,6 @@ import com.android.tradefed.testtype.IRemoteTest;
 import com.android.tradefed.testtype.IResumableTest;
 import com.android.tradefed.testtype.IShardableTest;
 import com.android.tradefed.util.AbiFormatter;
-import com.android.tradefed.util.RunUtil;
 import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
 
 import junit.framework.Test;
@@ -60,6 +59,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -131,6 +131,11 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
         "concurrently.")
     private int mShards = 1;
 
+    @Option(name = "dynamic-shards", description =
+        "when sharding, have each shard take the next test package from a queue shared by all " +
+        "shards as its device becomes free, instead of running a fixed subset of packages.")
+    private boolean mDynamicShards = false;
+
     @Option(name = "screenshot", description =
         "flag for taking a screenshot of the device when test execution is complete.")
     private boolean mScreenshot = false;
@@ -180,6 +185,21 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             "Collect dEQP logs from the device.")
     private boolean mCollectDeqpLogs = false;
 
+    @Option(name = "deqp-batch-duration", description =
+            "Target duration in ms of each dEQP instrumentation run. If set, the number of " +
+            "testcases per run adapts to the measured test speed.")
+    private long mDeqpBatchDuration = 0;
+
+    @Option(name = "async-result-listeners", description =
+            "Deliver test results to the result listeners on a separate thread, so slow " +
+            "listeners don't hold up the test run.")
+    private boolean mAsyncResultListeners = false;
+
+    @Option(name = "async-result-queue-size", description =
+            "The max number of test result events that may wait to be delivered when " +
+            "--async-result-listeners is on.")
+    private int mAsyncResultQueueSize = AsyncResultForwarder.DEFAULT_QUEUE_SIZE;
+
     @Option(name = "min-pre-reboot-package-count", description =
             "The minimum number of packages to require a pre test reboot")
 
@@ -197,6 +217,15 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
     private List<TestPackage> mTestPackageList = new ArrayList<>();
     // The index in the pacakge list of the last test to complete
     private int mLastTestPackageIndex = 0;
+    // The elapsed times of packages in previous sessions, used to balance shards. Read once in
+    // {@code split} so all shards compute the same partition.
+    private Map<String, Long> mPackageDurations = Collections.emptyMap();
+    // The queue of packages shared by all shards created by {@code split} when using dynamic
+    // shards, or null if this shard runs a fixed list of packages.
+    private SharedPackageQueue mPackageQueue = null;
+    // The packages this shard can take from {@code mPackageQueue}, by id. populated in
+    // {@code setupTestPackageList}
+    private Map<String, TestPackage> mQueuedPackages = null;
 
     /** data structure for a {@link IRemoteTest} and its known tests */
     static class TestPackage {
@@ -237,83 +266,6 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
         }
     }
 
-    /**
-     * A {@link ResultForwarder} that will forward a bugreport on each failed test.
-     */
-    private static class FailedTestBugreportGenerator extends ResultForwarder {
-        private ITestDevice mDevice;
-
-        public FailedTestBugreportGenerator(ITestInvocationListener listener, ITestDevice device) {
-            super(listener);
-            mDevice = device;
-        }
-
-        @Override
-        public void testFailed(TestIdentifier test, String trace) {
-            super.testFailed(test, trace);
-            InputStreamSource bugSource = mDevice.getBugreport();
-            super.testLog(String.format("bug-%s_%s", test.getClassName(), test.getTestName()),
-                    LogDataType.TEXT, bugSource);
-            bugSource.cancel();
-        }
-    }
-
-    /**
-     * A {@link ResultForwarder} that will forward a logcat snapshot on each failed test.
-     */
-    private static class FailedTestLogcatGenerator extends ResultForwarder {
-        private ITestDevice mDevice;
-        private int mNumLogcatBytes;
-
-        public FailedTestLogcatGenerator(ITestInvocationListener listener, ITestDevice device,
-                int maxLogcatBytes) {
-            super(listener);
-            mDevice = device;
-            mNumLogcatBytes = maxLogcatBytes;
-        }
-
-        @Override
-        public void testFailed(TestIdentifier test, String trace) {
-            super.testFailed(test, trace);
-            // sleep a small amount of time to ensure test failure stack trace makes it into logcat
-            // capture
-            RunUtil.getDefault().sleep(10);
-            InputStreamSource logSource = mDevice.getLogcat(mNumLogcatBytes);
-            super.testLog(String.format("logcat-%s_%s", test.getClassName(), test.getTestName()),
-                    LogDataType.TEXT, logSource);
-            logSource.cancel();
-        }
-    }
-
-    /**
-     * A {@link ResultForwarder} that will forward a screenshot on test failures.
-     */
-    private static class FailedTestScreenshotGenerator extends ResultForwarder {
-        private ITestDevice mDevice;
-
-        public FailedTestScreenshotGenerator(ITestInvocationListener listener,
-                ITestDevice device) {
-            super(listener);
-            mDevice = device;
-        }
-
-        @Override
-        public void testFailed(TestIdentifier test, String trace) {
-            super.testFailed(test, trace);
-
-            try {
-                InputStreamSource screenSource = mDevice.getScreenshot();
-                super.testLog(String.format("screenshot-%s_%s", test.getClassName(),
-                        test.getTestName()), LogDataType.PNG, screenSource);
-                screenSource.cancel();
-            } catch (DeviceNotAvailableException e) {
-                // TODO: rethrow this somehow
-                CLog.e("Device %s became unavailable while capturing screenshot, %s",
-                        mDevice.getSerialNumber(), e.toString());
-            }
-        }
-    }
-
     /**
      * Create a new {@link CtsTest} that will run the default list of {@link TestPackage}s.
      */
@@ -451,6 +403,15 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
         mCtsBuild = buildHelper;
     }
 
+    /**
+     * Set the queue of packages shared with other shards.
+     * <p/>
+     * Exposed for unit testing
+     */
+    void setPackageQueue(SharedPackageQueue packageQueue) {
+        mPackageQueue = packageQueue;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -468,42 +429,69 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
 
         checkFields();
         setupTestPackageList(abiSet);
-        if (mBugreport) {
-            listener = new FailedTestBugreportGenerator(listener, getDevice());
-        }
-        if (mScreenshotOnFailures) {
-            listener = new FailedTestScreenshotGenerator(listener, getDevice());
-        }
-        if (mLogcatOnFailures) {
-            listener = new FailedTestLogcatGenerator(listener, getDevice(), mMaxLogcatBytes);
-        }
-
-        // Setup the a map of Test id to ResultFilter
-        Map<String, ResultFilter> filterMap = new HashMap<>();
-        int totalTestCount = 0;
-        for (TestPackage testPackage : mTestPackageList) {
-            ResultFilter resultFilter = new ResultFilter(listener, testPackage);
-            totalTestCount += resultFilter.getKnownTestCount();
-            filterMap.put(testPackage.getPackageDef().getId(), resultFilter);
+        // the packages this shard may run. When using the shared queue, only the packages taken
+        // from it so far are in mTestPackageList
+        List<TestPackage> availablePackages = mTestPackageList;
+        if (mQueuedPackages != null) {
+            availablePackages = new ArrayList<>(mQueuedPackages.values());
         }
 
         // collect and install the prerequisiteApks first, to save time when multiple test
         // packages are using the same prerequisite apk
-        Map<String, Set<String>> prerequisiteApks = getPrerequisiteApks(mTestPackageList, abiSet);
-        Collection<String> uninstallPackages = getPrerequisitePackageNames(mTestPackageList);
+        Map<String, Set<String>> prerequisiteApks = getPrerequisiteApks(availablePackages, abiSet);
+        Collection<String> uninstallPackages = getPrerequisitePackageNames(availablePackages);
 
+        AsyncResultForwarder asyncForwarder = null;
+        FailureLogCollector failureLogCollector = null;
+        // Setup the a map of Test id to ResultFilter
+        Map<String, ResultFilter> filterMap = new HashMap<>();
         try {
+            // created in the try, since they start threads that close() has to stop
+            if (mAsyncResultListeners) {
+                asyncForwarder = new AsyncResultForwarder(mAsyncResultQueueSize, listener);
+                listener = asyncForwarder;
+            }
+            if (mBugreport || mScreenshotOnFailures || mLogcatOnFailures) {
+                failureLogCollector = new FailureLogCollector(listener, getDevice());
+                if (mBugreport) {
+                    failureLogCollector.enableBugreport();
+                }
+                if (mScreenshotOnFailures) {
+                    failureLogCollector.enableScreenshot();
+                }
+                if (mLogcatOnFailures) {
+                    failureLogCollector.enableLogcat(mMaxLogcatBytes);
+                }
+                listener = failureLogCollector;
+            }
+
+            int totalTestCount = 0;
+            for (TestPackage testPackage : mTestPackageList) {
+                ResultFilter resultFilter = new ResultFilter(listener, testPackage);
+                totalTestCount += resultFilter.getKnownTestCount();
+                filterMap.put(testPackage.getPackageDef().getId(), resultFilter);
+            }
+
             // always collect the device info, even for resumed runs, since test will likely be
             // running on a different device
             collectDeviceInfo(getDevice(), mCtsBuild, listener);
-            preRebootIfNecessary(mTestPackageList);
+            preRebootIfNecessary(availablePackages);
 
             mPrevRebootTime = System.currentTimeMillis();
-            int remainingPackageCount = mTestPackageList.size();
-            Log.logAndDisplay(LogLevel.INFO, LOG_TAG,
-                String.format("Start test run of %,d packages, containing %,d tests",
-                    remainingPackageCount, totalTestCount));
+            if (mQueuedPackages != null) {
+                Log.logAndDisplay(LogLevel.INFO, LOG_TAG,
+                    String.format("Start test run of packages from shared queue (%,d remaining)",
+                        mPackageQueue.size()));
+            } else {
+                int remainingPackageCount = mTestPackageList.size();
+                Log.logAndDisplay(LogLevel.INFO, LOG_TAG,
+                    String.format("Start test run of %,d packages, containing %,d tests",
+                        remainingPackageCount, totalTestCount));
+            }
             IAbi currentAbi = null;
+            if (mLastTestPackageIndex >= mTestPackageList.size()) {
+                takeNextPackage(null, filterMap, listener);
+            }
 
             for (int i = mLastTestPackageIndex; i < mTestPackageList.size(); i++) {
                 TestPackage testPackage = mTestPackageList.get(i);
@@ -524,10 +512,14 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
                 }
                 if (test instanceof DeqpTestRunner) {
                     ((DeqpTestRunner)test).setCollectLogs(mCollectDeqpLogs);
+                    ((DeqpTestRunner)test).setTargetBatchDuration(mDeqpBatchDuration);
                 }
 
                 forwardPackageDetails(testPackage.getPackageDef(), listener);
                 test.run(filterMap.get(testPackage.getPackageDef().getId()));
+                if (i == mTestPackageList.size() - 1) {
+                    takeNextPackage(currentAbi, filterMap, listener);
+                }
                 if (i < mTestPackageList.size() - 1) {
                     TestPackage nextPackage = mTestPackageList.get(i + 1);
                     rebootIfNecessary(testPackage, nextPackage);
@@ -558,6 +550,37 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             for (ResultFilter filter : filterMap.values()) {
                 filter.reportUnexecutedTests();
             }
+            if (failureLogCollector != null) {
+                failureLogCollector.close();
+            }
+            if (asyncForwarder != null) {
+                asyncForwarder.close();
+            }
+            DigestCache.saveAll();
+        }
+    }
+
+    /**
+     * Take the next package this shard can run from the shared queue, if any, and append it to
+     * {@code mTestPackageList}.
+     *
+     * @param currentAbi the {@link IAbi} of the last package run. Packages with the same ABI are
+     * preferred.
+     * @param filterMap the map of test id to {@link ResultFilter} to add the package to, so its
+     * tests are reported as not executed if the run is aborted
+     * @param listener the {@link ITestInvocationListener} to report the package results to
+     */
+    private void takeNextPackage(IAbi currentAbi, Map<String, ResultFilter> filterMap,
+            ITestInvocationListener listener) {
+        if (mQueuedPackages == null) {
+            return;
+        }
+        String id = mPackageQueue.take(mQueuedPackages.keySet(),
+                currentAbi == null ? null : currentAbi.getName());
+        if (id != null) {
+            TestPackage testPackage = mQueuedPackages.get(id);
+            mTestPackageList.add(testPackage);
+            filterMap.put(id, new ResultFilter(listener, testPackage));
         }
     }
 
@@ -676,7 +699,7 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
      * Set {@code mTestPackageList} to the list of test packages to run filtered by ABI.
      */
     private void setupTestPackageList(Set<String> abis) throws DeviceNotAvailableException {
-        if (!mTestPackageList.isEmpty()) {
+        if (!mTestPackageList.isEmpty() || mQueuedPackages != null) {
             Log.logAndDisplay(LogLevel.INFO, LOG_TAG, "Resume tests using existing package list");
             return;
         }
@@ -697,15 +720,20 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
                 }
             }
 
-            // Filter by shard
-            int numTestPackages = testPackageList.size();
-            int totalShards = Math.min(mTotalShards, numTestPackages);
-
-            List<TestPackage> shardTestPackageList = new ArrayList<>();
-            for (int i = mShardAssignment; i < numTestPackages; i += totalShards) {
-                shardTestPackageList.add(testPackageList.get(i));
+            ShardBalancer balancer = new ShardBalancer(mPackageDurations);
+            if (mPackageQueue != null) {
+                // packages are taken from the queue shared with other shards while running.
+                // Queue the longest packages first, so the last ones to finish are short
+                mQueuedPackages = new LinkedHashMap<>();
+                for (TestPackage testPackage : balancer.sortByCost(testPackageList)) {
+                    mQueuedPackages.put(testPackage.getPackageDef().getId(), testPackage);
+                }
+                mPackageQueue.addAll(mQueuedPackages.keySet());
+            } else {
+                // Filter by shard
+                mTestPackageList.addAll(balancer.getShard(testPackageList, mShardAssignment,
+                        mTotalShards));
             }
-            mTestPackageList.addAll(shardTestPackageList);
         } catch (FileNotFoundException e) {
             throw new IllegalArgumentException("failed to find XTS plan file", e);
         } catch (ParseException e) {
@@ -921,6 +949,8 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
         }
         checkFields();
 
+        Map<String, Long> packageDurations = getPackageDurations();
+        SharedPackageQueue packageQueue = mDynamicShards ? new SharedPackageQueue() : null;
         List<IRemoteTest> shardQueue = new LinkedList<>();
         for (int shardAssignment = 0; shardAssignment < mShards; shardAssignment++) {
             CtsTest ctsTest = new CtsTest(shardAssignment, mShards /* totalShards */);
@@ -928,6 +958,8 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
             // Set the shard count because the copy option on the previous line copies
             // over the mShard value
             ctsTest.mShards = 0;
+            ctsTest.mPackageDurations = packageDurations;
+            ctsTest.mPackageQueue = packageQueue;
             shardQueue.add(ctsTest);
         }
 
@@ -959,6 +991,15 @@ public class CtsTest implements IDeviceTest, IResumableTest, IShardableTest, IBu
         return new TestPackageRepo(mCtsBuild.getTestCasesDir(), mIncludeKnownFailures);
     }
 
+    /**
+     * Get the elapsed time of each package in previous sessions.
+     * <p/>
+     * Exposed for unit testing
+     */
+    Map<String, Long> getPackageDurations() {
+        return PackageDurations.loadRecent(mCtsBuild.getResultsDir());
+    }
+
     /**
      * Factory method for creating a {@link TestPlan}.
      * <p/>
@@ -16,13 +16,13 @@ import com.android.tradefed.testtype.IBuildReceiver;
 import com.android.tradefed.testtype.IDeviceTest;
 import com.android.tradefed.testtype.IRemoteTest;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -36,9 +36,13 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
     private static final String DEQP_ONDEVICE_PKG = "com.drawelements.deqp";
     private static final String INCOMPLETE_LOG_MESSAGE = "Crash: Incomplete test log";
 
-    private final int TESTCASE_BATCH_LIMIT = 1000;
+    static final int TESTCASE_BATCH_LIMIT = 1000;
+    static final int MAX_ADAPTIVE_BATCH_SIZE = 50000;
+    static final int MAX_TEST_LOG_SIZE = 4 * 1024 * 1024;
 
     private boolean mLogData;
+    private long mTargetBatchDuration;
+    private int mBatchSize = TESTCASE_BATCH_LIMIT;
 
     private ITestDevice mDevice;
 
@@ -50,7 +54,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
 
     private TestIdentifier mCurrentTestId;
     private boolean mGotTestResult;
-    private String mCurrentTestLog;
+    private TestLogBuffer mCurrentTestLog;
 
     private ITestInvocationListener mListener;
 
@@ -94,6 +98,18 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
         mLogData = logData;
     }
 
+    /**
+     * Set the target duration of each instrumentation run. If positive, the number of testcases
+     * run per instrumentation adapts to the measured test speed, so fast test groups need fewer
+     * instrumentation restarts. Otherwise each run executes at most {@link #TESTCASE_BATCH_LIMIT}
+     * testcases.
+     *
+     * @param durationMs the target duration in ms
+     */
+    public void setTargetBatchDuration(long durationMs) {
+        mTargetBatchDuration = durationMs;
+    }
+
     /**
      * dEQP instrumentation parser
      */
@@ -102,7 +118,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
 
         private Map<String, String> mValues;
         private String mCurrentName;
-        private String mCurrentValue;
+        private StringBuilder mCurrentValue;
 
 
         public InstrumentationParser(DeqpTestRunner tests) {
@@ -119,7 +135,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
 
                 if (line.startsWith("INSTRUMENTATION_STATUS_CODE: ")) {
                     if (mCurrentName != null) {
-                        mValues.put(mCurrentName, mCurrentValue);
+                        mValues.put(mCurrentName, mCurrentValue.toString());
 
                         mCurrentName = null;
                         mCurrentValue = null;
@@ -129,7 +145,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
                     mValues = null;
                 } else if (line.startsWith("INSTRUMENTATION_STATUS: dEQP-")) {
                     if (mCurrentName != null) {
-                        mValues.put(mCurrentName, mCurrentValue);
+                        mValues.put(mCurrentName, mCurrentValue.toString());
 
                         mCurrentValue = null;
                         mCurrentName = null;
@@ -141,9 +157,10 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
                     int valueBegin = nameEnd + 1;
 
                     mCurrentName = line.substring(nameBegin, nameEnd);
-                    mCurrentValue = line.substring(valueBegin);
+                    mCurrentValue = new StringBuilder(line.length() - valueBegin);
+                    mCurrentValue.append(line, valueBegin, line.length());
                 } else if (mCurrentValue != null) {
-                    mCurrentValue = mCurrentValue + line;
+                    mCurrentValue.append(line);
                 }
             }
         }
@@ -154,7 +171,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
         @Override
         public void done() {
             if (mCurrentName != null) {
-                mValues.put(mCurrentName, mCurrentValue);
+                mValues.put(mCurrentName, mCurrentValue.toString());
 
                 mCurrentName = null;
                 mCurrentValue = null;
@@ -175,6 +192,45 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
         }
     }
 
+    /**
+     * The raw log of a dEQP testcase, capped at a maximum size so a verbose test can't exhaust the
+     * heap.
+     */
+    static class TestLogBuffer {
+        private final ByteArrayOutputStream mData = new ByteArrayOutputStream();
+        private final int mMaxSize;
+        private boolean mTruncated = false;
+
+        TestLogBuffer(int maxSize) {
+            mMaxSize = maxSize;
+        }
+
+        /**
+         * Appends log data, dropping anything beyond the maximum size.
+         */
+        void append(String data) {
+            if (data == null || mTruncated) {
+                return;
+            }
+            byte[] bytes = data.getBytes();
+            int length = Math.min(bytes.length, mMaxSize - mData.size());
+            mData.write(bytes, 0, length);
+            mTruncated = length < bytes.length;
+        }
+
+        boolean isEmpty() {
+            return mData.size() == 0;
+        }
+
+        boolean isTruncated() {
+            return mTruncated;
+        }
+
+        byte[] getBytes() {
+            return mData.toByteArray();
+        }
+    }
+
     /**
      * Converts dEQP testcase path to TestIdentifier.
      */
@@ -215,7 +271,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
      */
     private void handleBeginTestCase(Map<String, String> values) {
         mCurrentTestId = pathToIdentifier(values.get("dEQP-BeginTestCase-TestCasePath"));
-        mCurrentTestLog = "";
+        mCurrentTestLog = mLogData ? new TestLogBuffer(MAX_TEST_LOG_SIZE) : null;
         mGotTestResult = false;
 
         mListener.testStarted(mCurrentTestId);
@@ -233,15 +289,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
                     INCOMPLETE_LOG_MESSAGE);
         }
 
-        if (mLogData && mCurrentTestLog != null && mCurrentTestLog.length() > 0) {
-            ByteArrayInputStreamSource source
-                    = new ByteArrayInputStreamSource(mCurrentTestLog.getBytes());
-
-            mListener.testLog(mCurrentTestId.getClassName() + "."
-                    + mCurrentTestId.getTestName(), LogDataType.XML, source);
-
-            source.cancel();
-        }
+        reportTestLog();
 
         mListener.testEnded(mCurrentTestId, emptyMap);
         mCurrentTestId = null;
@@ -286,15 +334,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
                 "Terminated: " + reason);
         mListener.testEnded(mCurrentTestId, emptyMap);
 
-        if (mLogData && mCurrentTestLog != null && mCurrentTestLog.length() > 0) {
-            ByteArrayInputStreamSource source
-                    = new ByteArrayInputStreamSource(mCurrentTestLog.getBytes());
-
-            mListener.testLog(mCurrentTestId.getClassName() + "."
-                    + mCurrentTestId.getTestName(), LogDataType.XML, source);
-
-            source.cancel();
-        }
+        reportTestLog();
 
         mCurrentTestId = null;
         mGotTestResult = true;
@@ -304,7 +344,30 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
      * Handles dEQP testlog data.
      */
     private void handleTestLogData(Map<String, String> values) {
-        mCurrentTestLog = mCurrentTestLog + values.get("dEQP-TestLogData-Log");
+        if (mCurrentTestLog != null) {
+            mCurrentTestLog.append(values.get("dEQP-TestLogData-Log"));
+        }
+    }
+
+    /**
+     * Forwards the log of the current testcase to the listener, if logs are collected.
+     */
+    private void reportTestLog() {
+        if (mCurrentTestLog == null || mCurrentTestLog.isEmpty()) {
+            return;
+        }
+        if (mCurrentTestLog.isTruncated()) {
+            CLog.w("Log of %s exceeded %d bytes and was truncated", mCurrentTestId,
+                    MAX_TEST_LOG_SIZE);
+        }
+        ByteArrayInputStreamSource source
+                = new ByteArrayInputStreamSource(mCurrentTestLog.getBytes());
+
+        mListener.testLog(mCurrentTestId.getClassName() + "."
+                + mCurrentTestId.getTestName(), LogDataType.XML, source);
+
+        source.cancel();
+        mCurrentTestLog = null;
     }
 
     /**
@@ -335,73 +398,109 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
     }
 
     /**
-     * Generates tescase trie from dEQP testcase paths. Used to define which testcases to execute.
+     * A node of the dEQP testcase trie, either a testcase or a test group.
      */
-    private String generateTestCaseTrieFromPaths(Collection<String> tests) {
-        String result = "{";
-        boolean first = true;
-
-        // Add testcases to results
-        for (Iterator<String> iter = tests.iterator(); iter.hasNext();) {
-            String test = iter.next();
-            String[] components = test.split("\\.");
-
-            if (components.length == 1) {
-                if (!first) {
-                    result = result + ",";
-                }
-                first = false;
+    private static class TestCaseTrieNode {
+        private final Map<String, TestCaseTrieNode> mChildren =
+                new LinkedHashMap<String, TestCaseTrieNode>();
+        /** whether this node is a testcase, a test group may also be a testcase */
+        private boolean mIsTestCase = false;
 
-                result += components[0];
-                iter.remove();
+        /**
+         * Get the child node with the given name, adding it if needed.
+         */
+        TestCaseTrieNode getChild(String name) {
+            TestCaseTrieNode child = mChildren.get(name);
+            if (child == null) {
+                child = new TestCaseTrieNode();
+                mChildren.put(name, child);
             }
+            return child;
         }
 
-        if (!tests.isEmpty()) {
-            HashMap<String, ArrayList<String> > testGroups = new HashMap<>();
-
-            // Collect all sub testgroups
-            for (String test : tests) {
-                String[] components = test.split("\\.");
-                ArrayList<String> testGroup = testGroups.get(components[0]);
+        /**
+         * Marks this node as a testcase.
+         */
+        void setTestCase() {
+            mIsTestCase = true;
+        }
 
-                if (testGroup == null) {
-                    testGroup = new ArrayList<String>();
-                    testGroups.put(components[0], testGroup);
+        /**
+         * Writes the children of this node in the dEQP case list format, testcases first. A child
+         * that is both a testcase and a test group is written as both.
+         */
+        void write(StringBuilder builder) {
+            builder.append('{');
+            boolean first = true;
+            for (Map.Entry<String, TestCaseTrieNode> child : mChildren.entrySet()) {
+                if (child.getValue().mIsTestCase) {
+                    if (!first) {
+                        builder.append(',');
+                    }
+                    first = false;
+                    builder.append(child.getKey());
                 }
-
-                testGroup.add(test.substring(components[0].length()+1));
             }
-
-            for (String testGroup : testGroups.keySet()) {
-                if (!first) {
-                    result = result + ",";
+            for (Map.Entry<String, TestCaseTrieNode> child : mChildren.entrySet()) {
+                if (!child.getValue().mChildren.isEmpty()) {
+                    if (!first) {
+                        builder.append(',');
+                    }
+                    first = false;
+                    builder.append(child.getKey());
+                    child.getValue().write(builder);
                 }
-
-                first = false;
-                result = result + testGroup
-                        + generateTestCaseTrieFromPaths(testGroups.get(testGroup));
             }
+            builder.append('}');
         }
-
-        return result + "}";
     }
 
     /**
-     * Generates testcase trie from TestIdentifiers.
+     * Generates testcase trie from TestIdentifiers. Used to define which testcases to execute.
+     *
+     * @param tests the tests to execute
+     * @param batchSize the maximum number of tests to include
      */
-    private String generateTestCaseTrie(Collection<TestIdentifier> tests) {
-        ArrayList<String> testPaths = new ArrayList<String>();
+    static String generateTestCaseTrie(Collection<TestIdentifier> tests, int batchSize) {
+        TestCaseTrieNode root = new TestCaseTrieNode();
+        int count = 0;
 
         for (TestIdentifier test : tests) {
-            testPaths.add(test.getClassName() + "." + test.getTestName());
-
             // Limit number of testcases for each run
-            if (testPaths.size() > TESTCASE_BATCH_LIMIT)
+            if (count++ >= batchSize) {
                 break;
+            }
+
+            TestCaseTrieNode node = root;
+            String className = test.getClassName();
+            int begin = 0;
+            int end;
+            while ((end = className.indexOf('.', begin)) != -1) {
+                node = node.getChild(className.substring(begin, end));
+                begin = end + 1;
+            }
+            node = node.getChild(className.substring(begin));
+            node.getChild(test.getTestName()).setTestCase();
         }
 
-        return generateTestCaseTrieFromPaths(testPaths);
+        StringBuilder builder = new StringBuilder();
+        root.write(builder);
+        return builder.toString();
+    }
+
+    /**
+     * Calculates the size of the next batch so that it takes roughly the target duration, based on
+     * the duration of the previous batch.
+     *
+     * @param executed the number of tests executed by the previous batch
+     * @param elapsedMs the duration of the previous batch
+     * @param targetMs the target batch duration
+     * @return the batch size, between {@link #TESTCASE_BATCH_LIMIT} and
+     * {@link #MAX_ADAPTIVE_BATCH_SIZE}
+     */
+    static int getAdaptiveBatchSize(int executed, long elapsedMs, long targetMs) {
+        long size = executed * targetMs / Math.max(elapsedMs, 1);
+        return (int) Math.max(TESTCASE_BATCH_LIMIT, Math.min(MAX_ADAPTIVE_BATCH_SIZE, size));
     }
 
     /**
@@ -411,7 +510,7 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
         InstrumentationParser parser = new InstrumentationParser(this);
         String caseListFileName = "/sdcard/dEQP-TestCaseList.txt";
         String logFileName = "/sdcard/TestLog.qpa";
-        String testCases = generateTestCaseTrie(mTests);
+        String testCases = generateTestCaseTrie(mTests, mBatchSize);
 
         mDevice.executeShellCommand("rm " + caseListFileName);
         mDevice.executeShellCommand("rm " + logFileName);
@@ -487,21 +586,26 @@ public class DeqpTestRunner implements IBuildReceiver, IDeviceTest, IRemoteTest
             installTestApk();
 
             while (!mTests.isEmpty()) {
+                int remaining = mTests.size();
+                long startTime = System.currentTimeMillis();
                 executeTests(listener);
+                long elapsedTime = System.currentTimeMillis() - startTime;
+
+                if (mTargetBatchDuration > 0) {
+                    if (mCurrentTestId != null) {
+                        // the run crashed, so fall back to small batches
+                        mBatchSize = TESTCASE_BATCH_LIMIT;
+                    } else {
+                        mBatchSize = getAdaptiveBatchSize(remaining - mTests.size(), elapsedTime,
+                                mTargetBatchDuration);
+                    }
+                }
 
                 // Set test to failed if it didn't receive test result
                 if (mCurrentTestId != null) {
                     Map <String, String> emptyMap = Collections.emptyMap();
 
-                    if (mLogData && mCurrentTestLog != null && mCurrentTestLog.length() > 0) {
-                        ByteArrayInputStreamSource source
-                                = new ByteArrayInputStreamSource(mCurrentTestLog.getBytes());
-
-                        mListener.testLog(mCurrentTestId.getClassName() + "."
-                                + mCurrentTestId.getTestName(), LogDataType.XML, source);
-
-                        source.cancel();
-                    }
+                    reportTestLog();
                     if (!mGotTestResult) {
                         mListener.testFailed(mCurrentTestId,
                             INCOMPLETE_LOG_MESSAGE);
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.tradefed.util.AtomicFileUtil;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * A persistent cache of test artifact digests, keyed by file path and validated against the
+ * size and modification time of the file.
+ * <p/>
+ * The cache for a test case directory is stored in a file next to it, and shared by all
+ * {@link TestPackageDef}s in the process.
+ */
+class DigestCache {
+
+    private static final String CACHE_FILE_EXT = ".digests";
+    private static final String VALUE_SEPARATOR = ",";
+
+    /** the caches in use by this process, by cache file path */
+    private static final Map<String, DigestCache> sCaches = new HashMap<String, DigestCache>();
+
+    private final File mCacheFile;
+    private final Properties mDigests = new Properties();
+
+    private boolean mModified = false;
+
+    private DigestCache(File cacheFile) {
+        mCacheFile = cacheFile;
+        AtomicFileUtil.loadProperties(mCacheFile, mDigests);
+    }
+
+    /**
+     * Get the cache for the given test case directory.
+     *
+     * @param testCaseDir the directory containing the test artifacts
+     * @return the {@link DigestCache}
+     */
+    static synchronized DigestCache getInstance(File testCaseDir) {
+        File dir = testCaseDir.getAbsoluteFile();
+        File cacheFile = new File(dir.getParentFile(), dir.getName() + CACHE_FILE_EXT);
+        DigestCache cache = sCaches.get(cacheFile.getPath());
+        if (cache == null) {
+            cache = new DigestCache(cacheFile);
+            sCaches.put(cacheFile.getPath(), cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Write all caches that changed back to disk.
+     * <p/>
+     * Digests are computed for every package of a run, so the caches are written once at the end
+     * of the run rather than once per digest.
+     */
+    static synchronized void saveAll() {
+        for (DigestCache cache : sCaches.values()) {
+            cache.save();
+        }
+    }
+
+    /**
+     * Get the cached digest of the given file.
+     *
+     * @return the digest, or <code>null</code> if the file is not cached or changed since
+     */
+    synchronized String get(File file) {
+        String value = mDigests.getProperty(file.getAbsolutePath());
+        if (value == null || !file.isFile()) {
+            return null;
+        }
+        String[] parts = value.split(VALUE_SEPARATOR);
+        if (parts.length != 3 || !parts[0].equals(Long.toString(file.length()))
+                || !parts[1].equals(Long.toString(file.lastModified()))) {
+            return null;
+        }
+        return parts[2];
+    }
+
+    /**
+     * Cache the digest of the given file. The cache is written back to disk by {@link #saveAll()}.
+     */
+    synchronized void put(File file, String digest) {
+        if (!file.isFile()) {
+            return;
+        }
+        mDigests.setProperty(file.getAbsolutePath(), file.length() + VALUE_SEPARATOR
+                + file.lastModified() + VALUE_SEPARATOR + digest);
+        mModified = true;
+    }
+
+    /**
+     * Write the cache back to disk, if it changed.
+     */
+    private synchronized void save() {
+        if (mModified) {
+            AtomicFileUtil.storeProperties(mCacheFile, mDigests);
+            mModified = false;
+        }
+    }
+}
@@ -0,0 +1,505 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.device.DeviceNotAvailableException;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.result.ByteArrayInputStreamSource;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.result.InputStreamSource;
+import com.android.tradefed.result.LogDataType;
+import com.android.tradefed.result.ResultForwarder;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.RunUtil;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link ResultForwarder} that captures a bugreport, screenshot and/or logcat snapshot of the
+ * device on each failed test.
+ * <p/>
+ * Logs are captured on background threads, one per kind of log, so a slow capture doesn't block
+ * the test output being parsed. Result events that follow a failure are held back until its logs
+ * are captured, so listeners still see every event in the original order, with the logs of a
+ * failure reported right after it. Logs reported by others while events are held back are
+ * copied to a temp file, since their source may be cancelled once they have been reported.
+ * <p/>
+ * At most {@link #MAX_PENDING_CAPTURES} logs are captured at a time; further failures wait for
+ * the oldest capture to complete. Failures while a bugreport is already being captured don't
+ * trigger another one.
+ * <p/>
+ * All pending events are forwarded at the end of each test run, and by {@link #close()}.
+ */
+class FailureLogCollector extends ResultForwarder {
+
+    static final int MAX_PENDING_CAPTURES = 8;
+
+    private final ITestDevice mDevice;
+    private ExecutorService mBugreportExecutor = null;
+    private ExecutorService mScreenshotExecutor = null;
+    private ExecutorService mLogcatExecutor = null;
+    private int mMaxLogcatBytes;
+    private BackgroundLogcatReader mLogcatReader = null;
+    /** the host time the current test started at */
+    private long mTestStartTime = 0;
+
+    /** events not yet forwarded, in the order they were received */
+    private final LinkedList<Event> mEvents = new LinkedList<Event>();
+    private int mPendingCaptures = 0;
+    private Future<InputStreamSource> mLastBugreport = null;
+
+    /**
+     * A result event waiting to be forwarded.
+     */
+    private abstract static class Event {
+        boolean isReady() {
+            return true;
+        }
+
+        abstract void forward();
+    }
+
+    /**
+     * A log being captured on a background thread.
+     */
+    private class CapturedLog extends Event {
+        private final String mDataName;
+        private final LogDataType mDataType;
+        private final Future<InputStreamSource> mSource;
+
+        CapturedLog(String dataName, LogDataType dataType, Future<InputStreamSource> source) {
+            mDataName = dataName;
+            mDataType = dataType;
+            mSource = source;
+        }
+
+        @Override
+        boolean isReady() {
+            return mSource.isDone();
+        }
+
+        @Override
+        void forward() {
+            mPendingCaptures--;
+            InputStreamSource source = null;
+            try {
+                source = mSource.get();
+            } catch (InterruptedException e) {
+                CLog.e("Interrupted while capturing %s", mDataName);
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                CLog.e("Failed to capture %s on device %s: %s", mDataName,
+                        mDevice.getSerialNumber(), e.getCause().toString());
+            }
+            if (source != null) {
+                FailureLogCollector.super.testLog(mDataName, mDataType, source);
+                source.cancel();
+            }
+        }
+    }
+
+    /**
+     * A log copied to a temp file, which is deleted when the log is cancelled.
+     */
+    private static class TempFileLog implements InputStreamSource {
+        private final File mFile;
+
+        TempFileLog(File file) {
+            mFile = file;
+        }
+
+        @Override
+        public InputStream createInputStream() {
+            try {
+                return new BufferedInputStream(new FileInputStream(mFile));
+            } catch (IOException e) {
+                CLog.e("Failed to read %s: %s", mFile.getAbsolutePath(), e.toString());
+                return null;
+            }
+        }
+
+        @Override
+        public void cancel() {
+            FileUtil.deleteFile(mFile);
+        }
+
+        @Override
+        public long size() {
+            return mFile.length();
+        }
+    }
+
+    /**
+     * Create a {@link FailureLogCollector}. No logs are captured until enabled.
+     *
+     * @param listener the {@link ITestInvocationListener} to forward results to
+     * @param device the {@link ITestDevice} to capture logs from
+     */
+    FailureLogCollector(ITestInvocationListener listener, ITestDevice device) {
+        super(listener);
+        mDevice = device;
+    }
+
+    /**
+     * Capture a bugreport on each failure.
+     */
+    void enableBugreport() {
+        mBugreportExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Capture a screenshot on each failure.
+     */
+    void enableScreenshot() {
+        mScreenshotExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Capture a logcat snapshot on each failure.
+     * <p/>
+     * The logcat is read continuously into a host side buffer, and the snapshot holds the logcat
+     * received since the failed test started.
+     *
+     * @param maxLogcatBytes the max number of logcat bytes to capture
+     */
+    void enableLogcat(int maxLogcatBytes) {
+        mMaxLogcatBytes = maxLogcatBytes;
+        mLogcatExecutor = Executors.newSingleThreadExecutor();
+        mLogcatReader = createLogcatReader(Math.max(maxLogcatBytes,
+                BackgroundLogcatReader.DEFAULT_BUFFER_SIZE));
+        mLogcatReader.start();
+    }
+
+    /**
+     * Create the {@link BackgroundLogcatReader} to use.
+     * <p/>
+     * Exposed for unit testing.
+     */
+    BackgroundLogcatReader createLogcatReader(int bufferSize) {
+        return new BackgroundLogcatReader(mDevice, bufferSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunStarted(final String runName, final int testCount) {
+        if (forwardReadyEvents()) {
+            super.testRunStarted(runName, testCount);
+        } else {
+            mEvents.add(new Event() {
+                @Override
+                void forward() {
+                    FailureLogCollector.super.testRunStarted(runName, testCount);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testStarted(final TestIdentifier test) {
+        mTestStartTime = System.currentTimeMillis();
+        if (forwardReadyEvents()) {
+            super.testStarted(test);
+        } else {
+            mEvents.add(new Event() {
+                @Override
+                void forward() {
+                    FailureLogCollector.super.testStarted(test);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testFailed(final TestIdentifier test, final String trace) {
+        if (forwardReadyEvents()) {
+            super.testFailed(test, trace);
+        } else {
+            mEvents.add(new Event() {
+                @Override
+                void forward() {
+                    FailureLogCollector.super.testFailed(test, trace);
+                }
+            });
+        }
+        captureLogs(test);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testAssumptionFailure(final TestIdentifier test, final String trace) {
+        if (forwardReadyEvents()) {
+            super.testAssumptionFailure(test, trace);
+        } else {
+            mEvents.add(new Event() {
+                @Override
+                void forward() {
+                    FailureLogCollector.super.testAssumptionFailure(test, trace);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testIgnored(final TestIdentifier test) {
+        if (forwardReadyEvents()) {
+            super.testIgnored(test);
+        } else {
+            mEvents.add(new Event() {
+                @Override
+                void forward() {
+                    FailureLogCollector.super.testIgnored(test);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testEnded(final TestIdentifier test, final Map<String, String> testMetrics) {
+        if (forwardReadyEvents()) {
+            super.testEnded(test, testMetrics);
+        } else {
+            mEvents.add(new Event() {
+                @Override
+                void forward() {
+                    FailureLogCollector.super.testEnded(test, testMetrics);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testLog(final String dataName, final LogDataType dataType,
+            InputStreamSource dataStream) {
+        if (forwardReadyEvents()) {
+            super.testLog(dataName, dataType, dataStream);
+            return;
+        }
+        // the source may be cancelled once this returns, so queue a copy of it
+        final InputStreamSource copy = copyLog(dataName, dataStream);
+        if (copy == null) {
+            flush();
+            super.testLog(dataName, dataType, dataStream);
+            return;
+        }
+        mEvents.add(new Event() {
+            @Override
+            void forward() {
+                FailureLogCollector.super.testLog(dataName, dataType, copy);
+                copy.cancel();
+            }
+        });
+    }
+
+    /**
+     * Copy a log to a temp file.
+     *
+     * @return the copy, or <code>null</code> if the log could not be copied
+     */
+    private static InputStreamSource copyLog(String dataName, InputStreamSource dataStream) {
+        File file = null;
+        InputStream in = null;
+        try {
+            in = dataStream.createInputStream();
+            if (in == null) {
+                return null;
+            }
+            file = FileUtil.createTempFile(dataName, ".log");
+            FileUtil.writeToFile(in, file);
+            return new TempFileLog(file);
+        } catch (IOException e) {
+            CLog.w("Failed to copy log %s: %s", dataName, e.toString());
+            FileUtil.deleteFile(file);
+            return null;
+        } finally {
+            StreamUtil.close(in);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunFailed(final String errorMessage) {
+        if (forwardReadyEvents()) {
+            super.testRunFailed(errorMessage);
+        } else {
+            mEvents.add(new Event() {
+                @Override
+                void forward() {
+                    FailureLogCollector.super.testRunFailed(errorMessage);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunStopped(final long elapsedTime) {
+        if (forwardReadyEvents()) {
+            super.testRunStopped(elapsedTime);
+        } else {
+            mEvents.add(new Event() {
+                @Override
+                void forward() {
+                    FailureLogCollector.super.testRunStopped(elapsedTime);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+        flush();
+        super.testRunEnded(elapsedTime, runMetrics);
+    }
+
+    /**
+     * Wait for all pending logs, and forward all pending events.
+     */
+    void flush() {
+        while (!mEvents.isEmpty()) {
+            mEvents.removeFirst().forward();
+        }
+    }
+
+    /**
+     * Forward all pending events, and stop the capture threads.
+     */
+    void close() {
+        flush();
+        shutdown(mBugreportExecutor);
+        shutdown(mScreenshotExecutor);
+        shutdown(mLogcatExecutor);
+        if (mLogcatReader != null) {
+            mLogcatReader.stop();
+        }
+    }
+
+    private static void shutdown(ExecutorService executor) {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Forward the pending events up to the first log that is still being captured.
+     *
+     * @return <code>true</code> if there are no more pending events
+     */
+    private boolean forwardReadyEvents() {
+        while (!mEvents.isEmpty() && mEvents.getFirst().isReady()) {
+            mEvents.removeFirst().forward();
+        }
+        return mEvents.isEmpty();
+    }
+
+    /**
+     * Start capturing the enabled logs for the given failed test.
+     */
+    private void captureLogs(TestIdentifier test) {
+        if (mBugreportExecutor != null) {
+            if (mLastBugreport != null && !mLastBugreport.isDone()) {
+                CLog.d("Bugreport already being captured, skipping bugreport for %s", test);
+            } else {
+                mLastBugreport = mBugreportExecutor.submit(new Callable<InputStreamSource>() {
+                    @Override
+                    public InputStreamSource call() {
+                        return mDevice.getBugreport();
+                    }
+                });
+                addCapture(new CapturedLog(String.format("bug-%s_%s", test.getClassName(),
+                        test.getTestName()), LogDataType.TEXT, mLastBugreport));
+            }
+        }
+        if (mScreenshotExecutor != null) {
+            Future<InputStreamSource> screenshot = mScreenshotExecutor.submit(
+                    new Callable<InputStreamSource>() {
+                @Override
+                public InputStreamSource call() throws DeviceNotAvailableException {
+                    return mDevice.getScreenshot();
+                }
+            });
+            addCapture(new CapturedLog(String.format("screenshot-%s_%s", test.getClassName(),
+                    test.getTestName()), LogDataType.PNG, screenshot));
+        }
+        if (mLogcatExecutor != null) {
+            final long testStartTime = mTestStartTime;
+            Future<InputStreamSource> logcat = mLogcatExecutor.submit(
+                    new Callable<InputStreamSource>() {
+                @Override
+                public InputStreamSource call() {
+                    // sleep a small amount of time to ensure test failure stack trace makes it
+                    // into logcat capture
+                    RunUtil.getDefault().sleep(10);
+                    if (mLogcatReader.isRunning()) {
+                        return new ByteArrayInputStreamSource(mLogcatReader.getLogcatSince(
+                                testStartTime, mMaxLogcatBytes));
+                    }
+                    return mDevice.getLogcat(mMaxLogcatBytes);
+                }
+            });
+            addCapture(new CapturedLog(String.format("logcat-%s_%s", test.getClassName(),
+                    test.getTestName()), LogDataType.TEXT, logcat));
+        }
+    }
+
+    private void addCapture(CapturedLog log) {
+        mEvents.add(log);
+        mPendingCaptures++;
+        // bound the number of logs held on to, by waiting for the oldest ones
+        while (mPendingCaptures > MAX_PENDING_CAPTURES) {
+            mEvents.removeFirst().forward();
+        }
+    }
+}
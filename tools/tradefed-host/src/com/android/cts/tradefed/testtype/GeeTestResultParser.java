@@ -92,6 +92,23 @@ import java.util.regex.Pattern;
 public class GeeTestResultParser extends MultiLineReceiver {
     private static final String LOG_TAG = "GTestResultParser";
 
+    private static final Pattern TEST_TIME_PATTERN =
+            Pattern.compile(".*(\\((\\d+) ms\\))");  // eg: (XX ms)
+    private static final Pattern NUM_TESTS_PATTERN =
+            Pattern.compile("Running (\\d+) test[s]? from .*");
+    private static final Pattern RUN_TIME_PATTERN =
+            Pattern.compile(".*\\((\\d+) ms total\\)");  // eg: (XX ms total)
+
+    // Indices of the markers in MARKERS
+    private static final int START_TEST = 0;
+    private static final int OK_TEST = 1;
+    private static final int FAILED_TEST = 2;
+    private static final int START_TEST_RUN = 3;
+    private static final int TEST_RUN = 4;
+    private static final LinePrefixMatcher MARKERS = new LinePrefixMatcher(
+            Prefixes.START_TEST_MARKER, Prefixes.OK_TEST_MARKER, Prefixes.FAILED_TEST_MARKER,
+            Prefixes.START_TEST_RUN_MARKER, Prefixes.TEST_RUN_MARKER);
+
     // Variables to keep track of state
     private TestResult mCurrentTestResult = null;
     private int mNumTestsRun = 0;
@@ -267,32 +284,33 @@ public class GeeTestResultParser extends MultiLineReceiver {
      */
     private void parse(String line) {
         String message = null;
+        int marker = MARKERS.match(line);
 
-        if (mTestRunInProgress || line.startsWith(Prefixes.TEST_RUN_MARKER)) {
-            if (line.startsWith(Prefixes.START_TEST_MARKER)) {
+        if (mTestRunInProgress || marker == START_TEST_RUN || marker == TEST_RUN) {
+            if (marker == START_TEST) {
                 // Individual test started
                 message = line.substring(Prefixes.START_TEST_MARKER.length()).trim();
                 processTestStartedTag(message);
             }
-            else if (line.startsWith(Prefixes.OK_TEST_MARKER)) {
+            else if (marker == OK_TEST) {
                 // Individual test completed successfully
                 message = line.substring(Prefixes.OK_TEST_MARKER.length()).trim();
                 processOKTag(message);
                 clearCurrentTestResult();
             }
-            else if (line.startsWith(Prefixes.FAILED_TEST_MARKER)) {
+            else if (marker == FAILED_TEST) {
                 // Individual test completed with failure
                 message = line.substring(Prefixes.FAILED_TEST_MARKER.length()).trim();
                 processFailedTag(message);
                 clearCurrentTestResult();
             }
-            else if (line.startsWith(Prefixes.START_TEST_RUN_MARKER)) {
+            else if (marker == START_TEST_RUN) {
                 // Test run started
                 // Make sure to leave the "Running" in the string
                 message = line.substring(Prefixes.TEST_RUN_MARKER.length()).trim();
                 processRunStartedTag(message);
             }
-            else if (line.startsWith(Prefixes.TEST_RUN_MARKER)) {
+            else if (marker == TEST_RUN) {
                 // Test run ended
                 // This is for the end of the test suite run, so make sure this else-if is after the
                 // check for START_TEST_SUITE_MARKER
@@ -401,8 +419,7 @@ public class GeeTestResultParser extends MultiLineReceiver {
     private ParsedTestInfo parseTestIdentifier(String identifier) {
         ParsedTestInfo returnInfo = new ParsedTestInfo("UNKNOWN_CLASS", "UNKNOWN_TEST", null);
 
-        Pattern timePattern = Pattern.compile(".*(\\((\\d+) ms\\))");  // eg: (XX ms)
-        Matcher time = timePattern.matcher(identifier);
+        Matcher time = TEST_TIME_PATTERN.matcher(identifier);
 
         // Try to find a time
         if (time.find()) {
@@ -431,8 +448,7 @@ public class GeeTestResultParser extends MultiLineReceiver {
      */
     private void processRunStartedTag(String identifier) {
         // eg: (Running XX tests from 1 test case.)
-        Pattern numTestsPattern = Pattern.compile("Running (\\d+) test[s]? from .*");
-        Matcher numTests = numTestsPattern.matcher(identifier);
+        Matcher numTests = NUM_TESTS_PATTERN.matcher(identifier);
 
         // Try to find number of tests
         if (numTests.find()) {
@@ -457,8 +473,7 @@ public class GeeTestResultParser extends MultiLineReceiver {
      * @param identifier Raw log output from the suite ended tag
      */
     private void processRunCompletedTag(String identifier) {
-        Pattern timePattern = Pattern.compile(".*\\((\\d+) ms total\\)");  // eg: (XX ms total)
-        Matcher time = timePattern.matcher(identifier);
+        Matcher time = RUN_TIME_PATTERN.matcher(identifier);
 
         // Try to find the total run time
         if (time.find()) {
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+/**
+ * Matches test output lines against a fixed list of marker prefixes.
+ * <p/>
+ * Most lines of test output carry no marker at all, so lines are rejected on their first
+ * character before any prefix is compared.
+ */
+class LinePrefixMatcher {
+
+    /** Returned by {@link #match(String)} if no prefix matches. */
+    static final int NO_MATCH = -1;
+
+    private final String[] mPrefixes;
+    private final String mFirstChars;
+
+    /**
+     * @param prefixes the prefixes to match, in order of precedence
+     */
+    LinePrefixMatcher(String... prefixes) {
+        mPrefixes = prefixes.clone();
+        StringBuilder firstChars = new StringBuilder();
+        for (String prefix : mPrefixes) {
+            if (prefix.isEmpty()) {
+                throw new IllegalArgumentException("empty prefix");
+            }
+            if (firstChars.indexOf(prefix.substring(0, 1)) == -1) {
+                firstChars.append(prefix.charAt(0));
+            }
+        }
+        mFirstChars = firstChars.toString();
+    }
+
+    /**
+     * @param line the output line
+     * @return the index of the first prefix <var>line</var> starts with, or {@link #NO_MATCH}
+     */
+    int match(String line) {
+        if (line.isEmpty() || mFirstChars.indexOf(line.charAt(0)) == -1) {
+            return NO_MATCH;
+        }
+        for (int i = 0; i < mPrefixes.length; i++) {
+            if (line.startsWith(mPrefixes[i])) {
+                return i;
+            }
+        }
+        return NO_MATCH;
+    }
+}
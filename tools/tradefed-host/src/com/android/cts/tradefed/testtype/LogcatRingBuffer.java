@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed size ring buffer of logcat data, outside of the Java heap.
+ * <p/>
+ * Data is appended in chunks, each stamped with the host time it was received at, so the data
+ * received since a given time can be read back. Once full, the oldest data is overwritten.
+ */
+class LogcatRingBuffer {
+
+    private final ByteBuffer mData;
+    private final int mCapacity;
+    /** the total number of bytes ever written; the write position is this modulo capacity */
+    private long mWritten = 0;
+
+    /** the receive times and absolute start offsets of the chunks, as a ring */
+    private final long[] mChunkTimes;
+    private final long[] mChunkStarts;
+    private int mFirstChunk = 0;
+    private int mNumChunks = 0;
+
+    /**
+     * @param capacity the size of the buffer in bytes
+     * @param maxChunks the maximum number of chunks to track. Once exceeded, the data of the
+     * oldest chunks can no longer be read.
+     */
+    LogcatRingBuffer(int capacity, int maxChunks) {
+        mCapacity = capacity;
+        mData = ByteBuffer.allocateDirect(capacity);
+        mChunkTimes = new long[maxChunks];
+        mChunkStarts = new long[maxChunks];
+    }
+
+    /**
+     * Append a chunk of data.
+     *
+     * @param time the time the data was received at
+     * @param data the data
+     * @param offset the start of the data in <var>data</var>
+     * @param length the length of the data
+     */
+    synchronized void append(long time, byte[] data, int offset, int length) {
+        if (length > mCapacity) {
+            // only the end of the data fits
+            offset += length - mCapacity;
+            mWritten += length - mCapacity;
+            length = mCapacity;
+        }
+        if (length == 0) {
+            return;
+        }
+        if (mNumChunks == mChunkTimes.length) {
+            mFirstChunk = (mFirstChunk + 1) % mChunkTimes.length;
+            mNumChunks--;
+        }
+        int chunk = (mFirstChunk + mNumChunks) % mChunkTimes.length;
+        mChunkTimes[chunk] = time;
+        mChunkStarts[chunk] = mWritten;
+        mNumChunks++;
+
+        int position = (int) (mWritten % mCapacity);
+        int firstPart = Math.min(length, mCapacity - position);
+        mData.position(position);
+        mData.put(data, offset, firstPart);
+        if (firstPart < length) {
+            mData.position(0);
+            mData.put(data, offset + firstPart, length - firstPart);
+        }
+        mWritten += length;
+    }
+
+    /**
+     * Get the data received at or after the given time.
+     *
+     * @param time the time to get data from
+     * @param maxBytes the maximum number of bytes to return. If there is more data, only the most
+     * recent data is returned.
+     * @return the data
+     */
+    synchronized byte[] getDataSince(long time, int maxBytes) {
+        long start = mWritten;
+        for (int i = 0; i < mNumChunks; i++) {
+            int chunk = (mFirstChunk + i) % mChunkTimes.length;
+            if (mChunkTimes[chunk] >= time) {
+                start = mChunkStarts[chunk];
+                break;
+            }
+        }
+        // skip data that has been overwritten, or that exceeds the limit
+        start = Math.max(start, mWritten - Math.min(mCapacity, maxBytes));
+
+        byte[] result = new byte[(int) (mWritten - start)];
+        int position = (int) (start % mCapacity);
+        int firstPart = Math.min(result.length, mCapacity - position);
+        mData.position(position);
+        mData.get(result, 0, firstPart);
+        if (firstPart < result.length) {
+            mData.position(0);
+            mData.get(result, firstPart, result.length - firstPart);
+        }
+        return result;
+    }
+}
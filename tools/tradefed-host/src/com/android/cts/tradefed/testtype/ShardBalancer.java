@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.tradefed.testtype.CtsTest.TestPackage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Partitions a list of {@link TestPackage}s between shards, so that each shard gets about the
+ * same amount of work.
+ * <p/>
+ * Packages are assigned longest first, each to the shard with the least work assigned so far.
+ * The cost of a package is its elapsed time in previous sessions if known, or otherwise an
+ * estimate based on its number of tests. Every package costs at least 1, so packages without
+ * known tests or history are still spread between shards. Ties between shards go to the shard
+ * with fewer packages, and then to the lower shard index. Ties between packages are broken by
+ * position in the package list, so every shard computes the same partition from the same
+ * inputs.
+ */
+class ShardBalancer {
+
+    private final Map<String, Long> mPackageDurations;
+
+    /**
+     * @param packageDurations the elapsed time in ms of previous runs, by package id
+     */
+    ShardBalancer(Map<String, Long> packageDurations) {
+        mPackageDurations = packageDurations;
+    }
+
+    /**
+     * Get the packages assigned to the given shard.
+     *
+     * @param packages the {@link List} of all {@link TestPackage}s, in a reliable order
+     * @param shardIndex the index of the shard
+     * @param totalShards the total number of shards
+     * @return the {@link List} of {@link TestPackage}s for the shard, in the same order as
+     * <var>packages</var>
+     */
+    List<TestPackage> getShard(List<TestPackage> packages, int shardIndex, int totalShards) {
+        int[] assignments = assignShards(packages, totalShards);
+        List<TestPackage> shard = new ArrayList<>();
+        for (int i = 0; i < packages.size(); i++) {
+            if (assignments[i] == shardIndex) {
+                shard.add(packages.get(i));
+            }
+        }
+        return shard;
+    }
+
+    /**
+     * Sort packages by estimated cost, longest first.
+     *
+     * @param packages the {@link List} of {@link TestPackage}s, in a reliable order
+     * @return a new sorted {@link List}. Packages of equal cost keep their relative order.
+     */
+    List<TestPackage> sortByCost(List<TestPackage> packages) {
+        List<TestPackage> sorted = new ArrayList<>(packages.size());
+        for (int index : getCostOrder(estimateCosts(packages))) {
+            sorted.add(packages.get(index));
+        }
+        return sorted;
+    }
+
+    /**
+     * @return the shard index of each package
+     */
+    private int[] assignShards(List<TestPackage> packages, int totalShards) {
+        long[] costs = estimateCosts(packages);
+        List<Integer> order = getCostOrder(costs);
+        int numShards = Math.max(1, Math.min(totalShards, packages.size()));
+        long[] loads = new long[numShards];
+        int[] counts = new int[numShards];
+        int[] assignments = new int[packages.size()];
+        Arrays.fill(assignments, -1);
+        for (int index : order) {
+            int leastLoaded = 0;
+            for (int shard = 1; shard < numShards; shard++) {
+                if (loads[shard] < loads[leastLoaded] || (loads[shard] == loads[leastLoaded]
+                        && counts[shard] < counts[leastLoaded])) {
+                    leastLoaded = shard;
+                }
+            }
+            assignments[index] = leastLoaded;
+            loads[leastLoaded] += costs[index];
+            counts[leastLoaded]++;
+        }
+        return assignments;
+    }
+
+    /**
+     * @return the indices of the given costs, highest cost first
+     */
+    private static List<Integer> getCostOrder(final long[] costs) {
+        List<Integer> order = new ArrayList<>(costs.length);
+        for (int i = 0; i < costs.length; i++) {
+            order.add(i);
+        }
+        // Collections.sort is stable, so equal costs keep the list order
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer index0, Integer index1) {
+                return Long.compare(costs[index1], costs[index0]);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Estimate the cost of each package.
+     * <p/>
+     * Packages without a recorded duration are assumed to take the average time per test of
+     * those with one. If no durations are known at all, the test count is used as the cost.
+     * A package with no known tests and no recorded duration still costs 1.
+     */
+    private long[] estimateCosts(List<TestPackage> packages) {
+        long[] costs = new long[packages.size()];
+        long knownTime = 0;
+        long knownTests = 0;
+        for (int i = 0; i < packages.size(); i++) {
+            TestPackage testPackage = packages.get(i);
+            Long duration = mPackageDurations.get(testPackage.getTestRunName());
+            if (duration != null && duration > 0) {
+                costs[i] = duration;
+                knownTime += duration;
+                knownTests += testPackage.getKnownTests().size();
+            } else {
+                costs[i] = -1;
+            }
+        }
+        for (int i = 0; i < packages.size(); i++) {
+            if (costs[i] < 0) {
+                long numTests = packages.get(i).getKnownTests().size();
+                costs[i] = Math.max(1,
+                        knownTests > 0 ? numTests * knownTime / knownTests : numTests);
+            }
+        }
+        return costs;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.util.AbiUtils;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A thread-safe queue of test package ids, shared by the {@link CtsTest} shards of an
+ * invocation so each device takes the next package as soon as it is free.
+ * <p/>
+ * Every shard adds the packages it can run. A package is only ever queued once, so it is taken
+ * by exactly one shard even if several shards add it, or add it after it has been taken.
+ */
+class SharedPackageQueue {
+
+    /** the ids of packages not yet taken, in the order they should be run */
+    private final List<String> mQueue = new LinkedList<>();
+    /** the ids of all packages ever queued */
+    private final Set<String> mQueued = new HashSet<>();
+
+    /**
+     * Add packages to the end of the queue, skipping any that were queued before.
+     *
+     * @param ids the package ids, in the order they should be run
+     */
+    synchronized void addAll(Collection<String> ids) {
+        for (String id : ids) {
+            if (mQueued.add(id)) {
+                mQueue.add(id);
+            }
+        }
+    }
+
+    /**
+     * Take the next package that the caller can run.
+     * <p/>
+     * Prefers the first package with the given ABI, to avoid switching ABIs, and otherwise takes
+     * the first package the caller can run.
+     *
+     * @param runnableIds the ids of the packages the caller can run
+     * @param preferredAbi the name of the ABI to prefer, or <code>null</code> for no preference
+     * @return the id of the package, or <code>null</code> if there are no runnable packages left
+     */
+    synchronized String take(Set<String> runnableIds, String preferredAbi) {
+        String firstRunnable = null;
+        for (String id : mQueue) {
+            if (!runnableIds.contains(id)) {
+                continue;
+            }
+            if (preferredAbi == null || preferredAbi.equals(AbiUtils.parseAbi(id))) {
+                mQueue.remove(id);
+                return id;
+            }
+            if (firstRunnable == null) {
+                firstRunnable = id;
+            }
+        }
+        if (firstRunnable != null) {
+            mQueue.remove(firstRunnable);
+        }
+        return firstRunnable;
+    }
+
+    /**
+     * @return the number of packages not yet taken
+     */
+    synchronized int size() {
+        return mQueue.size();
+    }
+}
@@ -32,6 +32,10 @@ public class SingleJUnitTestResultParser extends MultiLineReceiver {
 
     private static final String PASSED_TEST_MARKER = "[ PASSED ]";
     private static final String FAILED_TEST_MARKER = "[ FAILED ]";
+    private static final int PASSED_TEST = 0;
+    private static final int FAILED_TEST = 1;
+    private static final LinePrefixMatcher MARKERS =
+            new LinePrefixMatcher(PASSED_TEST_MARKER, FAILED_TEST_MARKER);
     private final TestIdentifier mTestId;
     private final Collection<ITestRunListener> mTestListeners;
     private StringBuilder mStackTrace = new StringBuilder();
@@ -65,9 +69,10 @@ public class SingleJUnitTestResultParser extends MultiLineReceiver {
      * @param line
      */
     private void parse(String line) {
-        if (line.startsWith(PASSED_TEST_MARKER)) {
+        int marker = MARKERS.match(line);
+        if (marker == PASSED_TEST) {
             doTestEnded(true);
-        } else if (line.startsWith(FAILED_TEST_MARKER)) {
+        } else if (marker == FAILED_TEST) {
             doTestEnded(false);
         } else {
             // Store everything in case there is a failure.
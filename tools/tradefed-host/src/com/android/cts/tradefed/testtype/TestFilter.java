@@ -32,6 +32,8 @@ import java.util.regex.Pattern;
  */
 public class TestFilter {
 
+    private static final Comparator<TestIdentifier> TEST_ID_COMPARATOR = new TestIdComparator();
+
     private final Set<String> mExcludedClasses;
     private final Set<TestIdentifier> mExcludedTests;
 
@@ -138,6 +140,8 @@ public class TestFilter {
      */
     public Collection<TestIdentifier> filter(Collection<TestIdentifier> tests) {
         List<TestIdentifier> filteredTests = new ArrayList<TestIdentifier>(tests.size());
+        // the rules can't change while filtering, so only check for inclusions once
+        boolean checkInclusion = hasInclusion();
         for (TestIdentifier test : tests) {
             if (mIncludedClass != null && !test.getClassName().equals(mIncludedClass)) {
                 // skip
@@ -155,15 +159,14 @@ public class TestFilter {
                 // skip
                 continue;
             }
-            if ((!mIncludedTests.isEmpty() || !mIncludedClasses.isEmpty())
-                    && !(mIncludedClasses.contains(test.getClassName())
-                            || mIncludedTests.contains(test))) {
+            if (checkInclusion && !(mIncludedClasses.contains(test.getClassName())
+                    || mIncludedTests.contains(test))) {
                 // skip
                 continue;
             }
             filteredTests.add(test);
         }
-        Collections.sort(filteredTests, new TestIdComparator());
+        Collections.sort(filteredTests, TEST_ID_COMPARATOR);
         return filteredTests;
     }
 
@@ -182,14 +185,37 @@ public class TestFilter {
     }
 
     /**
-     * A {@link Comparator} for {@link TestIdentifier} that compares using
-     * {@link TestIdentifier#toString()}
+     * A {@link Comparator} for {@link TestIdentifier} that orders tests the same way as comparing
+     * their {@link TestIdentifier#toString()} values ("className#testName"), without building
+     * those strings for every comparison.
      */
-    private class TestIdComparator implements Comparator<TestIdentifier> {
+    static class TestIdComparator implements Comparator<TestIdentifier> {
 
         @Override
         public int compare(TestIdentifier o1, TestIdentifier o2) {
-            return o1.toString().compareTo(o2.toString());
+            String class1 = o1.getClassName();
+            String class2 = o2.getClassName();
+            int result = class1.compareTo(class2);
+            if (result == 0) {
+                return o1.getTestName().compareTo(o2.getTestName());
+            }
+            int length1 = class1.length();
+            int length2 = class2.length();
+            if (length1 < length2 && class2.startsWith(class1)) {
+                // "Foo#" vs "FooBar#": the '#' separator decides
+                return compareSeparator(class2.charAt(length1), o1, o2);
+            } else if (length2 < length1 && class1.startsWith(class2)) {
+                return -compareSeparator(class1.charAt(length2), o2, o1);
+            }
+            return result;
+        }
+
+        private static int compareSeparator(char c, TestIdentifier o1, TestIdentifier o2) {
+            if (c == '#') {
+                // rare enough to just fall back to comparing the full strings
+                return o1.toString().compareTo(o2.toString());
+            }
+            return '#' - c;
         }
     }
 }
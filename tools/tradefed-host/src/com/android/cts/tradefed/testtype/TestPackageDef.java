@@ -83,11 +83,40 @@ class TestPackageDef implements ITestPackageDef {
     private TestFilter mTestFilter = new TestFilter();
     private String mTargetBinaryName;
     private String mTargetNameSpace;
+    // the file the digest is generated from, set by createTest. The digest is only generated
+    // when first needed.
+    private File mDigestDir;
+    private String mDigestFileName;
     // only timeout per package is supported. To change this to method granularity,
     // test invocation should be done in method level.
     // So for now, only max timeout for the package is used.
     private int mTimeoutInMins = -1;
 
+    TestPackageDef() {
+    }
+
+    /**
+     * Create a copy of the package info parsed from xml, without any of the dynamic options.
+     *
+     * @param other the {@link TestPackageDef} to copy
+     */
+    TestPackageDef(TestPackageDef other) {
+        mAppPackageName = other.mAppPackageName;
+        mAppNameSpace = other.mAppNameSpace;
+        mName = other.mName;
+        mRunner = other.mRunner;
+        mTestType = other.mTestType;
+        mJarPath = other.mJarPath;
+        mRunTimeArgs = other.mRunTimeArgs;
+        mTestPackageName = other.mTestPackageName;
+        mAbi = other.mAbi;
+        mTests = new LinkedHashSet<TestIdentifier>(other.mTests);
+        mTestClasses = new LinkedHashSet<String>(other.mTestClasses);
+        mTargetBinaryName = other.mTargetBinaryName;
+        mTargetNameSpace = other.mTargetNameSpace;
+        mTimeoutInMins = other.mTimeoutInMins;
+    }
+
     @Override
     public IAbi getAbi() {
         return mAbi;
@@ -228,7 +257,7 @@ class TestPackageDef implements ITestPackageDef {
             hostTest.setJarFileName(mJarPath);
             hostTest.setTests(mTests);
             hostTest.setAbi(mAbi);
-            mDigest = generateDigest(testCaseDir, mJarPath);
+            setDigestFile(testCaseDir, mJarPath);
             return hostTest;
         } else if (VM_HOST_TEST.equals(mTestType)) {
             CLog.d("Creating vm host test for %s", mName);
@@ -237,7 +266,7 @@ class TestPackageDef implements ITestPackageDef {
             vmHostTest.setJarFileName(mJarPath);
             vmHostTest.setTests(mTests);
             vmHostTest.setAbi(mAbi);
-            mDigest = generateDigest(testCaseDir, mJarPath);
+            setDigestFile(testCaseDir, mJarPath);
             return vmHostTest;
         } else if (DEQP_TEST.equals(mTestType)) {
             DeqpTestRunner deqpTest = new DeqpTestRunner(mAppPackageName, mName, mTests);
@@ -276,7 +305,7 @@ class TestPackageDef implements ITestPackageDef {
             jUnitDeviceTest.addRunTimeArgs(mRunTimeArgs);
             jUnitDeviceTest.setTests(mTests);
             jUnitDeviceTest.setAbi(mAbi);
-            mDigest = generateDigest(testCaseDir, mJarPath);
+            setDigestFile(testCaseDir, mJarPath);
             return jUnitDeviceTest;
         } else {
             CLog.d("Creating instrumentation test for %s", mName);
@@ -300,7 +329,7 @@ class TestPackageDef implements ITestPackageDef {
         printTest.setClassName(mClassName);
         printTest.setMethodName(mMethodName);
         printTest.setAbi(mAbi);
-        mDigest = generateDigest(testCaseDir, String.format("%s.apk", mName));
+        setDigestFile(testCaseDir, String.format("%s.apk", mName));
         return printTest;
     }
 
@@ -325,7 +354,7 @@ class TestPackageDef implements ITestPackageDef {
         instrTest.setReRunUsingTestFile(true);
         // mName means 'apk file name' for instrumentation tests
         instrTest.addInstallApk(String.format("%s.apk", mName), mAppNameSpace);
-        mDigest = generateDigest(testCaseDir, String.format("%s.apk", mName));
+        setDigestFile(testCaseDir, String.format("%s.apk", mName));
         if (mTests.size() > 1000) {
             // TODO: hack, large test suites can take longer to collect tests, increase timeout
             instrTest.setCollectsTestsShellTimeout(10 * 60 * 1000);
@@ -398,19 +427,38 @@ class TestPackageDef implements ITestPackageDef {
      */
     @Override
     public String getDigest() {
+        if (mDigest == null && mDigestFileName != null) {
+            mDigest = generateDigest(mDigestDir, mDigestFileName);
+        }
         return mDigest;
     }
 
+    /**
+     * Set the file to generate the digest of this package from.
+     */
+    private void setDigestFile(File fileDir, String fileName) {
+        mDigest = null;
+        mDigestDir = fileDir;
+        mDigestFileName = fileName;
+    }
+
     /**
      * Generate a sha1sum digest for a file.
      * <p/>
-     * Exposed for unit testing.
+     * Digests are cached next to the test case directory, so unchanged files are only read
+     * once per build. Exposed for unit testing.
      *
      * @param fileDir the directory of the file
      * @param fileName the name of the file
      * @return a hex {@link String} of the digest
      */
     String generateDigest(File fileDir, String fileName) {
+        File file = new File(fileDir, fileName);
+        DigestCache cache = DigestCache.getInstance(fileDir);
+        String digest = cache.get(file);
+        if (digest != null) {
+            return digest;
+        }
         final String algorithm = "SHA-1";
         InputStream fileStream = null;
         DigestInputStream d = null;
@@ -421,7 +469,9 @@ class TestPackageDef implements ITestPackageDef {
             byte[] buffer = new byte[8196];
             while (d.read(buffer) != -1) {
             }
-            return toHexString(md.digest());
+            digest = toHexString(md.digest());
+            cache.put(file, digest);
+            return digest;
         } catch (NoSuchAlgorithmException e) {
             return algorithm + " not found";
         } catch (IOException e) {
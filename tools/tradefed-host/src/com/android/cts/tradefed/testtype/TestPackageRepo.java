@@ -29,9 +29,15 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Retrieves CTS test package definitions from the repository.
@@ -40,6 +46,28 @@ public class TestPackageRepo implements ITestPackageRepo {
 
     private static final String LOG_TAG = "TestCaseRepo";
 
+    /** the maximum number of threads used to parse test case xml files */
+    private static final int MAX_PARSE_THREADS = 8;
+
+    /**
+     * the maximum number of parsed test case xml files to cache, enough for the test cases of a
+     * few builds with and without known failures
+     */
+    private static final int MAX_CACHED_XML_FILES = 4096;
+
+    // test case xml files recently parsed in this process, so that shards and later invocations
+    // only parse the files that changed. Keyed by file path and known failure inclusion, and
+    // least recently used files are evicted first.
+    private static final Map<String, ParsedXml> sParsedXmlCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, ParsedXml>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ParsedXml> eldest) {
+                    return size() > MAX_CACHED_XML_FILES;
+                }
+            });
+
     /** mapping of ABI to a mapping of appPackageName to test definition */
     private final Map<String, Map<String, TestPackageDef>> mTestMap;
     private final boolean mIncludeKnownFailures;
@@ -57,17 +85,99 @@ public class TestPackageRepo implements ITestPackageRepo {
         parse(testCaseDir);
     }
 
+    /**
+     * The {@link TestPackageDef}s parsed from a test case xml file, along with the size and
+     * modification time of the file when it was parsed.
+     */
+    private static class ParsedXml {
+        private final long mLastModified;
+        private final long mLength;
+        private final Set<TestPackageDef> mDefs;
+
+        ParsedXml(long lastModified, long length, Set<TestPackageDef> defs) {
+            mLastModified = lastModified;
+            mLength = length;
+            mDefs = defs;
+        }
+
+        boolean isCurrent(File xmlFile) {
+            return mLastModified == xmlFile.lastModified() && mLength == xmlFile.length();
+        }
+    }
+
     /**
      * Builds mTestMap based on directory contents
+     * <p/>
+     * Files that are not in the cache are parsed in parallel. Packages are added in directory
+     * listing order regardless, so the result is the same as parsing sequentially.
      */
     private void parse(File dir) {
         File[] xmlFiles = dir.listFiles(new XmlFilter());
-        for (File xmlFile : xmlFiles) {
-            parseTestFromXml(xmlFile);
+        Map<File, Set<TestPackageDef>> cachedFiles = new HashMap<>();
+        Map<File, Future<Set<TestPackageDef>>> parsedFiles = new HashMap<>();
+        ExecutorService executor = null;
+        for (final File xmlFile : xmlFiles) {
+            ParsedXml cached = sParsedXmlCache.get(getCacheKey(xmlFile));
+            if (cached != null && cached.isCurrent(xmlFile)) {
+                cachedFiles.put(xmlFile, cached.mDefs);
+                continue;
+            }
+            // the file changed, drop the old entry even if parsing it again fails
+            sParsedXmlCache.remove(getCacheKey(xmlFile));
+            if (executor == null) {
+                int numThreads = Math.min(MAX_PARSE_THREADS,
+                        Runtime.getRuntime().availableProcessors());
+                executor = Executors.newFixedThreadPool(numThreads);
+            }
+            parsedFiles.put(xmlFile, executor.submit(new Callable<Set<TestPackageDef>>() {
+                @Override
+                public Set<TestPackageDef> call() {
+                    return parseTestFromXml(xmlFile);
+                }
+            }));
+        }
+        try {
+            for (File xmlFile : xmlFiles) {
+                Set<TestPackageDef> defs = cachedFiles.get(xmlFile);
+                if (defs == null) {
+                    defs = parsedFiles.get(xmlFile).get();
+                }
+                for (TestPackageDef def : defs) {
+                    // parsed definitions are cached, so give each repo its own copy to modify
+                    addTestPackageDef(new TestPackageDef(def));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while parsing test case xml files", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("failed to parse test case xml files", e.getCause());
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
         }
     }
 
-    private void parseTestFromXml(File xmlFile)  {
+    private void addTestPackageDef(TestPackageDef def) {
+        String name = def.getAppPackageName();
+        String abi = def.getAbi().getName();
+        if (!mTestMap.containsKey(abi)) {
+            mTestMap.put(abi, new HashMap<String, TestPackageDef>());
+        }
+        mTestMap.get(abi).put(name, def);
+    }
+
+    /**
+     * Parse the given test case xml file, and add the result to the cache.
+     *
+     * @return the {@link Set} of {@link TestPackageDef}s in the file. Empty if it could not be
+     * parsed.
+     */
+    private Set<TestPackageDef> parseTestFromXml(File xmlFile)  {
+        // get the file attributes first, so a file modified while parsing is parsed again
+        long lastModified = xmlFile.lastModified();
+        long length = xmlFile.length();
         TestPackageXmlParser parser = new TestPackageXmlParser(mIncludeKnownFailures);
         try {
             parser.parse(createStreamFromFile(xmlFile));
@@ -76,14 +186,8 @@ public class TestPackageRepo implements ITestPackageRepo {
                 Log.w(LOG_TAG, String.format("Could not find test package info in xml file %s",
                         xmlFile.getAbsolutePath()));
             }
-            for (TestPackageDef def : defs) {
-                String name = def.getAppPackageName();
-                String abi = def.getAbi().getName();
-                if (!mTestMap.containsKey(abi)) {
-                    mTestMap.put(abi, new HashMap<String, TestPackageDef>());
-                }
-                mTestMap.get(abi).put(name, def);
-            }
+            sParsedXmlCache.put(getCacheKey(xmlFile), new ParsedXml(lastModified, length, defs));
+            return defs;
         } catch (FileNotFoundException e) {
             Log.e(LOG_TAG, String.format("Could not find test case xml file %s",
                     xmlFile.getAbsolutePath()));
@@ -93,6 +197,11 @@ public class TestPackageRepo implements ITestPackageRepo {
                     xmlFile.getAbsolutePath()));
             Log.e(LOG_TAG, e);
         }
+        return Collections.emptySet();
+    }
+
+    private String getCacheKey(File xmlFile) {
+        return String.format("%s#%b", xmlFile.getAbsolutePath(), mIncludeKnownFailures);
     }
 
     /**
@@ -24,6 +24,17 @@ import java.util.ArrayList;
 
 public class WrappedGTestResultParser extends GeeTestResultParser {
 
+    private static final String RESULT_PREFIX = "INSTRUMENTATION_RESULT: ";
+    private static final String GTEST_PREFIX = "INSTRUMENTATION_STATUS: gtest=";
+    private static final String INSTRUMENTATION_PREFIX = "INSTRUMENTATION_";
+
+    // Indices of the prefixes in PREFIXES
+    private static final int RESULT = 0;
+    private static final int GTEST = 1;
+    private static final int INSTRUMENTATION = 2;
+    private static final LinePrefixMatcher PREFIXES = new LinePrefixMatcher(
+            RESULT_PREFIX, GTEST_PREFIX, INSTRUMENTATION_PREFIX);
+
     private boolean mInstrumentationError;
 
     /**
@@ -73,8 +84,9 @@ public class WrappedGTestResultParser extends GeeTestResultParser {
         List<String> output = new ArrayList<String>();
         boolean readMultiLine = false;
         for (String line : lines) {
+            int prefix = PREFIXES.match(line);
 
-            if (line.startsWith("INSTRUMENTATION_RESULT: ")) {
+            if (prefix == RESULT) {
                 CLog.e("Instrumentation Error:");
                 mInstrumentationError = true;
             }
@@ -84,13 +96,13 @@ public class WrappedGTestResultParser extends GeeTestResultParser {
                 continue;
             }
 
-            if (line.startsWith("INSTRUMENTATION_STATUS: gtest=")) {
-                output.add(line.replace("INSTRUMENTATION_STATUS: gtest=", ""));
+            if (prefix == GTEST) {
+                output.add(line.substring(GTEST_PREFIX.length()));
                 readMultiLine = true;
                 continue;
             }
 
-            if (line.startsWith("INSTRUMENTATION_")) {
+            if (prefix == INSTRUMENTATION) {
                 readMultiLine = false;
                 continue;
             }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.util;
+
+import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.StreamUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Utility methods for cache files that are read and written by several processes at once.
+ * <p/>
+ * Files are replaced by writing a temporary file and renaming it, so readers never see a
+ * partial file. Failures are logged rather than thrown, since the callers only store data that
+ * can be recomputed.
+ */
+public class AtomicFileUtil {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes the content of a file.
+     */
+    public interface ContentWriter {
+        /**
+         * Write the content to the given stream. The stream is closed by the caller.
+         */
+        void write(OutputStream stream) throws IOException;
+    }
+
+    private AtomicFileUtil() {
+    }
+
+    /**
+     * Replace the given file with the content written by the given {@link ContentWriter}.
+     *
+     * @param file the file to replace
+     * @param writer the {@link ContentWriter} of the new content
+     * @return <code>true</code> if the file was replaced
+     */
+    public static boolean replaceFile(File file, ContentWriter writer) {
+        File tmpFile = null;
+        OutputStream stream = null;
+        try {
+            // each writer gets its own temporary file, so concurrent writers never mix content
+            tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            stream = new BufferedOutputStream(new FileOutputStream(tmpFile), BUFFER_SIZE);
+            writer.write(stream);
+            stream.close();
+            stream = null;
+            moveOver(tmpFile, file);
+            return true;
+        } catch (IOException e) {
+            // the directory may be read-only
+            CLog.w("Failed to write %s", file.getAbsolutePath());
+            return false;
+        } finally {
+            StreamUtil.close(stream);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Rename the source file over the target file. The target keeps its old content until the
+     * new content is in place.
+     */
+    private static void moveOver(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Load properties from the given file.
+     *
+     * @param file the properties file
+     * @param props the {@link Properties} to load into. Cleared if the file is corrupt.
+     * @return <code>true</code> if the file was loaded
+     */
+    public static boolean loadProperties(File file, Properties props) {
+        if (!file.exists()) {
+            return false;
+        }
+        InputStream stream = null;
+        try {
+            stream = new BufferedInputStream(new FileInputStream(file));
+            props.load(stream);
+            return true;
+        } catch (IOException e) {
+            CLog.w("Failed to read %s", file.getAbsolutePath());
+            props.clear();
+            return false;
+        } catch (IllegalArgumentException e) {
+            // malformed escapes in a corrupt file
+            CLog.w("Failed to read %s", file.getAbsolutePath());
+            props.clear();
+            return false;
+        } finally {
+            StreamUtil.close(stream);
+        }
+    }
+
+    /**
+     * Replace the given file with the given properties.
+     *
+     * @param file the properties file
+     * @param props the {@link Properties} to store
+     * @return <code>true</code> if the file was replaced
+     */
+    public static boolean storeProperties(File file, final Properties props) {
+        return replaceFile(file, new ContentWriter() {
+            @Override
+            public void write(OutputStream stream) throws IOException {
+                props.store(stream, null);
+            }
+        });
+    }
+}
@@ -15,6 +15,9 @@
  */
 package com.android.cts.tradefed.util;
 
+import com.android.cts.util.PerfResult;
+import com.android.tradefed.log.LogUtil.CLog;
+
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -25,35 +28,78 @@ public class CtsHostStore {
 
     // needs concurrent version as there can be multiple client accessing this.
     // But there is no additional protection for the same key as that should not happen.
-    private static final ConcurrentHashMap<String, String> mMap =
-            new ConcurrentHashMap<String, String>();
+    private static final ConcurrentHashMap<TestKey, PerfResult> mMap =
+            new ConcurrentHashMap<TestKey, PerfResult>();
 
     /**
      * Stores CTS result. Existing result with the same key will be replaced.
-     * Note that key is generated in the form of device_serial#class#method name.
-     * So there should be no concurrent test for the same (serial, class, method).
+     * Note that key is generated from the device serial, abi and class#method name.
+     * So there should be no concurrent test for the same (serial, abi, class, method).
      * @param deviceSerial
      * @param abi
      * @param classMethodName
-     * @param result CTS result string
+     * @param result CTS result string, in the format of {@link com.android.cts.util.ReportLog}
      */
     public static void storeCtsResult(String deviceSerial, String abi, String classMethodName, String result) {
-        mMap.put(generateTestKey(deviceSerial, abi, classMethodName), result);
+        PerfResult perfResult = PerfResult.parse(result);
+        if (perfResult == null) {
+            CLog.e("CTS Result unrecognizable:" + result);
+            return;
+        }
+        storePerfResult(deviceSerial, abi, classMethodName, perfResult);
+    }
+
+    /**
+     * Stores a {@link PerfResult}. Existing result with the same key will be replaced.
+     * @see #storeCtsResult(String, String, String, String)
+     */
+    public static void storePerfResult(String deviceSerial, String abi, String classMethodName,
+            PerfResult result) {
+        mMap.put(new TestKey(deviceSerial, abi, classMethodName), result);
     }
 
     /**
      * retrieves a CTS result for the given condition and remove it from the internal
      * storage. If there is no result for the given condition, it will return null.
      */
-    public static String removeCtsResult(String deviceSerial, String abi, String classMethodName) {
-        return mMap.remove(generateTestKey(deviceSerial, abi, classMethodName));
+    public static PerfResult removePerfResult(String deviceSerial, String abi,
+            String classMethodName) {
+        return mMap.remove(new TestKey(deviceSerial, abi, classMethodName));
     }
 
     /**
-     * @return test key in the form of device_serial#abi#class_name#method_name
+     * The key of a result: the device serial, abi, and class#method name of the test.
      */
-    private static String generateTestKey(String deviceSerial, String abi, String classMethodName) {
-        return String.format("%s#%s#%s", deviceSerial, abi, classMethodName);
+    private static class TestKey {
+        private final String mDeviceSerial;
+        private final String mAbi;
+        private final String mClassMethodName;
+
+        TestKey(String deviceSerial, String abi, String classMethodName) {
+            mDeviceSerial = deviceSerial;
+            mAbi = abi;
+            mClassMethodName = classMethodName;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = mClassMethodName.hashCode();
+            hash = 31 * hash + (mAbi == null ? 0 : mAbi.hashCode());
+            return 31 * hash + (mDeviceSerial == null ? 0 : mDeviceSerial.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TestKey)) {
+                return false;
+            }
+            TestKey other = (TestKey) obj;
+            return mClassMethodName.equals(other.mClassMethodName)
+                    && equal(mAbi, other.mAbi) && equal(mDeviceSerial, other.mDeviceSerial);
+        }
 
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
     }
 }
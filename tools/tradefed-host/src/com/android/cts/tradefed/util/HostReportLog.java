@@ -16,6 +16,7 @@
 
 package com.android.cts.tradefed.util;
 
+import com.android.cts.util.PerfResult;
 import com.android.cts.util.ReportLog;
 
 /**
@@ -40,6 +41,9 @@ public class HostReportLog extends ReportLog {
     }
 
     public void deliverReportToHost() {
-        CtsHostStore.storeCtsResult(mDeviceSerial, mAbiName, mClassMethodName, generateReport());
+        PerfResult result = generatePerfResult();
+        if (result != null) {
+            CtsHostStore.storePerfResult(mDeviceSerial, mAbiName, mClassMethodName, result);
+        }
     }
 }
@@ -17,17 +17,29 @@ package com.android.cts.tradefed;
 
 import com.android.cts.tradefed.result.CtsXmlResultReporterTest;
 import com.android.cts.tradefed.result.DeviceInfoResultTest;
+import com.android.cts.tradefed.result.MultipartFormTest;
+import com.android.cts.tradefed.result.PlanCreatorTest;
+import com.android.cts.tradefed.result.ResultArchiverTest;
+import com.android.cts.tradefed.result.ResultMergerTest;
 import com.android.cts.tradefed.result.TestPackageResultTest;
+import com.android.cts.tradefed.result.TestResultRepoTest;
 import com.android.cts.tradefed.result.TestResultsTest;
 import com.android.cts.tradefed.result.TestSummaryXmlTest;
 import com.android.cts.tradefed.result.TestTest;
 import com.android.cts.tradefed.result.TestLogTest;
 import com.android.cts.tradefed.testtype.Abi;
+import com.android.cts.tradefed.testtype.AsyncResultForwarderTest;
 import com.android.cts.tradefed.testtype.CtsTestTest;
 import com.android.cts.tradefed.testtype.DeqpTestRunnerTest;
+import com.android.cts.tradefed.testtype.FailureLogCollectorTest;
 import com.android.cts.tradefed.testtype.JarHostTestTest;
+import com.android.cts.tradefed.testtype.LinePrefixMatcherTest;
+import com.android.cts.tradefed.testtype.LogcatRingBufferTest;
+import com.android.cts.tradefed.testtype.ShardBalancerTest;
+import com.android.cts.tradefed.testtype.SharedPackageQueueTest;
 import com.android.cts.tradefed.testtype.TestFilterTest;
 import com.android.cts.tradefed.testtype.TestPackageDefTest;
+import com.android.cts.tradefed.testtype.TestPackageRepoTest;
 import com.android.cts.tradefed.testtype.TestPackageXmlParserTest;
 import com.android.cts.tradefed.testtype.TestPlanTest;
 import com.android.cts.tradefed.testtype.WrappedGTestResultParserTest;
@@ -52,21 +64,33 @@ public class UnitTests extends TestSuite {
         // result package
         addTestSuite(CtsXmlResultReporterTest.class);
         addTestSuite(DeviceInfoResultTest.class);
+        addTestSuite(MultipartFormTest.class);
+        addTestSuite(PlanCreatorTest.class);
+        addTestSuite(ResultArchiverTest.class);
+        addTestSuite(ResultMergerTest.class);
         addTestSuite(TestPackageResultTest.class);
+        addTestSuite(TestResultRepoTest.class);
         addTestSuite(TestResultsTest.class);
         addTestSuite(TestSummaryXmlTest.class);
         addTestSuite(TestTest.class);
         addTestSuite(TestLogTest.class);
 
         // testtype package
+        addTestSuite(AsyncResultForwarderTest.class);
         addTestSuite(CtsTestTest.class);
         addTestSuite(JarHostTestTest.class);
+        addTestSuite(LinePrefixMatcherTest.class);
+        addTestSuite(LogcatRingBufferTest.class);
+        addTestSuite(ShardBalancerTest.class);
+        addTestSuite(SharedPackageQueueTest.class);
         addTestSuite(TestFilterTest.class);
         addTestSuite(TestPackageDefTest.class);
+        addTestSuite(TestPackageRepoTest.class);
         addTestSuite(TestPackageXmlParserTest.class);
         addTestSuite(TestPlanTest.class);
         addTestSuite(WrappedGTestResultParserTest.class);
         addTestSuite(DeqpTestRunnerTest.class);
+        addTestSuite(FailureLogCollectorTest.class);
     }
 
     public static Test suite() {
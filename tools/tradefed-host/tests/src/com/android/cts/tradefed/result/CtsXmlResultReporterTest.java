@@ -18,9 +18,11 @@ package com.android.cts.tradefed.result;
 import static com.android.cts.tradefed.result.CtsXmlResultReporter.CTS_RESULT_FILE_VERSION;
 
 import com.android.cts.tradefed.UnitTests;
+import com.android.cts.tradefed.testtype.CtsTest;
 import com.android.cts.util.AbiUtils;
 import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.build.IFolderBuildInfo;
+import com.android.tradefed.config.OptionSetter;
 import com.android.tradefed.log.LogUtil.CLog;
 import com.android.tradefed.result.LogDataType;
 import com.android.tradefed.result.LogFile;
@@ -34,6 +36,7 @@ import org.easymock.EasyMock;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
@@ -223,6 +226,109 @@ public class CtsXmlResultReporterTest extends TestCase {
         assertFalse(output, output.contains(deviceSetupTag));
     }
 
+    /**
+     * Test that results written through the journal are stitched into the result XML in package
+     * order, including a package that was run again after being journaled.
+     */
+    public void testJournalResults() {
+        Map<String, String> emptyMap = Collections.emptyMap();
+        final TestIdentifier passTest = new TestIdentifier("com.foo.FooTest", "testPass");
+        final TestIdentifier failTest = new TestIdentifier("com.foo.FooTest", "testFail");
+        final TestIdentifier resumedTest = new TestIdentifier("com.foo.FooTest", "testResumed");
+        final String run1 = AbiUtils.createId(UnitTests.ABI.getName(), "run1");
+        final String run2 = AbiUtils.createId(UnitTests.ABI.getName(), "run2");
+        mResultReporter.setJournalResults(true);
+        mResultReporter.invocationStarted(mMockBuild);
+        mResultReporter.testRunStarted(run2, 1);
+        mResultReporter.testStarted(failTest);
+        mResultReporter.testFailed(failTest, "trace");
+        mResultReporter.testEnded(failTest, emptyMap);
+        mResultReporter.testRunEnded(3, emptyMap);
+        mResultReporter.testRunStarted(run1, 1);
+        mResultReporter.testStarted(passTest);
+        mResultReporter.testEnded(passTest, emptyMap);
+        mResultReporter.testRunEnded(3, emptyMap);
+        mResultReporter.testRunStarted(run2, 1);
+        mResultReporter.testStarted(resumedTest);
+        mResultReporter.testEnded(resumedTest, emptyMap);
+        mResultReporter.testRunEnded(3, emptyMap);
+        mResultReporter.invocationEnded(1);
+        String output = getOutput();
+        assertTrue(output, output.contains(
+                "<Summary failed=\"1\" notExecuted=\"0\" timeout=\"0\" pass=\"2\" />"));
+        int run1Index = output.indexOf("appPackageName=\"run1\"");
+        int run2Index = output.indexOf("appPackageName=\"run2\"");
+        assertTrue(output, run1Index != -1);
+        assertTrue(output, run2Index > run1Index);
+        assertEquals(run2Index, output.lastIndexOf("appPackageName=\"run2\""));
+        assertTrue(output, output.contains("<Test name=\"testFail\" result=\"fail\""));
+        assertTrue(output, output.contains("<Test name=\"testResumed\" result=\"pass\""));
+        assertTrue(output, output.endsWith("</TestResult>"));
+        // the journal is removed once the result file is complete
+        for (File resultDir : mReportDir.listFiles()) {
+            assertFalse(new File(resultDir, ResultJournal.JOURNAL_DIR_NAME).exists());
+        }
+    }
+
+    /**
+     * Test that the results of a continued session that crashed are recovered when the session
+     * is continued again, rather than replaced by the older result file.
+     */
+    public void testJournalResults_continueAfterCrash() throws Exception {
+        Map<String, String> emptyMap = Collections.emptyMap();
+        final TestIdentifier fixedTest = new TestIdentifier("com.foo.FooTest", "testFixed");
+        final TestIdentifier newTest = new TestIdentifier("com.foo.FooTest", "testNew");
+        final String run1 = AbiUtils.createId(UnitTests.ABI.getName(), "run1");
+        final String run2 = AbiUtils.createId(UnitTests.ABI.getName(), "run2");
+        CtsXmlResultReporter reporter = new CtsXmlResultReporter();
+        reporter.setJournalResults(true);
+        reporter.invocationStarted(mMockBuild);
+        reporter.testRunStarted(run1, 1);
+        reporter.testStarted(fixedTest);
+        reporter.testFailed(fixedTest, "trace");
+        reporter.testEnded(fixedTest, emptyMap);
+        reporter.testRunEnded(3, emptyMap);
+        reporter.invocationEnded(1);
+        File resultsDir = new File(mBuildDir, "android-cts/repository/results");
+        File[] sessionDirs = resultsDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        });
+        assertEquals(1, sessionDirs.length);
+        File sessionDir = sessionDirs[0];
+
+        // a continued invocation journals the package again, and crashes
+        ResultJournal journal = new ResultJournal(sessionDir);
+        assertTrue(journal.open());
+        journal.writeSessionInfo("NA", "st", "");
+        TestPackageResult pkg = new TestPackageResult();
+        pkg.setAbi(UnitTests.ABI.getName());
+        pkg.setAppPackageName("run1");
+        pkg.insertTest(fixedTest);
+        pkg.reportTestEnded(fixedTest, emptyMap);
+        journal.write(pkg);
+        journal.close();
+
+        CtsXmlResultReporter continued = new CtsXmlResultReporter();
+        new OptionSetter(continued).setOptionValue(CtsTest.CONTINUE_OPTION, "0");
+        continued.setJournalResults(true);
+        continued.invocationStarted(mMockBuild);
+        continued.testRunStarted(run2, 1);
+        continued.testStarted(newTest);
+        continued.testEnded(newTest, emptyMap);
+        continued.testRunEnded(3, emptyMap);
+        continued.invocationEnded(1);
+
+        String output = FileUtil.readStringFromFile(new File(sessionDir,
+                CtsXmlResultReporter.TEST_RESULT_FILE_NAME)).replaceAll("[\\r\\n\\t]", "");
+        assertTrue(output, output.contains("<Test name=\"testFixed\" result=\"pass\""));
+        assertTrue(output, output.contains("<Test name=\"testNew\" result=\"pass\""));
+        assertFalse(output, output.contains("result=\"fail\""));
+        assertFalse(new File(sessionDir, ResultJournal.JOURNAL_DIR_NAME).exists());
+    }
+
     /**
      * Gets the output produced, stripping it of extraneous whitespace characters.
      */
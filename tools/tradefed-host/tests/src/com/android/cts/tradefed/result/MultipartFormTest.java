@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Unit tests for {@link MultipartForm}, against a local HTTP server.
+ */
+public class MultipartFormTest extends TestCase {
+
+    private static final String BOUNDARY = "--C75I55u3R3p0r73r";
+    /** the line separator of the form */
+    private static final String NEWLINE = System.getProperty("line.separator");
+
+    private HttpServer mServer;
+    private String mServerUrl;
+    /** the response codes to return, in order. Once used up, requests succeed. */
+    private final List<Integer> mResponseCodes = new ArrayList<Integer>();
+    private final List<byte[]> mRequestBodies = new ArrayList<byte[]>();
+    private final List<String> mTransferEncodings = new ArrayList<String>();
+    private final List<String> mRequestPaths = new ArrayList<String>();
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                StreamUtil.copyStreams(exchange.getRequestBody(), body);
+                synchronized (mRequestBodies) {
+                    mRequestBodies.add(body.toByteArray());
+                    mTransferEncodings.add(
+                            exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+                    mRequestPaths.add(exchange.getRequestURI().getPath());
+                    int code = mResponseCodes.isEmpty() ? 200 : mResponseCodes.remove(0);
+                    if (code == 302) {
+                        exchange.getResponseHeaders().add("Location", mServerUrl + "redirect");
+                    }
+                    exchange.sendResponseHeaders(code, -1);
+                }
+                exchange.close();
+            }
+        });
+        mServer.start();
+        mServerUrl = String.format("http://localhost:%d/", mServer.getAddress().getPort());
+        mFile = FileUtil.createTempFile("form", ".txt");
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            data.append("line ").append(i).append('\n');
+        }
+        FileUtil.writeToFile(data.toString(), mFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.stop(0);
+        FileUtil.deleteFile(mFile);
+        super.tearDown();
+    }
+
+    /**
+     * Test {@link MultipartForm#submit()} streams the form values and the gzipped file.
+     */
+    public void testSubmit() throws Exception {
+        MultipartForm form = createForm();
+        form.submit();
+        assertEquals(1, form.getAttempts());
+        assertEquals(1, mRequestBodies.size());
+        assertEquals("chunked", mTransferEncodings.get(0));
+        byte[] body = mRequestBodies.get(0);
+        assertEquals(body.length, form.getBytesSent());
+        String text = new String(body, "ISO-8859-1");
+        assertTrue(text.contains("name=\"suite\"" + NEWLINE + NEWLINE + "CTS" + NEWLINE));
+        assertTrue(text.contains("filename=\"form.txt.gz\""));
+        assertTrue(text.trim().endsWith(BOUNDARY + "--"));
+        assertEquals(FileUtil.readStringFromFile(mFile), getFileData(body));
+    }
+
+    /**
+     * Test {@link MultipartForm#submit()} retries after a server error.
+     */
+    public void testSubmit_retry() throws Exception {
+        mResponseCodes.add(503);
+        MultipartForm form = createForm();
+        form.submit();
+        assertEquals(2, form.getAttempts());
+        assertEquals(2, mRequestBodies.size());
+        assertEquals(FileUtil.readStringFromFile(mFile), getFileData(mRequestBodies.get(1)));
+    }
+
+    /**
+     * Test {@link MultipartForm#submit()} gives up after the server is repeatedly unavailable.
+     */
+    public void testSubmit_retryLimit() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            mResponseCodes.add(503);
+        }
+        MultipartForm form = createForm();
+        try {
+            form.submit();
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(3, form.getAttempts());
+    }
+
+    /**
+     * Test {@link MultipartForm#submit()} does not post the form again after a server error,
+     * since the server may already have stored it.
+     */
+    public void testSubmit_serverError() throws Exception {
+        mResponseCodes.add(500);
+        MultipartForm form = createForm();
+        try {
+            form.submit();
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, form.getAttempts());
+        assertEquals(1, mRequestBodies.size());
+    }
+
+    /**
+     * Test {@link MultipartForm#submit()} only retries the redirected post once the first post
+     * was accepted.
+     */
+    public void testSubmit_retryRedirect() throws Exception {
+        mResponseCodes.add(302);
+        mResponseCodes.add(503);
+        MultipartForm form = createForm();
+        form.submit();
+        assertEquals(3, form.getAttempts());
+        assertEquals(3, mRequestPaths.size());
+        assertEquals("/", mRequestPaths.get(0));
+        assertEquals("/redirect", mRequestPaths.get(1));
+        assertEquals("/redirect", mRequestPaths.get(2));
+    }
+
+    /**
+     * Test {@link MultipartForm#submit()} does not retry a form the server rejected.
+     */
+    public void testSubmit_rejected() throws Exception {
+        mResponseCodes.add(400);
+        MultipartForm form = createForm();
+        try {
+            form.submit();
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, form.getAttempts());
+        assertEquals(1, mRequestBodies.size());
+    }
+
+    private MultipartForm createForm() {
+        MultipartForm form = new MultipartForm(mServerUrl)
+                .addFormValue("suite", "CTS")
+                .addFormFile("file", "form.txt.gz", mFile, true);
+        form.setRetryDelay(1);
+        return form;
+    }
+
+    /**
+     * @return the ungzipped contents of the file part of the given form body
+     */
+    private String getFileData(byte[] body) throws IOException {
+        String text = new String(body, "ISO-8859-1");
+        String separator = "Content-Transfer-Encoding: binary" + NEWLINE + NEWLINE;
+        int start = text.indexOf(separator) + separator.length();
+        int end = text.lastIndexOf(BOUNDARY);
+        GZIPInputStream input = new GZIPInputStream(
+                new ByteArrayInputStream(body, start, end - start));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        StreamUtil.copyStreams(input, output);
+        return output.toString("UTF-8");
+    }
+}
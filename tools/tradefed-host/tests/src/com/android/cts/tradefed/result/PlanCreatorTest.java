@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.cts.tradefed.testtype.TestFilter;
+import com.android.ddmlib.testrunner.TestIdentifier;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Unit tests for {@link PlanCreator}.
+ */
+public class PlanCreatorTest extends TestCase {
+
+    private static final TestIdentifier TEST1 = new TestIdentifier("FooTest", "testFoo");
+    private static final TestIdentifier TEST2 = new TestIdentifier("FooTest", "testFoo2");
+    private static final TestIdentifier TEST3 = new TestIdentifier("FooTest2", "testFoo3");
+    private static final TestIdentifier TEST4 = new TestIdentifier("FooTest3", "testFoo4");
+    private static final TestIdentifier TEST5 = new TestIdentifier("FooTest3", "testFoo5");
+
+    private List<TestIdentifier> mPkgTests;
+    private TestFilter mFilter;
+
+    @Override
+    protected void setUp() throws Exception {
+        mPkgTests = Arrays.asList(TEST1, TEST2, TEST3, TEST4, TEST5);
+        mFilter = new TestFilter();
+    }
+
+    /**
+     * Test {@link PlanCreator#addTestFilter} when only a few tests are left to run, so they are
+     * included rather than the rest excluded.
+     */
+    public void testAddTestFilter_include() {
+        PlanCreator.addTestFilter(mFilter, mPkgTests, testSet(TEST1, TEST3));
+        assertTrue(mFilter.hasInclusion());
+        assertFalse(mFilter.hasExclusion());
+        assertEquals(Arrays.asList(TEST1, TEST3), filter());
+    }
+
+    /**
+     * Test {@link PlanCreator#addTestFilter} when most tests are left to run, so the rest are
+     * excluded.
+     */
+    public void testAddTestFilter_exclude() {
+        PlanCreator.addTestFilter(mFilter, mPkgTests, testSet(TEST1, TEST3, TEST4));
+        assertFalse(mFilter.hasInclusion());
+        assertTrue(mFilter.hasExclusion());
+        assertEquals(Arrays.asList(TEST1, TEST3, TEST4), filter());
+    }
+
+    /**
+     * Test {@link PlanCreator#addTestFilter} when no tests are left to run, which must not be
+     * represented as an empty inclusion.
+     */
+    public void testAddTestFilter_none() {
+        PlanCreator.addTestFilter(mFilter, mPkgTests, new HashSet<TestIdentifier>());
+        assertFalse(mFilter.hasInclusion());
+        assertTrue(filter().isEmpty());
+        // tests added to the package since are excluded by class as well
+        assertTrue(mFilter.filter(Arrays.asList(new TestIdentifier("FooTest", "testNew")))
+                .isEmpty());
+    }
+
+    private HashSet<TestIdentifier> testSet(TestIdentifier... tests) {
+        return new HashSet<TestIdentifier>(Arrays.asList(tests));
+    }
+
+    private List<TestIdentifier> filter() {
+        Collection<TestIdentifier> filtered = mFilter.filter(mPkgTests);
+        return new ArrayList<TestIdentifier>(filtered);
+    }
+}
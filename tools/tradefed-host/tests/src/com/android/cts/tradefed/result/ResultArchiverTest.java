@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.StreamUtil;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Unit tests for {@link ResultArchiver}.
+ */
+public class ResultArchiverTest extends TestCase {
+
+    private File mTmpDir;
+    private File mResultDir;
+    private ResultArchiver mArchiver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTmpDir = FileUtil.createTempDir("archiver");
+        mResultDir = new File(mTmpDir, "result");
+        mResultDir.mkdir();
+        mArchiver = new ResultArchiver(2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mArchiver.close();
+        FileUtil.recursiveDelete(mTmpDir);
+        super.tearDown();
+    }
+
+    /**
+     * Test {@link ResultArchiver#createZip} on files spanning several chunks, in a directory tree.
+     */
+    public void testCreateZip() throws Exception {
+        byte[] large = createData(ResultArchiver.CHUNK_SIZE * 3 + 17);
+        byte[] exact = createData(ResultArchiver.CHUNK_SIZE);
+        writeFile(new File(mResultDir, "large.xml"), large);
+        File subDir = new File(mResultDir, "sub");
+        subDir.mkdir();
+        writeFile(new File(subDir, "exact.txt"), exact);
+        writeFile(new File(subDir, "empty.txt"), new byte[0]);
+
+        File zipFile = new File(mTmpDir, "result.zip");
+        mArchiver.createZip(mResultDir, zipFile, Collections.<String>emptyList());
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            assertEquals(5, zip.size());
+            assertNotNull(zip.getEntry("result/"));
+            assertNotNull(zip.getEntry("result/sub/"));
+            assertContents(large, zip, "result/large.xml");
+            assertContents(exact, zip, "result/sub/exact.txt");
+            assertContents(new byte[0], zip, "result/sub/empty.txt");
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Test {@link ResultArchiver#createZip} with files compressed while they were written,
+     * including one modified afterwards.
+     */
+    public void testCreateZip_compressWhileWriting() throws Exception {
+        byte[] data = createData(ResultArchiver.CHUNK_SIZE * 2 + 5);
+        File file = new File(mResultDir, "testResult.xml");
+        OutputStream out = mArchiver.compressWhileWriting(new FileOutputStream(file), file);
+        for (int i = 0; i < data.length; i += 1000) {
+            out.write(data, i, Math.min(1000, data.length - i));
+        }
+        out.close();
+        byte[] modified = createData(100);
+        File modifiedFile = new File(mResultDir, "modified.xml");
+        out = mArchiver.compressWhileWriting(new FileOutputStream(modifiedFile), modifiedFile);
+        out.write(data);
+        out.close();
+        writeFile(modifiedFile, modified);
+
+        File zipFile = new File(mTmpDir, "result.zip");
+        mArchiver.createZip(mResultDir, zipFile, Collections.<String>emptyList());
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            assertContents(data, zip, "result/testResult.xml");
+            assertContents(modified, zip, "result/modified.xml");
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Test that excluded files and directories directly in the zipped directory are left out, by
+     * both {@link ResultArchiver#createZip} and {@link ResultArchiver#createSequentialZip}.
+     */
+    public void testCreateZip_excluded() throws Exception {
+        byte[] data = createData(100);
+        writeFile(new File(mResultDir, "testResult.xml"), data);
+        writeFile(new File(mResultDir, "testResult.bin"), data);
+        File journalDir = new File(mResultDir, "journal");
+        journalDir.mkdir();
+        writeFile(new File(journalDir, "pkg.xml"), data);
+        List<String> excluded = Arrays.asList("testResult.bin", "journal");
+
+        File zipFile = new File(mTmpDir, "result.zip");
+        File sequentialZipFile = new File(mTmpDir, "sequential.zip");
+        mArchiver.createZip(mResultDir, zipFile, excluded);
+        ResultArchiver.createSequentialZip(mResultDir, sequentialZipFile, excluded);
+        for (File file : new File[] {zipFile, sequentialZipFile}) {
+            ZipFile zip = new ZipFile(file);
+            try {
+                assertEquals(2, zip.size());
+                assertNotNull(zip.getEntry("result/"));
+                assertContents(data, zip, "result/testResult.xml");
+            } finally {
+                zip.close();
+            }
+        }
+    }
+
+    /**
+     * Test {@link ResultArchiver#compressLog}.
+     */
+    public void testCompressLog() throws Exception {
+        byte[] data = createData(1000);
+        File logFile = new File(mTmpDir, "logcat_123.txt");
+        writeFile(logFile, data);
+        File zipFile = mArchiver.compressLog(logFile, "logcat.txt");
+        assertEquals("logcat_123.zip", zipFile.getName());
+        mArchiver.close();
+        assertFalse(logFile.exists());
+        ZipFile zip = new ZipFile(zipFile);
+        try {
+            assertContents(data, zip, "logcat.txt");
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * @return compressible data of the given length that does not repeat within a chunk
+     */
+    private byte[] createData(int length) {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; lines.size() * 40 < length; i++) {
+            lines.add(String.format("<Test name=\"test%d\" result=\"pass\" />\n", i));
+        }
+        Collections.shuffle(lines, new Random(length));
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line);
+        }
+        byte[] data = new byte[length];
+        byte[] text = builder.toString().getBytes();
+        System.arraycopy(text, 0, data, 0, Math.min(length, text.length));
+        return data;
+    }
+
+    private void writeFile(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void assertContents(byte[] expected, ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        assertNotNull(name, entry);
+        InputStream in = zip.getInputStream(entry);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StreamUtil.copyStreams(in, out);
+            assertTrue(name, Arrays.equals(expected, out.toByteArray()));
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Unit tests for {@link ResultMerger}.
+ */
+public class ResultMergerTest extends TestCase {
+
+    private static final String OLD_SESSION =
+        "<TestResult testPlan=\"CTS\" starttime=\"start1\" endtime=\"end1\" suite=\"CTS\">" +
+            "<DeviceInfo><BuildInfo build_model=\"model\" /></DeviceInfo>" +
+            "<Summary failed=\"1\" notExecuted=\"0\" pass=\"2\" timeout=\"0\"/>" +
+            createPackage("a", createTest("testFail", "fail") + createTest("testPass", "pass")) +
+            createPackage("b", createTest("testB", "pass")) +
+        "</TestResult>";
+
+    private static final String NEW_SESSION =
+        "<TestResult testPlan=\"CTS\" starttime=\"start2\" endtime=\"end2\" suite=\"CTS\">" +
+            "<Summary failed=\"1\" notExecuted=\"1\" pass=\"2\" timeout=\"0\"/>" +
+            createPackage("a", createTest("testFail", "pass") + createTest("testPass", "fail") +
+                    createTest("testNew", "notExecuted")) +
+            createPackage("c", createTest("testC", "fail")) +
+        "</TestResult>";
+
+    private File mTmpDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTmpDir = FileUtil.createTempDir("merge");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTmpDir);
+        super.tearDown();
+    }
+
+    /**
+     * Test merging two sessions with an overlapping package.
+     */
+    public void testMerge() throws Exception {
+        File reportDir = new File(mTmpDir, "merged");
+        assertTrue(reportDir.mkdir());
+        ResultMerger.merge(Arrays.asList(createResult("old", OLD_SESSION),
+                createResult("new", NEW_SESSION)), reportDir);
+        assertFalse(new File(reportDir, ResultJournal.JOURNAL_DIR_NAME).exists());
+        assertTrue(new File(mTmpDir, "merged.zip").exists());
+
+        TestResults results = new TestResults();
+        File resultFile = new File(reportDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        results.parse(new BufferedReader(new FileReader(resultFile)));
+        assertEquals("model", results.getDeviceInfo().getMetrics().get("build_model"));
+        Iterator<TestPackageResult> pkgs = results.getPackages().iterator();
+        TestPackageResult pkgA = pkgs.next();
+        assertEquals("abi a", pkgA.getId());
+        assertEquals("abi b", pkgs.next().getId());
+        assertEquals("abi c", pkgs.next().getId());
+        assertFalse(pkgs.hasNext());
+
+        // a pass beats a failure from either session
+        assertEquals(CtsTestStatus.PASS, findTest(pkgA, "testFail").getResult());
+        assertEquals(CtsTestStatus.PASS, findTest(pkgA, "testPass").getResult());
+        assertEquals(CtsTestStatus.NOT_EXECUTED, findTest(pkgA, "testNew").getResult());
+        assertEquals(3, results.countTests(CtsTestStatus.PASS));
+        assertEquals(1, results.countTests(CtsTestStatus.FAIL));
+        assertEquals(1, results.countTests(CtsTestStatus.NOT_EXECUTED));
+
+        // the summary counts precede the packages
+        TestSummaryXml summary = new TestSummaryXml(0, "merged");
+        summary.parse(new BufferedReader(new FileReader(resultFile)));
+        assertEquals(3, summary.getNumPassed());
+        assertEquals("start1", summary.getStartTime());
+    }
+
+    /**
+     * Test that a result with unsorted packages is rejected.
+     */
+    public void testMerge_unsorted() throws Exception {
+        String unsorted = "<TestResult testPlan=\"CTS\" starttime=\"st\">" +
+                createPackage("b", createTest("testB", "pass")) +
+                createPackage("a", createTest("testA", "pass")) +
+                "</TestResult>";
+        List<File> resultFiles = new ArrayList<File>();
+        resultFiles.add(createResult("old", OLD_SESSION));
+        resultFiles.add(createResult("unsorted", unsorted));
+        File reportDir = new File(mTmpDir, "merged");
+        assertTrue(reportDir.mkdir());
+        try {
+            ResultMerger.merge(resultFiles, reportDir);
+            fail("IOException not thrown");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private File createResult(String name, String data) throws IOException {
+        File resultFile = new File(mTmpDir, name + ".xml");
+        FileUtil.writeToFile(data, resultFile);
+        return resultFile;
+    }
+
+    private static Test findTest(TestPackageResult pkg, String name) {
+        return pkg.findTest(new TestIdentifier("com.example.ExampleTest", name));
+    }
+
+    private static String createPackage(String name, String tests) {
+        return String.format("<TestPackage name=\"%s\" appPackageName=\"%s\" abi=\"abi\">" +
+                "<TestSuite name=\"com\"><TestSuite name=\"example\">" +
+                "<TestCase name=\"ExampleTest\" priority=\"\">%s</TestCase>" +
+                "</TestSuite></TestSuite></TestPackage>", name, name, tests);
+    }
+
+    private static String createTest(String name, String result) {
+        return String.format("<Test name=\"%s\" result=\"%s\" starttime=\"s\" endtime=\"e\" />",
+                name, result);
+    }
+}
@@ -15,17 +15,21 @@
  */
 package com.android.cts.tradefed.result;
 
+import com.android.cts.tradefed.util.CtsHostStore;
+import com.android.cts.util.PerfResult;
+import com.android.cts.util.ResultType;
+import com.android.cts.util.ResultUnit;
 import com.android.ddmlib.testrunner.TestIdentifier;
 
-import junit.framework.TestCase;
-
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Unit tests for {@link TestPackageResult}.
  */
-public class TestPackageResultTest extends TestCase {
+public class TestPackageResultTest extends junit.framework.TestCase {
 
     /**
      * Simple test for {@link TestPackageResult#getTestsWithStatus(CtsTestStatus)}.
@@ -43,4 +47,95 @@ public class TestPackageResultTest extends TestCase {
         assertEquals(1, tests.size());
         assertEquals(includedTest, tests.iterator().next());
     }
+
+    /**
+     * Test that inserted tests can be found, and are added to the suite tree in insertion order.
+     */
+    public void testInsertTest() {
+        TestPackageResult pkgResult = new TestPackageResult();
+        TestIdentifier first = new TestIdentifier("com.example.ExampleTest", "testFirst");
+        TestIdentifier second = new TestIdentifier("com.example.ExampleTest", "testSecond");
+        TestIdentifier other = new TestIdentifier("com.OtherTest", "testOther");
+        Test firstResult = pkgResult.insertTest(first);
+        assertSame(firstResult, pkgResult.insertTest(first));
+        assertSame(firstResult, pkgResult.findTest(first));
+        assertNull(pkgResult.findTest(second));
+        pkgResult.insertTest(other);
+        assertEquals(2, pkgResult.countTests(CtsTestStatus.NOT_EXECUTED));
+
+        TestSuite comSuite = pkgResult.getTestSuites().iterator().next();
+        assertEquals("com", comSuite.getName());
+        assertEquals("OtherTest", comSuite.getTestCases().iterator().next().getName());
+        TestCase exampleCase = comSuite.getTestSuites().iterator().next().getTestCases()
+                .iterator().next();
+        assertEquals(1, exampleCase.getTests().size());
+
+        // tests inserted after the tree is built are added to it on next use
+        Test secondResult = pkgResult.insertTest(second);
+        assertSame(secondResult, pkgResult.findTest(second));
+        assertEquals(1, pkgResult.getTestSuites().size());
+        Iterator<Test> tests = exampleCase.getTests().iterator();
+        assertSame(firstResult, tests.next());
+        assertSame(secondResult, tests.next());
+        assertFalse(tests.hasNext());
+    }
+
+    /**
+     * Test that a performance result reported in the test metrics is attached to the test when
+     * it ends.
+     */
+    public void testReportTestEnded_perfResult() {
+        final String report = "fps|30.0|higher_better|fps|58.5++++" +
+                "com.example.ExampleTest#testPerf:12|frames|neutral|ms|16.0 17.5 " +
+                "+++com.example.ExampleTest#testPerf:14|empty|lower_better|count|";
+        TestPackageResult pkgResult = new TestPackageResult();
+        TestIdentifier test = new TestIdentifier("com.example.ExampleTest", "testPerf");
+        pkgResult.insertTest(test);
+        pkgResult.reportTestFailure(test, CtsTestStatus.FAIL, "trace");
+        Map<String, String> metrics = new HashMap<String, String>();
+        metrics.put(TestPackageResult.CTS_RESULT_KEY, report);
+        pkgResult.reportTestEnded(test, metrics);
+
+        Test result = pkgResult.findTest(test);
+        assertEquals(CtsTestStatus.PASS, result.getResult());
+        PerfResult perfResult = result.getPerfResult();
+        PerfResult.Summary summary = perfResult.getSummary();
+        assertEquals("fps", summary.getMessage());
+        assertEquals(Double.valueOf(30.0), summary.getTarget());
+        assertEquals(ResultType.HIGHER_BETTER, summary.getType());
+        assertEquals(ResultUnit.FPS, summary.getUnit());
+        assertEquals(58.5, summary.getValue());
+        assertEquals(2, perfResult.getDetails().size());
+        PerfResult.ValueArray values = perfResult.getDetails().get(0);
+        assertEquals("com.example.ExampleTest#testPerf:12", values.getSource());
+        assertEquals(ResultUnit.MS, values.getUnit());
+        assertEquals(2, values.size());
+        assertEquals(17.5, values.getValue(1));
+        assertEquals(0, perfResult.getDetails().get(1).size());
+        assertEquals(report, perfResult.encode());
+    }
+
+    /**
+     * Test that a performance result stored by a host test is attached to the test when it ends.
+     */
+    public void testReportTestEnded_hostPerfResult() {
+        TestPackageResult pkgResult = new TestPackageResult();
+        pkgResult.setDeviceSerial("serial");
+        pkgResult.setAbi("abi");
+        TestIdentifier test = new TestIdentifier("com.example.ExampleTest", "testPerf");
+        pkgResult.insertTest(test);
+        CtsHostStore.storeCtsResult("serial", "abi", test.toString(),
+                "time| |lower_better|ms|5.0++++");
+        CtsHostStore.storeCtsResult("other", "abi", test.toString(),
+                "time| |lower_better|ms|6.0++++");
+        pkgResult.reportTestEnded(test, new HashMap<String, String>());
+
+        PerfResult perfResult = pkgResult.findTest(test).getPerfResult();
+        assertNull(perfResult.getSummary().getTarget());
+        assertEquals(5.0, perfResult.getSummary().getValue());
+        assertTrue(perfResult.getDetails().isEmpty());
+        // the result is consumed
+        assertNull(CtsHostStore.removePerfResult("serial", "abi", test.toString()));
+        assertNotNull(CtsHostStore.removePerfResult("other", "abi", test.toString()));
+    }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.result;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link TestResultRepo}.
+ */
+public class TestResultRepoTest extends TestCase {
+
+    private static final String RESULT_DATA =
+        "<TestResult testPlan=\"CTS\" starttime=\"st\">" +
+            "<Summary failed=\"1\" notExecuted=\"2\" pass=\"3\" timeout=\"0\"/>" +
+        "</TestResult>";
+
+    // same length as RESULT_DATA, so only the modification time can tell them apart
+    private static final String MODIFIED_DATA =
+        "<TestResult testPlan=\"CTS\" starttime=\"st\">" +
+            "<Summary failed=\"7\" notExecuted=\"8\" pass=\"9\" timeout=\"0\"/>" +
+        "</TestResult>";
+
+    private static final String FULL_RESULT_DATA =
+        "<TestResult testPlan=\"CTS\" starttime=\"st\">" +
+            "<DeviceInfo><BuildInfo build_model=\"model\" /></DeviceInfo>" +
+            "<Summary failed=\"1\" notExecuted=\"1\" pass=\"1\" timeout=\"0\"/>" +
+            "<TestPackage name=\"pkg\" appPackageName=\"com.example\" abi=\"abi\" " +
+                    "digest=\"d\">" +
+                "<TestSuite name=\"com\"><TestSuite name=\"example\">" +
+                    "<TestCase name=\"ExampleTest\" priority=\"\">" +
+                        "<Test name=\"testPass\" result=\"pass\" starttime=\"s1\" " +
+                                "endtime=\"e1\" />" +
+                        "<Test name=\"testFail\" result=\"fail\" starttime=\"s2\" " +
+                                "endtime=\"e2\">" +
+                            "<TestLog type=\"logcat\" url=\"http://logcat\" />" +
+                            "<FailedScene message=\"msg\">" +
+                                "<StackTrace>msg\nat line</StackTrace>" +
+                            "</FailedScene>" +
+                        "</Test>" +
+                        "<Test name=\"testNotExecuted\" result=\"notExecuted\" " +
+                                "starttime=\"s2\" endtime=\"e2\" />" +
+                    "</TestCase>" +
+                "</TestSuite></TestSuite>" +
+            "</TestPackage>" +
+        "</TestResult>";
+
+    private File mResultsDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResultsDir = FileUtil.createTempDir("results");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mResultsDir);
+        super.tearDown();
+    }
+
+    /**
+     * Test that summaries are cached in a sidecar and the index, and that the cache is used
+     * while the result file is unchanged.
+     */
+    public void testGetSummaries_cached() throws IOException {
+        File resultFile = createResult("2015.01.01_00.00.00", RESULT_DATA);
+        List<ITestSummary> summaries = new TestResultRepo(mResultsDir).getSummaries();
+        assertEquals(1, summaries.size());
+        assertSummary(summaries.get(0), 1, 2, 3);
+        assertTrue(new File(mResultsDir, ResultSummaryIndex.INDEX_FILE_NAME).exists());
+        assertTrue(new File(resultFile.getParentFile(),
+                ResultSummaryIndex.SUMMARY_FILE_NAME).exists());
+
+        // rewrite the result without changing its size or modification time
+        long lastModified = resultFile.lastModified();
+        FileUtil.writeToFile(MODIFIED_DATA, resultFile);
+        assertTrue(resultFile.setLastModified(lastModified));
+        assertSummary(new TestResultRepo(mResultsDir).getSummaries().get(0), 1, 2, 3);
+
+        // the cache is invalidated once the result file is modified
+        assertTrue(resultFile.setLastModified(lastModified + 10000));
+        assertSummary(new TestResultRepo(mResultsDir).getSummaries().get(0), 7, 8, 9);
+    }
+
+    /**
+     * Test that session ids are assigned by directory name when only some summaries are cached.
+     */
+    public void testGetSummaries_newSession() throws IOException {
+        createResult("2015.01.02_00.00.00", RESULT_DATA);
+        new TestResultRepo(mResultsDir).getSummaries();
+        createResult("2015.01.01_00.00.00", MODIFIED_DATA);
+        List<ITestSummary> summaries = new TestResultRepo(mResultsDir).getSummaries();
+        assertEquals(2, summaries.size());
+        assertEquals(0, summaries.get(0).getId());
+        assertEquals("2015.01.01_00.00.00", summaries.get(0).getTimestamp());
+        assertSummary(summaries.get(0), 7, 8, 9);
+        assertEquals(1, summaries.get(1).getId());
+        assertSummary(summaries.get(1), 1, 2, 3);
+    }
+
+    /**
+     * Test that loading a result does not write to the session, and that a stored binary copy
+     * holds the same results as the XML while the result file is unchanged.
+     */
+    public void testGetResult_stored() throws IOException {
+        File resultFile = createResult("2015.01.01_00.00.00", FULL_RESULT_DATA);
+        File storeFile = new File(resultFile.getParentFile(), BinaryResultStore.STORE_FILE_NAME);
+        TestResults parsed = new TestResultRepo(mResultsDir).getResult(0);
+        assertFalse(storeFile.exists());
+        BinaryResultStore.write(resultFile.getParentFile(), parsed);
+
+        TestResults stored = BinaryResultStore.read(resultFile.getParentFile());
+        assertNotNull(stored);
+        assertEquals(serialize(parsed), serialize(stored));
+        TestPackageResult pkg = stored.getPackages().iterator().next();
+        Test failed = pkg.findTest(new TestIdentifier("com.example.ExampleTest", "testFail"));
+        assertEquals(CtsTestStatus.FAIL, failed.getResult());
+        assertEquals("msg", failed.getMessage());
+        assertEquals("msg\nat line", failed.getStackTrace());
+        assertEquals(1, failed.getTestLogs().size());
+        assertEquals(1, stored.countTests(CtsTestStatus.NOT_EXECUTED));
+
+        // the stored copy is ignored once the result file is modified
+        assertTrue(resultFile.setLastModified(resultFile.lastModified() + 10000));
+        assertNull(BinaryResultStore.read(resultFile.getParentFile()));
+        assertNotNull(new TestResultRepo(mResultsDir).getResult(0));
+    }
+
+    /**
+     * Test that the most recent duration of each package is returned.
+     */
+    public void testGetPackageDurations() throws IOException {
+        File oldDir = createResult("2015.01.01_00.00.00", RESULT_DATA).getParentFile();
+        File newDir = createResult("2015.01.02_00.00.00", RESULT_DATA).getParentFile();
+        Map<String, Long> durations = new HashMap<String, Long>();
+        durations.put("abi pkgA", 10L);
+        durations.put("abi pkgB", 20L);
+        PackageDurations.store(oldDir, durations);
+        durations.clear();
+        durations.put("abi pkgA", 30L);
+        PackageDurations.store(newDir, durations);
+
+        durations = new TestResultRepo(mResultsDir).getPackageDurations();
+        assertEquals(2, durations.size());
+        assertEquals(Long.valueOf(30), durations.get("abi pkgA"));
+        assertEquals(Long.valueOf(20), durations.get("abi pkgB"));
+    }
+
+    private File createResult(String name, String data) throws IOException {
+        File resultDir = new File(mResultsDir, name);
+        assertTrue(resultDir.mkdir());
+        File resultFile = new File(resultDir, CtsXmlResultReporter.TEST_RESULT_FILE_NAME);
+        FileUtil.writeToFile(data, resultFile);
+        return resultFile;
+    }
+
+    private String serialize(TestResults results) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        CtsXmlResultReporter.serializeResults(stream, results, "CTS", "st", "et", "suite");
+        return stream.toString("UTF-8");
+    }
+
+    private void assertSummary(ITestSummary summary, int failed, int notExecuted, int passed) {
+        assertEquals(failed, summary.getNumFailed());
+        assertEquals(notExecuted, summary.getNumIncomplete());
+        assertEquals(passed, summary.getNumPassed());
+        assertEquals("CTS", summary.getTestPlan());
+        assertEquals("st", summary.getStartTime());
+    }
+}
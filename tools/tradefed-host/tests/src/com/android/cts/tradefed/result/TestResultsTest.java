@@ -15,6 +15,7 @@
  */
 package com.android.cts.tradefed.result;
 
+import com.android.ddmlib.testrunner.TestIdentifier;
 import com.android.tradefed.util.xml.AbstractXmlParser.ParseException;
 
 import java.io.StringReader;
@@ -102,5 +103,7 @@ public class TestResultsTest extends junit.framework.TestCase {
         assertEquals("testExample", exampleTest.getName());
         assertEquals("msg", exampleTest.getMessage());
         assertEquals("at ExampleTest.testExample()", exampleTest.getStackTrace());
+        assertSame(exampleTest, pkg.findTest(
+                new TestIdentifier("com.example.ExampleTest", "testExample")));
     }
 }
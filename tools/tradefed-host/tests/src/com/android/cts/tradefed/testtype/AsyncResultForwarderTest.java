@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.result.ByteArrayInputStreamSource;
+import com.android.tradefed.result.InputStreamSource;
+import com.android.tradefed.result.LogDataType;
+import com.android.tradefed.result.StubTestInvocationListener;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link AsyncResultForwarder}.
+ */
+public class AsyncResultForwarderTest extends TestCase {
+
+    private static final TestIdentifier TEST = new TestIdentifier("FooTest", "testFoo");
+
+    /**
+     * Records the events it receives, optionally taking some time for each.
+     */
+    private static class RecordingListener extends StubTestInvocationListener {
+        private final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+        private final long mDelayMs;
+
+        RecordingListener(long delayMs) {
+            mDelayMs = delayMs;
+        }
+
+        private void record(String event) {
+            if (mDelayMs > 0) {
+                try {
+                    Thread.sleep(mDelayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            mEvents.add(event);
+        }
+
+        @Override
+        public void testRunStarted(String runName, int testCount) {
+            record("runStarted " + runName);
+        }
+
+        @Override
+        public void testStarted(TestIdentifier test) {
+            record("started " + test.getTestName());
+        }
+
+        @Override
+        public void testFailed(TestIdentifier test, String trace) {
+            throw new IllegalStateException("listener failure");
+        }
+
+        @Override
+        public void testEnded(TestIdentifier test, Map<String, String> testMetrics) {
+            record("ended " + test.getTestName());
+        }
+
+        @Override
+        public void testLog(String dataName, LogDataType dataType,
+                InputStreamSource dataStream) {
+            record("log " + dataName);
+        }
+
+        @Override
+        public void testRunEnded(long elapsedTime, Map<String, String> runMetrics) {
+            record("runEnded");
+        }
+    }
+
+    /**
+     * Test that each listener receives all events in order, even if one of them is slow and
+     * another throws, and that {@link AsyncResultForwarder#close()} delivers pending events.
+     */
+    public void testOrdering() {
+        RecordingListener fast = new RecordingListener(0);
+        RecordingListener slow = new RecordingListener(2);
+        AsyncResultForwarder forwarder = new AsyncResultForwarder(4, fast, slow);
+        List<String> expected = new ArrayList<String>();
+        forwarder.testRunStarted("run", 10);
+        expected.add("runStarted run");
+        for (int i = 0; i < 10; i++) {
+            TestIdentifier test = new TestIdentifier("FooTest", "test" + i);
+            forwarder.testStarted(test);
+            forwarder.testFailed(test, "trace");
+            forwarder.testEnded(test, Collections.<String, String>emptyMap());
+            expected.add("started test" + i);
+            expected.add("ended test" + i);
+        }
+        forwarder.testRunEnded(0, Collections.<String, String>emptyMap());
+        expected.add("runEnded");
+        forwarder.close();
+
+        assertEquals(expected, fast.mEvents);
+        assertEquals(expected, slow.mEvents);
+        List<AsyncResultForwarder.ListenerStats> stats = forwarder.getStats();
+        assertEquals(32, stats.get(0).getEventCount());
+        assertEquals(32, stats.get(1).getEventCount());
+        // posting waits once the slow listener has a full queue. The depth also counts the event
+        // being delivered and the one waiting to be queued
+        assertTrue(stats.get(1).getMaxQueueDepth() <= 6);
+        assertTrue(stats.get(1).getLatencyPercentile(99) >= 1000);
+    }
+
+    /**
+     * Test that {@link AsyncResultForwarder#testLog} returns only once the log was delivered.
+     */
+    public void testTestLog() {
+        RecordingListener slow = new RecordingListener(20);
+        AsyncResultForwarder forwarder = new AsyncResultForwarder(16, slow);
+        forwarder.testStarted(TEST);
+        forwarder.testLog("screenshot", LogDataType.PNG,
+                new ByteArrayInputStreamSource(new byte[0]));
+        assertEquals(2, slow.mEvents.size());
+        assertEquals("log screenshot", slow.mEvents.get(1));
+        forwarder.close();
+    }
+
+    /**
+     * Test the percentiles of {@link AsyncResultForwarder.LatencyHistogram}.
+     */
+    public void testLatencyHistogram() {
+        AsyncResultForwarder.LatencyHistogram histogram =
+                new AsyncResultForwarder.LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.add(i);
+        }
+        assertEquals(5, histogram.getPercentile(0.5));
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500 && p50 <= 500 * 1.125);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990 && p99 <= 990 * 1.125);
+        histogram.add(1000000);
+        long max = histogram.getPercentile(100);
+        assertTrue(max >= 1000000 && max <= 1000000 * 1.125);
+    }
+}
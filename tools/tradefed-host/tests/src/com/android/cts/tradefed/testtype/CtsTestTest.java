@@ -155,6 +155,30 @@ public class CtsTestTest extends TestCase {
         verifyMocks();
     }
 
+    /**
+     * Test {@link CtsTest#run(ITestInvocationListener)} when taking packages from a queue shared
+     * with other shards.
+     */
+    @SuppressWarnings("unchecked")
+    public void testRun_packageQueue() throws DeviceNotAvailableException {
+        SharedPackageQueue queue = new SharedPackageQueue();
+        mCtsTest.setPackageQueue(queue);
+        mCtsTest.addPackageName(PACKAGE_NAME);
+        Map<String, List<ITestPackageDef>> nameMap = new HashMap<>();
+        List<ITestPackageDef> testPackageDefList = new ArrayList<>();
+        testPackageDefList.add(mMockPackageDef);
+        nameMap.put(PACKAGE_NAME, testPackageDefList);
+
+        EasyMock.expect(mMockRepo.getTestPackageDefsByName()).andReturn(nameMap);
+
+        setCreateAndRunTestExpectations();
+
+        replayMocks();
+        mCtsTest.run(mMockListener);
+        verifyMocks();
+        assertEquals(0, queue.size());
+    }
+
     /**
      * Test a resumed run
      */
@@ -596,4 +596,51 @@ public class DeqpTestRunnerTest extends TestCase {
     public void testRun_resultTimeout() throws Exception {
         testResultCode("Timeout", false);
     }
+
+    /**
+     * Test that the testcase trie groups tests by path and respects the batch size.
+     */
+    public void testGenerateTestCaseTrie() {
+        Collection<TestIdentifier> tests = new ArrayList<TestIdentifier>();
+        tests.add(new TestIdentifier("dEQP-GLES3.info", "vendor"));
+        tests.add(new TestIdentifier("dEQP-GLES3.functional.color", "red"));
+        tests.add(new TestIdentifier("dEQP-GLES3.info", "renderer"));
+        tests.add(new TestIdentifier("dEQP-GLES3", "version"));
+        tests.add(new TestIdentifier("dEQP-GLES3.functional.color", "blue"));
+        assertEquals("{dEQP-GLES3{version,info{vendor,renderer},functional{color{red,blue}}}}",
+                DeqpTestRunner.generateTestCaseTrie(tests, DeqpTestRunner.TESTCASE_BATCH_LIMIT));
+        assertEquals("{dEQP-GLES3{info{vendor},functional{color{red}}}}",
+                DeqpTestRunner.generateTestCaseTrie(tests, 2));
+        // a testcase that is also a test group prefix is written as both
+        tests.add(new TestIdentifier("dEQP-GLES3.functional", "color"));
+        assertEquals(
+                "{dEQP-GLES3{version,info{vendor,renderer},functional{color,color{red,blue}}}}",
+                DeqpTestRunner.generateTestCaseTrie(tests, DeqpTestRunner.TESTCASE_BATCH_LIMIT));
+    }
+
+    /**
+     * Test that adaptive batches are sized by the measured test speed, within the limits.
+     */
+    public void testGetAdaptiveBatchSize() {
+        assertEquals(4000, DeqpTestRunner.getAdaptiveBatchSize(1000, 30000, 120000));
+        assertEquals(DeqpTestRunner.TESTCASE_BATCH_LIMIT,
+                DeqpTestRunner.getAdaptiveBatchSize(1000, 240000, 120000));
+        assertEquals(DeqpTestRunner.MAX_ADAPTIVE_BATCH_SIZE,
+                DeqpTestRunner.getAdaptiveBatchSize(1000, 0, 120000));
+    }
+
+    /**
+     * Test that test logs are truncated at the maximum size.
+     */
+    public void testTestLogBuffer_truncated() {
+        DeqpTestRunner.TestLogBuffer log = new DeqpTestRunner.TestLogBuffer(5);
+        assertTrue(log.isEmpty());
+        log.append("abc");
+        log.append(null);
+        assertFalse(log.isTruncated());
+        log.append("defg");
+        log.append("h");
+        assertTrue(log.isTruncated());
+        assertEquals("abcde", new String(log.getBytes()));
+    }
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.ddmlib.testrunner.TestIdentifier;
+import com.android.tradefed.device.ITestDevice;
+import com.android.tradefed.result.ByteArrayInputStreamSource;
+import com.android.tradefed.result.ITestInvocationListener;
+import com.android.tradefed.result.InputStreamSource;
+import com.android.tradefed.result.LogDataType;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Unit tests for {@link FailureLogCollector}.
+ */
+public class FailureLogCollectorTest extends TestCase {
+
+    private static final String RUN_NAME = "run";
+    private static final TestIdentifier TEST1 = new TestIdentifier("FooTest", "testFoo");
+    private static final TestIdentifier TEST2 = new TestIdentifier("FooTest", "testFoo2");
+
+    private ITestDevice mMockDevice;
+    private ITestInvocationListener mMockListener;
+    private FailureLogCollector mCollector;
+    private Map<String, String> mMetrics = Collections.emptyMap();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mMockDevice = EasyMock.createMock(ITestDevice.class);
+        mMockListener = EasyMock.createStrictMock(ITestInvocationListener.class);
+        mCollector = new FailureLogCollector(mMockListener, mMockDevice);
+    }
+
+    /**
+     * Test that the logcat since the start of a failed test is forwarded right after the failure.
+     */
+    public void testTestFailed_logcat() {
+        final BackgroundLogcatReader reader = new BackgroundLogcatReader(mMockDevice, 1024) {
+            @Override
+            void start() {
+                // the logcat is fed by the test
+            }
+
+            @Override
+            boolean isRunning() {
+                return true;
+            }
+        };
+        mCollector = new FailureLogCollector(mMockListener, mMockDevice) {
+            @Override
+            BackgroundLogcatReader createLogcatReader(int bufferSize) {
+                return reader;
+            }
+        };
+        mMockListener.testRunStarted(RUN_NAME, 2);
+        mMockListener.testStarted(TEST1);
+        mMockListener.testFailed(TEST1, "trace");
+        mMockListener.testLog(EasyMock.eq("logcat-FooTest_testFoo"), EasyMock.eq(LogDataType.TEXT),
+                EasyMock.<InputStreamSource>notNull());
+        mMockListener.testEnded(TEST1, mMetrics);
+        mMockListener.testStarted(TEST2);
+        mMockListener.testEnded(TEST2, mMetrics);
+        mMockListener.testRunEnded(0, mMetrics);
+        EasyMock.replay(mMockDevice, mMockListener);
+
+        mCollector.enableLogcat(100);
+        mCollector.testRunStarted(RUN_NAME, 2);
+        mCollector.testStarted(TEST1);
+        byte[] log = "E/FooTest: failure\n".getBytes();
+        reader.addOutput(log, 0, log.length);
+        mCollector.testFailed(TEST1, "trace");
+        mCollector.testEnded(TEST1, mMetrics);
+        mCollector.testStarted(TEST2);
+        mCollector.testEnded(TEST2, mMetrics);
+        mCollector.testRunEnded(0, mMetrics);
+        mCollector.close();
+        EasyMock.verify(mMockDevice, mMockListener);
+    }
+
+    /**
+     * Test that failures while a bugreport is being captured don't trigger another one.
+     */
+    public void testTestFailed_bugreportBurst() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final InputStreamSource bugreport = new ByteArrayInputStreamSource(new byte[0]);
+        EasyMock.expect(mMockDevice.getBugreport()).andAnswer(new IAnswer<InputStreamSource>() {
+            @Override
+            public InputStreamSource answer() throws Throwable {
+                release.await();
+                return bugreport;
+            }
+        });
+        mMockListener.testRunStarted(RUN_NAME, 2);
+        mMockListener.testStarted(TEST1);
+        mMockListener.testFailed(TEST1, "trace");
+        mMockListener.testLog("bug-FooTest_testFoo", LogDataType.TEXT, bugreport);
+        mMockListener.testEnded(TEST1, mMetrics);
+        mMockListener.testStarted(TEST2);
+        mMockListener.testFailed(TEST2, "trace2");
+        mMockListener.testEnded(TEST2, mMetrics);
+        mMockListener.testRunEnded(0, mMetrics);
+        EasyMock.replay(mMockDevice, mMockListener);
+
+        mCollector.enableBugreport();
+        mCollector.testRunStarted(RUN_NAME, 2);
+        mCollector.testStarted(TEST1);
+        mCollector.testFailed(TEST1, "trace");
+        mCollector.testEnded(TEST1, mMetrics);
+        mCollector.testStarted(TEST2);
+        mCollector.testFailed(TEST2, "trace2");
+        mCollector.testEnded(TEST2, mMetrics);
+        release.countDown();
+        mCollector.testRunEnded(0, mMetrics);
+        mCollector.close();
+        EasyMock.verify(mMockDevice, mMockListener);
+    }
+
+    /**
+     * Test that a log reported while a capture is pending is queued after the captured log,
+     * without waiting for the capture.
+     */
+    public void testTestLog_whileCapturing() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final InputStreamSource bugreport = new ByteArrayInputStreamSource(new byte[0]);
+        EasyMock.expect(mMockDevice.getBugreport()).andAnswer(new IAnswer<InputStreamSource>() {
+            @Override
+            public InputStreamSource answer() throws Throwable {
+                release.await();
+                return bugreport;
+            }
+        });
+        final byte[] data = "host log".getBytes();
+        InputStreamSource hostLog = new InputStreamSource() {
+            @Override
+            public InputStream createInputStream() {
+                return new ByteArrayInputStream(data);
+            }
+
+            @Override
+            public void cancel() {
+            }
+
+            @Override
+            public long size() {
+                return data.length;
+            }
+        };
+        mMockListener.testRunStarted(RUN_NAME, 1);
+        mMockListener.testStarted(TEST1);
+        mMockListener.testFailed(TEST1, "trace");
+        mMockListener.testLog("bug-FooTest_testFoo", LogDataType.TEXT, bugreport);
+        mMockListener.testLog(EasyMock.eq("host"), EasyMock.eq(LogDataType.TEXT),
+                EasyMock.<InputStreamSource>notNull());
+        mMockListener.testEnded(TEST1, mMetrics);
+        mMockListener.testRunEnded(0, mMetrics);
+        EasyMock.replay(mMockDevice, mMockListener);
+
+        mCollector.enableBugreport();
+        mCollector.testRunStarted(RUN_NAME, 1);
+        mCollector.testStarted(TEST1);
+        mCollector.testFailed(TEST1, "trace");
+        // would never return if it waited for the bugreport
+        mCollector.testLog("host", LogDataType.TEXT, hostLog);
+        mCollector.testEnded(TEST1, mMetrics);
+        release.countDown();
+        mCollector.testRunEnded(0, mMetrics);
+        mCollector.close();
+        EasyMock.verify(mMockDevice, mMockListener);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LinePrefixMatcher}.
+ */
+public class LinePrefixMatcherTest extends TestCase {
+
+    private LinePrefixMatcher mMatcher = new LinePrefixMatcher(
+            "[==========] Running", "[==========]", "[ RUN      ]", "INSTRUMENTATION_");
+
+    /**
+     * Test that the first matching prefix is returned, in the given order.
+     */
+    public void testMatch() {
+        assertEquals(0, mMatcher.match("[==========] Running 2 tests from 1 test case."));
+        assertEquals(1, mMatcher.match("[==========] 2 tests from 1 test case ran."));
+        assertEquals(2, mMatcher.match("[ RUN      ] MessageTest.CopyConstructor"));
+        assertEquals(3, mMatcher.match("INSTRUMENTATION_CODE: 0"));
+    }
+
+    /**
+     * Test lines without any of the prefixes.
+     */
+    public void testMatch_noMatch() {
+        assertEquals(LinePrefixMatcher.NO_MATCH, mMatcher.match(""));
+        assertEquals(LinePrefixMatcher.NO_MATCH, mMatcher.match("Value of: 5"));
+        assertEquals(LinePrefixMatcher.NO_MATCH, mMatcher.match("[----------] Global setup"));
+        assertEquals(LinePrefixMatcher.NO_MATCH, mMatcher.match("[ RUN"));
+        assertEquals(LinePrefixMatcher.NO_MATCH, mMatcher.match("INSTRUMENTATION"));
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link LogcatRingBuffer}.
+ */
+public class LogcatRingBufferTest extends TestCase {
+
+    /**
+     * Test reading the data received since a given time.
+     */
+    public void testGetDataSince() {
+        LogcatRingBuffer buffer = new LogcatRingBuffer(16, 4);
+        append(buffer, 10, "aaa");
+        append(buffer, 20, "bbb");
+        append(buffer, 30, "ccc");
+        assertEquals("aaabbbccc", get(buffer, 0, 100));
+        assertEquals("bbbccc", get(buffer, 20, 100));
+        assertEquals("bbbccc", get(buffer, 15, 100));
+        assertEquals("", get(buffer, 31, 100));
+        // limited to the most recent bytes
+        assertEquals("bccc", get(buffer, 0, 4));
+    }
+
+    /**
+     * Test that the oldest data is overwritten once the buffer is full.
+     */
+    public void testGetDataSince_wrapped() {
+        LogcatRingBuffer buffer = new LogcatRingBuffer(8, 4);
+        append(buffer, 10, "aaaaa");
+        append(buffer, 20, "bbbbb");
+        assertEquals("aaabbbbb", get(buffer, 0, 100));
+        assertEquals("bbbbb", get(buffer, 20, 100));
+        append(buffer, 30, "0123456789");
+        assertEquals("23456789", get(buffer, 0, 100));
+        assertEquals("23456789", get(buffer, 30, 100));
+    }
+
+    /**
+     * Test that the data of chunks that are no longer tracked can't be read by time.
+     */
+    public void testGetDataSince_maxChunks() {
+        LogcatRingBuffer buffer = new LogcatRingBuffer(16, 2);
+        append(buffer, 10, "a");
+        append(buffer, 20, "b");
+        append(buffer, 30, "c");
+        assertEquals("bc", get(buffer, 0, 100));
+    }
+
+    private static void append(LogcatRingBuffer buffer, long time, String data) {
+        byte[] bytes = data.getBytes();
+        buffer.append(time, bytes, 0, bytes.length);
+    }
+
+    private static String get(LogcatRingBuffer buffer, long time, int maxBytes) {
+        return new String(buffer.getDataSince(time, maxBytes));
+    }
+}
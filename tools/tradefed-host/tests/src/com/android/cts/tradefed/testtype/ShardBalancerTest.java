@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.tradefed.testtype.CtsTest.TestPackage;
+import com.android.ddmlib.testrunner.TestIdentifier;
+
+import junit.framework.TestCase;
+
+import org.easymock.EasyMock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link ShardBalancer}.
+ */
+public class ShardBalancerTest extends TestCase {
+
+    private Map<String, Long> mDurations;
+    private List<TestPackage> mPackages;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDurations = new HashMap<>();
+        mPackages = new ArrayList<>();
+    }
+
+    /**
+     * Test that packages with known durations are balanced longest first.
+     */
+    public void testGetShard_durations() {
+        addPackage("a", 1, 30L);
+        addPackage("b", 1, 100L);
+        addPackage("c", 1, 50L);
+        addPackage("d", 1, 40L);
+        addPackage("e", 1, 60L);
+        ShardBalancer balancer = new ShardBalancer(mDurations);
+        // b=100 -> 0, e=60 -> 1, c=50 -> 1, d=40 -> 0, a=30 -> 1
+        assertShard(balancer.getShard(mPackages, 0, 2), "b", "d");
+        assertShard(balancer.getShard(mPackages, 1, 2), "a", "c", "e");
+    }
+
+    /**
+     * Test that test counts are used when no durations are known.
+     */
+    public void testGetShard_testCounts() {
+        addPackage("a", 10, null);
+        addPackage("b", 1, null);
+        addPackage("c", 1, null);
+        addPackage("d", 8, null);
+        ShardBalancer balancer = new ShardBalancer(mDurations);
+        assertShard(balancer.getShard(mPackages, 0, 2), "a");
+        assertShard(balancer.getShard(mPackages, 1, 2), "b", "c", "d");
+    }
+
+    /**
+     * Test that packages without a duration are estimated from the average time per test of
+     * packages with one.
+     */
+    public void testGetShard_mixed() {
+        addPackage("a", 10, 1000L);
+        addPackage("b", 2, null);
+        addPackage("c", 9, null);
+        ShardBalancer balancer = new ShardBalancer(mDurations);
+        // c is estimated to take 900ms, so gets its own shard
+        assertShard(balancer.getShard(mPackages, 0, 2), "a");
+        assertShard(balancer.getShard(mPackages, 1, 2), "b", "c");
+    }
+
+    /**
+     * Test that shards beyond the number of packages are empty.
+     */
+    public void testGetShard_moreShardsThanPackages() {
+        addPackage("a", 1, null);
+        addPackage("b", 1, null);
+        ShardBalancer balancer = new ShardBalancer(mDurations);
+        assertShard(balancer.getShard(mPackages, 0, 3), "a");
+        assertShard(balancer.getShard(mPackages, 1, 3), "b");
+        assertShard(balancer.getShard(mPackages, 2, 3));
+    }
+
+    /**
+     * Test that packages without known tests or durations are spread between shards, rather
+     * than all going to the first shard.
+     */
+    public void testGetShard_noTestsNoHistory() {
+        addPackage("a", 0, null);
+        addPackage("b", 0, null);
+        addPackage("c", 0, null);
+        addPackage("d", 0, null);
+        addPackage("e", 0, null);
+        ShardBalancer balancer = new ShardBalancer(mDurations);
+        assertShard(balancer.getShard(mPackages, 0, 3), "a", "d");
+        assertShard(balancer.getShard(mPackages, 1, 3), "b", "e");
+        assertShard(balancer.getShard(mPackages, 2, 3), "c");
+    }
+
+    private void addPackage(String id, int numTests, Long duration) {
+        Collection<TestIdentifier> tests = new ArrayList<>();
+        for (int i = 0; i < numTests; i++) {
+            tests.add(new TestIdentifier("com.example.Test", "test" + i));
+        }
+        ITestPackageDef def = EasyMock.createMock(ITestPackageDef.class);
+        EasyMock.expect(def.getId()).andStubReturn(id);
+        EasyMock.expect(def.getTests()).andStubReturn(tests);
+        EasyMock.replay(def);
+        mPackages.add(new TestPackage(def, null));
+        if (duration != null) {
+            mDurations.put(id, duration);
+        }
+    }
+
+    private void assertShard(List<TestPackage> shard, String... ids) {
+        assertEquals(ids.length, shard.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], shard.get(i).getTestRunName());
+        }
+    }
+}
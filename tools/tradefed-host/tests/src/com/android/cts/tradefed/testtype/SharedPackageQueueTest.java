@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link SharedPackageQueue}.
+ */
+public class SharedPackageQueueTest extends TestCase {
+
+    private static final String ARM_A = "armeabi-v7a pkgA";
+    private static final String ARM_B = "armeabi-v7a pkgB";
+    private static final String ARM64_A = "arm64-v8a pkgA";
+    private static final String ARM64_B = "arm64-v8a pkgB";
+    private static final List<String> ALL_IDS = Arrays.asList(ARM64_A, ARM_A, ARM64_B, ARM_B);
+
+    /**
+     * Test that packages are taken in queue order, and each package only once.
+     */
+    public void testTake() {
+        SharedPackageQueue queue = new SharedPackageQueue();
+        queue.addAll(ALL_IDS);
+        // another shard adding the same packages has no effect
+        queue.addAll(ALL_IDS);
+        assertEquals(4, queue.size());
+        Set<String> runnable = new HashSet<String>(ALL_IDS);
+        for (String id : ALL_IDS) {
+            assertEquals(id, queue.take(runnable, null));
+        }
+        assertNull(queue.take(runnable, null));
+        // taken packages are not queued again
+        queue.addAll(ALL_IDS);
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * Test that packages of the preferred ABI are taken first.
+     */
+    public void testTake_abiAffinity() {
+        SharedPackageQueue queue = new SharedPackageQueue();
+        queue.addAll(ALL_IDS);
+        Set<String> runnable = new HashSet<String>(ALL_IDS);
+        assertEquals(ARM_A, queue.take(runnable, "armeabi-v7a"));
+        assertEquals(ARM_B, queue.take(runnable, "armeabi-v7a"));
+        // no more packages of the preferred ABI
+        assertEquals(ARM64_A, queue.take(runnable, "armeabi-v7a"));
+    }
+
+    /**
+     * Test that only packages the caller can run are taken.
+     */
+    public void testTake_runnable() {
+        SharedPackageQueue queue = new SharedPackageQueue();
+        queue.addAll(ALL_IDS);
+        Set<String> runnable = new HashSet<String>(Arrays.asList(ARM_A, ARM_B));
+        assertEquals(ARM_A, queue.take(runnable, null));
+        assertEquals(ARM_B, queue.take(runnable, "arm64-v8a"));
+        assertNull(queue.take(runnable, null));
+        assertEquals(2, queue.size());
+    }
+}
@@ -21,6 +21,7 @@ import junit.framework.TestCase;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -174,4 +175,29 @@ public class TestFilterTest extends TestCase {
         mFilter.addIncludedClass(TEST1.getClassName());
         assertTrue(mFilter.filter(mTestList).isEmpty());
     }
+
+    /**
+     * Test {@link TestFilter#filter(java.util.Collection)} sorts tests by
+     * "className#testName", even when one class name is a prefix of another.
+     */
+    public void testFilter_sorted() {
+        List<TestIdentifier> tests = new ArrayList<TestIdentifier>();
+        tests.add(new TestIdentifier("Foo2", "a"));
+        tests.add(new TestIdentifier("Foo", "b"));
+        tests.add(new TestIdentifier("Foo!", "c"));
+        tests.add(new TestIdentifier("Foo#x", "a"));
+        tests.add(new TestIdentifier("Foo", "x#z"));
+        tests.add(new TestIdentifier("Foo", "a"));
+        Collection<TestIdentifier> filteredList = mFilter.filter(tests);
+        List<String> expected = new ArrayList<String>();
+        for (TestIdentifier test : tests) {
+            expected.add(test.toString());
+        }
+        Collections.sort(expected);
+        List<String> actual = new ArrayList<String>();
+        for (TestIdentifier test : filteredList) {
+            actual.add(test.toString());
+        }
+        assertEquals(expected, actual);
+    }
 }
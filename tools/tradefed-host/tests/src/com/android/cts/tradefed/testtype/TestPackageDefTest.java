@@ -15,8 +15,12 @@
  */
 package com.android.cts.tradefed.testtype;
 
+import com.android.tradefed.util.FileUtil;
+
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 
 import junit.framework.TestCase;
@@ -43,4 +47,42 @@ public class TestPackageDefTest extends TestCase {
 
     }
 
+    /**
+     * Test that digests are cached, and generated again once the file changes.
+     */
+    public void testGenerateDigest_cached() throws IOException {
+        File testCaseDir = FileUtil.createTempDir("testcases");
+        File cacheFile = new File(testCaseDir.getParentFile(), testCaseDir.getName() + ".digests");
+        try {
+            File apk = new File(testCaseDir, "Example.apk");
+            FileUtil.writeToFile("test data for digest", apk);
+            final int[] reads = new int[1];
+            TestPackageDef def = new TestPackageDef() {
+                @Override
+                InputStream getFileStream(File dir, String fileName)
+                        throws FileNotFoundException {
+                    reads[0]++;
+                    return super.getFileStream(dir, fileName);
+                }
+            };
+            String digest = def.generateDigest(testCaseDir, apk.getName());
+            assertEquals("58c222b5f5f81b4b58891ec59924b9b2f530452e", digest);
+            assertEquals(digest, def.generateDigest(testCaseDir, apk.getName()));
+            assertEquals(1, reads[0]);
+            // the cache is only written at the end of the run
+            assertFalse(cacheFile.exists());
+            DigestCache.saveAll();
+            assertTrue(cacheFile.exists());
+
+            // same length, so only the modification time differs
+            long lastModified = apk.lastModified();
+            FileUtil.writeToFile("TEST DATA FOR DIGEST", apk);
+            assertTrue(apk.setLastModified(lastModified + 10000));
+            assertFalse(digest.equals(def.generateDigest(testCaseDir, apk.getName())));
+            assertEquals(2, reads[0]);
+        } finally {
+            FileUtil.recursiveDelete(testCaseDir);
+            cacheFile.delete();
+        }
+    }
 }
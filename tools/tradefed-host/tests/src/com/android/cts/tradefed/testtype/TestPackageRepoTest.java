@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.cts.tradefed.testtype;
+
+import com.android.cts.util.AbiUtils;
+import com.android.tradefed.util.FileUtil;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Unit tests for {@link TestPackageRepo}.
+ */
+public class TestPackageRepoTest extends TestCase {
+
+    private static final String TEST_DATA =
+        "<TestPackage appNameSpace=\"com.example\" appPackageName=\"android.example\" " +
+        "name=\"CtsExampleTestCases\" runner=\"android.test.InstrumentationTestRunner\">" +
+        "    <TestSuite name=\"com\" >" +
+        "        <TestCase name=\"ExampleTest\" >" +
+        "            <Test name=\"testFoo\" />" +
+        "        </TestCase>" +
+        "    </TestSuite>" +
+        "</TestPackage>";
+
+    // same length as TEST_DATA, so only the modification time can tell them apart
+    private static final String MODIFIED_DATA = TEST_DATA.replace("testFoo", "testBar");
+
+    private File mTestCaseDir;
+    private String mId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTestCaseDir = FileUtil.createTempDir("testcases");
+        String abi = AbiUtils.getAbisSupportedByCts().iterator().next();
+        mId = AbiUtils.createId(abi, "android.example");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        FileUtil.recursiveDelete(mTestCaseDir);
+        super.tearDown();
+    }
+
+    /**
+     * Test that each repo gets its own copy of the cached package definitions.
+     */
+    public void testGetTestPackage_cached() throws IOException {
+        FileUtil.writeToFile(TEST_DATA, new File(mTestCaseDir, "CtsExampleTestCases.xml"));
+        ITestPackageDef def = new TestPackageRepo(mTestCaseDir, false).getTestPackage(mId);
+        assertEquals(1, def.getTests().size());
+        // filtering out all tests must not affect the next repo
+        def.setClassName("com.OtherTest", null);
+        def.createTest(mTestCaseDir);
+        assertEquals(0, def.getTests().size());
+
+        ITestPackageDef otherDef = new TestPackageRepo(mTestCaseDir, false).getTestPackage(mId);
+        assertNotSame(def, otherDef);
+        assertEquals(1, otherDef.getTests().size());
+    }
+
+    /**
+     * Test that a modified xml file is parsed again.
+     */
+    public void testGetTestPackage_modified() throws IOException {
+        File xmlFile = new File(mTestCaseDir, "CtsExampleTestCases.xml");
+        FileUtil.writeToFile(TEST_DATA, xmlFile);
+        long lastModified = xmlFile.lastModified();
+        assertEquals("testFoo", getTestName(new TestPackageRepo(mTestCaseDir, false)));
+
+        FileUtil.writeToFile(MODIFIED_DATA, xmlFile);
+        assertTrue(xmlFile.setLastModified(lastModified + 10000));
+        assertEquals("testBar", getTestName(new TestPackageRepo(mTestCaseDir, false)));
+    }
+
+    private String getTestName(TestPackageRepo repo) {
+        return repo.getTestPackage(mId).getTests().iterator().next().getTestName();
+    }
+}